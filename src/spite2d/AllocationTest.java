@@ -0,0 +1,137 @@
+package spite2d;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Allocation check: renders a fixed scene offscreen until it reaches steady state, then measures
+ * the bytes the rendering thread allocates per frame. Pass software (the default), gl2 or gl3 as
+ * the first argument to pick the backend; exits with status 1 if a frame allocates more than the
+ * budget. Needs a HotSpot-style JVM for per-thread allocation counts.
+ */
+public class AllocationTest {
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 200;
+    private static final int WARMUP_FRAMES = 300;
+    // Garbage made every frame shows in every round; the quietest round leaves out one-off
+    // allocations by the JVM itself (compilation, TLAB bookkeeping) that land in the thread's count
+    private static final int ROUNDS = 5;
+    private static final int FRAMES_PER_ROUND = 100;
+    // Below the smallest object, so even one allocation per frame fails
+    private static final long BUDGET_BYTES_PER_FRAME = 8;
+
+    private static final Color BACKGROUND = new Color(20, 20, 40);
+    private static final Color TRANSLUCENT = new Color(255, 0, 0, 128);
+
+    public static void main(String[] args) {
+        GraphicsBackend backend = args.length > 0 ? GraphicsBackend.valueOf(args[0].toUpperCase()) : GraphicsBackend.SOFTWARE;
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            System.out.println("Per-thread allocation counts are not available on this JVM");
+            System.exit(1);
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        long thread = Thread.currentThread().getId();
+
+        SpiteWindow window = SpiteWindow.createHeadless(WIDTH, HEIGHT, backend);
+        try {
+            Scene scene = new Scene(window);
+            int[] pixels = new int[WIDTH * HEIGHT];
+            for (int i = 0; i < WARMUP_FRAMES; i++) {
+                scene.draw(i);
+                window.renderFrame(pixels);
+            }
+
+            long perFrame = Long.MAX_VALUE;
+            int frame = WARMUP_FRAMES;
+            for (int round = 0; round < ROUNDS; round++) {
+                long before = threads.getThreadAllocatedBytes(thread);
+                for (int i = 0; i < FRAMES_PER_ROUND; i++) {
+                    scene.draw(frame++);
+                    window.renderFrame(pixels);
+                }
+                perFrame = Math.min(perFrame, (threads.getThreadAllocatedBytes(thread) - before) / FRAMES_PER_ROUND);
+            }
+
+            System.out.printf("%s: %d bytes allocated per frame (budget %d)%n", backend, perFrame, BUDGET_BYTES_PER_FRAME);
+            if (perFrame > BUDGET_BYTES_PER_FRAME) {
+                System.exit(1);
+            }
+        } finally {
+            window.stop();
+        }
+    }
+
+    // Everything the scene needs is created up front so the test itself allocates nothing per frame;
+    // retained content is recorded once, as it would be when its content doesn't change
+    private static class Scene {
+        private final SpiteWindow window;
+        private final BufferedImage sprite = new BufferedImage(16, 16, BufferedImage.TYPE_INT_ARGB);
+        private final RenderLayer layer;
+        private final RenderTarget target;
+        private final TileMap map;
+        private final int[] xs = {200, 240, 220};
+        private final int[] ys = {120, 130, 170};
+
+        Scene(SpiteWindow window) {
+            this.window = window;
+            for (int y = 0; y < 16; y++) {
+                for (int x = 0; x < 16; x++) {
+                    sprite.setRGB(x, y, ((x + y) & 1) == 0 ? 0xFFFF0000 : 0xFF0000FF);
+                }
+            }
+
+            layer = window.createLayer();
+            window.recordLayer(layer, () -> {
+                window.setColor(Color.GREEN);
+                for (int i = 0; i < 20; i++) {
+                    window.fillRect(i * 12, 180, 10, 10);
+                }
+            });
+
+            target = window.createRenderTarget(40, 40);
+            window.recordTarget(target, () -> {
+                window.setColor(Color.ORANGE);
+                window.fillOval(0, 0, 40, 40);
+            });
+
+            map = window.createTileMap(sprite, 4, 4, 10, 10);
+            for (int i = 0; i < 100; i++) {
+                map.setTile(i % 10, i / 10, i % 16);
+            }
+        }
+
+        void draw(int frame) {
+            window.setBackground(BACKGROUND);
+
+            for (int i = 0; i < 30; i++) {
+                double angle = (frame + i * 7) * 0.05;
+                int x = (int) (WIDTH / 2 + Math.cos(angle) * (20 + i * 3));
+                int y = (int) (HEIGHT / 2 + Math.sin(angle) * (10 + i * 2));
+                window.setColor(i % 2 == 0 ? Color.WHITE : TRANSLUCENT);
+                window.fillOval(x - 6, y - 6, 12, 12);
+            }
+
+            window.setColor(Color.YELLOW);
+            window.drawLine(0, 100, WIDTH - 1, 150);
+            window.drawRect(100, 10, 40, 40);
+            window.fillPolygon(xs, ys, xs.length);
+            window.drawImage(sprite, 200, 10, 32, 32);
+
+            window.pushTransform();
+            window.translate(100, 120);
+            window.rotate(frame * 0.01);
+            window.setColor(Color.MAGENTA);
+            window.fillRect(0, 0, 30, 20);
+            window.popTransform();
+
+            window.drawImage(target, 260, 60);
+            window.drawLayer(layer);
+            window.drawTileMap(map, 10, 20);
+
+            window.setColor(Color.CYAN);
+            window.drawString("Steady state", 10, 90);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package spite2d;
+
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+
+/**
+ * View onto a larger world: the world point at the center of the surface and a zoom factor.
+ * Apply it with SpiteWindow.applyCamera between pushTransform/popTransform; draws that land
+ * outside the view are then culled when they are recorded. Not thread-safe; move it from the
+ * thread that draws with it.
+ */
+public class Camera {
+    private double x, y;
+    private double zoom = 1;
+
+    public Camera() {
+    }
+
+    public Camera(double x, double y) {
+        this.x = x;
+        this.y = y;
+    }
+
+    public double getX() {
+        return x;
+    }
+
+    public double getY() {
+        return y;
+    }
+
+    public double getZoom() {
+        return zoom;
+    }
+
+    /**
+     * Center the view on a world point
+     */
+    public void setPosition(double x, double y) {
+        this.x = x;
+        this.y = y;
+    }
+
+    public void move(double dx, double dy) {
+        this.x += dx;
+        this.y += dy;
+    }
+
+    /**
+     * Screen pixels per world unit; greater than 1 zooms in
+     */
+    public void setZoom(double zoom) {
+        if (!(zoom > 0) || Double.isInfinite(zoom)) {
+            throw new IllegalArgumentException("Zoom must be positive: " + zoom);
+        }
+        this.zoom = zoom;
+    }
+
+    /**
+     * World area visible on a surface of the given size
+     */
+    public Rectangle2D.Double getViewBounds(int width, int height) {
+        double viewWidth = width / zoom, viewHeight = height / zoom;
+        return new Rectangle2D.Double(x - viewWidth / 2, y - viewHeight / 2, viewWidth, viewHeight);
+    }
+
+    /**
+     * World point under a surface pixel, e.g. for mouse picking
+     */
+    public Point2D.Double screenToWorld(double screenX, double screenY, int width, int height) {
+        return new Point2D.Double(x + (screenX - width / 2.0) / zoom, y + (screenY - height / 2.0) / zoom);
+    }
+
+    public Point2D.Double worldToScreen(double worldX, double worldY, int width, int height) {
+        return new Point2D.Double((worldX - x) * zoom + width / 2.0, (worldY - y) * zoom + height / 2.0);
+    }
+}
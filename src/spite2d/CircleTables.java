@@ -0,0 +1,57 @@
+package spite2d;
+
+// Precomputed unit-circle points so ovals and arcs are built from table lookups instead of
+// Math.sin/Math.cos per segment. Segment counts are rounded to a multiple of 8, which keeps the
+// number of tables small; arc endpoints come from a whole-degree table since arc angles are ints.
+final class CircleTables {
+    static final int MIN_SEGMENTS = 16;
+    static final int MAX_SEGMENTS = 256;
+    private static final int STEP = 8;
+
+    private static final float[] DEGREE_COS = new float[360];
+    private static final float[] DEGREE_SIN = new float[360];
+
+    static {
+        for (int i = 0; i < 360; i++) {
+            double angle = Math.toRadians(i);
+            DEGREE_COS[i] = (float) Math.cos(angle);
+            DEGREE_SIN[i] = (float) Math.sin(angle);
+        }
+    }
+
+    // Index n / STEP holds cos values then sin values for i * 2pi / n, i = 0..n
+    private final float[][] tables = new float[MAX_SEGMENTS / STEP + 1][];
+
+    /**
+     * Segment count for an oval of the given size, rounded up to a table size
+     */
+    static int segments(int width, int height) {
+        int segments = Math.max(MIN_SEGMENTS, Math.min(width, height) / 4);
+        return Math.min(MAX_SEGMENTS, (segments + STEP - 1) / STEP * STEP);
+    }
+
+    /**
+     * Table of n + 1 cosines followed by n + 1 sines around the full circle
+     */
+    float[] table(int segments) {
+        float[] table = tables[segments / STEP];
+        if (table == null) {
+            table = new float[(segments + 1) * 2];
+            for (int i = 0; i <= segments; i++) {
+                double angle = 2.0 * Math.PI * i / segments;
+                table[i] = (float) Math.cos(angle);
+                table[segments + 1 + i] = (float) Math.sin(angle);
+            }
+            tables[segments / STEP] = table;
+        }
+        return table;
+    }
+
+    static float degreeCos(int degrees) {
+        return DEGREE_COS[Math.floorMod(degrees, 360)];
+    }
+
+    static float degreeSin(int degrees) {
+        return DEGREE_SIN[Math.floorMod(degrees, 360)];
+    }
+}
@@ -0,0 +1,99 @@
+package spite2d;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Vertical textured strips for raycast walls, drawn with SpiteWindow.drawColumns in one batch.
+ * Each column is a screen x, a top and bottom edge, a texture index into the images given to
+ * setTextures, a horizontal texture coordinate u in [0, 1) and a shade in [0, 1] that darkens the
+ * texture. Columns are stored in primitive arrays and may be filled from several threads at once,
+ * as long as each index is written by one thread (see Raycaster).
+ */
+public class ColumnStrips {
+    final int[] x;
+    final float[] top, bottom;
+    final int[] texture;
+    final float[] u;
+    final float[] shade;
+    private int count;
+    private int columnWidth = 1;
+    private BufferedImage[] textures = new BufferedImage[0];
+
+    public ColumnStrips(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        x = new int[capacity];
+        top = new float[capacity];
+        bottom = new float[capacity];
+        texture = new int[capacity];
+        u = new float[capacity];
+        shade = new float[capacity];
+    }
+
+    public int getCapacity() {
+        return x.length;
+    }
+
+    public void setTextures(BufferedImage... textures) {
+        this.textures = textures != null ? textures.clone() : new BufferedImage[0];
+    }
+
+    BufferedImage[] getTextures() {
+        return textures;
+    }
+
+    /**
+     * Width in pixels of every strip, e.g. 2 to cast half as many rays
+     */
+    public void setColumnWidth(int columnWidth) {
+        if (columnWidth <= 0) {
+            throw new IllegalArgumentException("Column width must be positive: " + columnWidth);
+        }
+        this.columnWidth = columnWidth;
+    }
+
+    public int getColumnWidth() {
+        return columnWidth;
+    }
+
+    /**
+     * Number of columns to draw, starting at index 0
+     */
+    public void setCount(int count) {
+        if (count < 0 || count > x.length) {
+            throw new IllegalArgumentException("Count " + count + " outside capacity " + x.length);
+        }
+        this.count = count;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * Write column i; a negative texture index leaves the column empty
+     */
+    public void set(int i, int screenX, float top, float bottom, int texture, float u, float shade) {
+        this.x[i] = screenX;
+        this.top[i] = top;
+        this.bottom[i] = bottom;
+        this.texture[i] = texture;
+        this.u[i] = u;
+        this.shade[i] = shade;
+    }
+
+    /**
+     * Append a column after the last one
+     */
+    public void add(int screenX, float top, float bottom, int texture, float u, float shade) {
+        if (count == x.length) {
+            throw new IllegalStateException("Column strips are full: " + x.length);
+        }
+        set(count++, screenX, top, bottom, texture, u, shade);
+    }
+
+    public void clear() {
+        count = 0;
+    }
+}
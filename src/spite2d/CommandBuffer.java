@@ -0,0 +1,112 @@
+package spite2d;
+
+import java.util.Arrays;
+
+// Reusable opcode stream: draw calls append an opcode and primitive operands (floats stored as
+// raw int bits) instead of allocating a command object, and the GL thread decodes them in order.
+// Each command starts with a header of (length in ints << 8) | opcode so it can be skipped.
+// Object operands (images, strings, shapes, custom commands) live in a side table of references.
+final class CommandBuffer {
+    static final int OP_CUSTOM = 1;
+    static final int OP_LINE = 2;
+    static final int OP_RECT = 3;
+    static final int OP_FILL_RECT = 4;
+    static final int OP_OVAL = 5;
+    static final int OP_FILL_OVAL = 6;
+    static final int OP_ARC = 7;
+    static final int OP_FILL_ARC = 8;
+    static final int OP_POLYLINE = 9;
+    static final int OP_POLYGON = 10;
+    static final int OP_FILL_POLYGON = 11;
+    static final int OP_STRING = 12;
+    static final int OP_IMAGE = 13;
+    static final int OP_DRAW_SHAPE = 14;
+    static final int OP_FILL_SHAPE = 15;
+    static final int OP_PARTICLES = 17;
+    static final int OP_LAYER = 18;
+    static final int OP_TARGET = 19;
+    static final int OP_COPY_AREA = 20;
+    static final int OP_DEPTH = 21;
+    static final int OP_TRANSFORM = 22;
+    static final int OP_TILEMAP = 23;
+    static final int OP_IMAGE_REGION = 24;
+    static final int OP_COLUMNS = 25;
+
+    int[] data = new int[4096];
+    int size;
+    Object[] refs = new Object[256];
+    int refCount;
+
+    // Position of this buffer among the units submitted for a frame: by sort key, then submission order
+    int sortKey;
+    long sequence;
+    // Whether any draw in this buffer was given a depth, so the frame needs reordering
+    boolean hasDepth;
+
+    static int opcode(int header) {
+        return header & 0xFF;
+    }
+
+    static int length(int header) {
+        return header >>> 8;
+    }
+
+    /**
+     * Start a command with the given number of operand slots
+     */
+    CommandBuffer begin(int op, int operands) {
+        int length = operands + 1;
+        if (size + length > data.length) {
+            data = Arrays.copyOf(data, Math.max(data.length * 2, size + length));
+        }
+        data[size++] = (length << 8) | op;
+        return this;
+    }
+
+    CommandBuffer putInt(int value) {
+        data[size++] = value;
+        return this;
+    }
+
+    CommandBuffer putFloat(float value) {
+        data[size++] = Float.floatToRawIntBits(value);
+        return this;
+    }
+
+    CommandBuffer putRef(Object value) {
+        if (refCount == refs.length) {
+            refs = Arrays.copyOf(refs, refs.length * 2);
+        }
+        refs[refCount] = value;
+        data[size++] = refCount++;
+        return this;
+    }
+
+    CommandBuffer putInts(int[] values, int count) {
+        System.arraycopy(values, 0, data, size, count);
+        size += count;
+        return this;
+    }
+
+    float getFloat(int position) {
+        return Float.intBitsToFloat(data[position]);
+    }
+
+    Object getRef(int position) {
+        return refs[data[position]];
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Forget all commands, keeping the arrays for reuse but dropping object references
+     */
+    void clear() {
+        Arrays.fill(refs, 0, refCount, null);
+        refCount = 0;
+        size = 0;
+        hasDepth = false;
+    }
+}
@@ -0,0 +1,11 @@
+package spite2d;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// One fully committed frame: the recorded units in execution order plus the frame-wide state
+// (clear color) captured at commit time
+final class CommandFrame {
+    final List<CommandBuffer> units = new ArrayList<>();
+    float clearR, clearG, clearB, clearA;
+}
@@ -0,0 +1,121 @@
+package spite2d;
+
+import java.awt.*;
+import java.util.Arrays;
+
+// Per-thread recording state: the buffer draw calls append to plus the graphics state
+// (color, font, draw depth, transform) they are recorded with, so threads recording in parallel don't share it
+final class CommandRecorder {
+    CommandBuffer buffer;
+    volatile Color color = Color.BLACK;
+    volatile Font font = new Font("Dialog", Font.PLAIN, 12);
+    volatile int depth;
+    boolean active;
+    // Set while recording into a retained layer or render target instead of a frame
+    RecordingSink sink;
+
+    // Current transform {m00, m10, m01, m11, m02, m12} and the saved ones below it, 6 doubles each.
+    // Written to the buffer lazily, before the next draw command after a change.
+    final double[] transform = {1, 0, 0, 1, 0, 0};
+    private double[] stack = new double[6 * 8];
+    private int stackSize;
+    private boolean transformChanged;
+
+    CommandRecorder(CommandBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Start a draw command, writing the transform first if it changed since the last one
+     */
+    CommandBuffer begin(int op, int operands) {
+        if (transformChanged) {
+            double[] m = transform;
+            buffer.begin(CommandBuffer.OP_TRANSFORM, 6)
+                    .putFloat((float) m[0]).putFloat((float) m[1]).putFloat((float) m[2])
+                    .putFloat((float) m[3]).putFloat((float) m[4]).putFloat((float) m[5]);
+            transformChanged = false;
+        }
+        return buffer.begin(op, operands);
+    }
+
+    /**
+     * A new buffer starts at identity, so a non-identity transform must be written again
+     */
+    void bufferChanged() {
+        double[] m = transform;
+        transformChanged = m[0] != 1 || m[1] != 0 || m[2] != 0 || m[3] != 1 || m[4] != 0 || m[5] != 0;
+    }
+
+    // ===== Transform =====
+
+    /**
+     * this = this * [a c e; b d f], matching AffineTransform.concatenate
+     */
+    void concatenate(double a, double b, double c, double d, double e, double f) {
+        double[] m = transform;
+        double m00 = m[0], m10 = m[1], m01 = m[2], m11 = m[3];
+        m[0] = m00 * a + m01 * b;
+        m[1] = m10 * a + m11 * b;
+        m[2] = m00 * c + m01 * d;
+        m[3] = m10 * c + m11 * d;
+        m[4] += m00 * e + m01 * f;
+        m[5] += m10 * e + m11 * f;
+        transformChanged = true;
+    }
+
+    void setTransform(double m00, double m10, double m01, double m11, double m02, double m12) {
+        double[] m = transform;
+        m[0] = m00; m[1] = m10; m[2] = m01; m[3] = m11; m[4] = m02; m[5] = m12;
+        transformChanged = true;
+    }
+
+    void pushTransform() {
+        if (stackSize + 6 > stack.length) {
+            stack = Arrays.copyOf(stack, stack.length * 2);
+        }
+        System.arraycopy(transform, 0, stack, stackSize, 6);
+        stackSize += 6;
+    }
+
+    void popTransform() {
+        if (stackSize == 0) {
+            throw new IllegalStateException("popTransform called without pushTransform");
+        }
+        stackSize -= 6;
+        System.arraycopy(stack, stackSize, transform, 0, 6);
+        transformChanged = true;
+    }
+
+    /**
+     * Whether the box, in user space, overlaps the device-space rectangle once transformed
+     */
+    boolean overlaps(double x, double y, double width, double height,
+                     double minX, double minY, double maxX, double maxY) {
+        double[] m = transform;
+        double x0, y0, x1, y1;
+        if (m[1] == 0 && m[2] == 0) {
+            // No rotation or shear, the common case for cameras
+            x0 = m[0] * x + m[4];
+            x1 = m[0] * (x + width) + m[4];
+            y0 = m[3] * y + m[5];
+            y1 = m[3] * (y + height) + m[5];
+        } else {
+            double ax = m[0] * x + m[2] * y + m[4], ay = m[1] * x + m[3] * y + m[5];
+            double wx = m[0] * width, wy = m[1] * width, hx = m[2] * height, hy = m[3] * height;
+            x0 = x1 = ax;
+            y0 = y1 = ay;
+            x0 = Math.min(x0, Math.min(ax + wx, Math.min(ax + hx, ax + wx + hx)));
+            x1 = Math.max(x1, Math.max(ax + wx, Math.max(ax + hx, ax + wx + hx)));
+            y0 = Math.min(y0, Math.min(ay + wy, Math.min(ay + hy, ay + wy + hy)));
+            y1 = Math.max(y1, Math.max(ay + wy, Math.max(ay + hy, ay + wy + hy)));
+        }
+        return Math.max(x0, x1) >= minX && Math.min(x0, x1) <= maxX
+                && Math.max(y0, y1) >= minY && Math.min(y0, y1) <= maxY;
+    }
+
+    void resetTransform() {
+        setTransform(1, 0, 0, 1, 0, 0);
+        stackSize = 0;
+    }
+}
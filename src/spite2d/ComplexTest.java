@@ -14,16 +14,16 @@ import java.util.concurrent.locks.ReentrantLock;
 public class ComplexTest {
     private static final int WINDOW_WIDTH = 1200;
     private static final int WINDOW_HEIGHT = 800;
-    private static final int MAX_PARTICLES = 500;
+    private static final int MAX_PARTICLES = 500_000;
+    private static final int PARTICLES_PER_TICK = 500;
+    private static final float PARTICLE_LIFETIME = 5.0f;
     private static final int MAX_BOUNCING_BALLS = 20;
     private static final int MAX_ROTATING_SHAPES = 15;
     
     // Thread-safe data structures
-    private static final List<Particle> particles = new CopyOnWriteArrayList<>();
     private static final List<BouncingBall> bouncingBalls = new CopyOnWriteArrayList<>();
     private static final List<RotatingShape> rotatingShapes = new CopyOnWriteArrayList<>();
     private static final AtomicInteger fpsCounter = new AtomicInteger(0);
-    private static final AtomicInteger particleCount = new AtomicInteger(0);
     private static final AtomicInteger ballCount = new AtomicInteger(0);
     private static final AtomicInteger shapeCount = new AtomicInteger(0);
     
@@ -31,6 +31,8 @@ public class ComplexTest {
     private static final AtomicBoolean running = new AtomicBoolean(true);
     private static final ExecutorService executor = Executors.newFixedThreadPool(6);
     private static final ReentrantLock renderLock = new ReentrantLock();
+    private static ParticleEmitter particles;
+    private static RenderLayer backgroundGrid;
     
     // Performance tracking
     private static volatile long lastFpsUpdate = System.nanoTime();
@@ -42,6 +44,12 @@ public class ComplexTest {
     
     public static void main(String[] args) {
         SpiteWindow window = new SpiteWindow(WINDOW_WIDTH, WINDOW_HEIGHT, "Spite2D - Complex Multithreaded Test");
+        particles = window.createParticleEmitter(MAX_PARTICLES);
+        particles.setGravity(0, 40);
+        
+        // The grid never changes: record it once and replay it from a static buffer
+        backgroundGrid = window.createLayer();
+        window.recordLayer(backgroundGrid, () -> drawBackgroundGrid(window));
         
         // Start background threads
         startParticleSystem();
@@ -52,6 +60,10 @@ public class ComplexTest {
         
         // Set up the main render callback
         window.setRenderCallback(() -> {
+            // Update FPS counter
+            fpsCounter.incrementAndGet();
+            totalFrames++;
+
             renderLock.lock();
             try {
                 renderFrame(window);
@@ -60,34 +72,17 @@ public class ComplexTest {
             }
         });
         
-        // Start the window
+        // Start the window and its paced render thread (~60 FPS)
         window.start();
+        window.startRenderLoop(60);
         
-        // Main game loop
-        long lastFrameTime = System.nanoTime();
-        long targetFrameTime = 16_666_667L; // ~60 FPS
-        
+        // Main thread just waits for the window to close
         while (window.isRunning() && running.get()) {
-            long frameStartTime = System.nanoTime();
-            
-            // Update FPS counter
-            fpsCounter.incrementAndGet();
-            totalFrames++;
-            
-            // Render the frame
-            window.repaint();
-            
-            // Frame rate limiting
-            long frameTime = System.nanoTime() - frameStartTime;
-            if (frameTime < targetFrameTime) {
-                try {
-                    Thread.sleep((targetFrameTime - frameTime) / 1_000_000L);
-                } catch (InterruptedException e) {
-                    break;
-                }
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                break;
             }
-            
-            lastFrameTime = frameStartTime;
         }
         
         // Cleanup
@@ -99,10 +94,10 @@ public class ComplexTest {
         window.setBackground(new Color(20, 20, 40));
         
         // Draw background grid
-        drawBackgroundGrid(window);
+        window.drawLayer(backgroundGrid);
         
-        // Draw particles
-        drawParticles(window);
+        // Draw particles (simulated on the GPU)
+        window.drawParticles(particles);
         
         // Draw bouncing balls
         drawBouncingBalls(window);
@@ -132,16 +127,6 @@ public class ComplexTest {
         }
     }
     
-    private static void drawParticles(SpiteWindow window) {
-        for (Particle particle : particles) {
-            if (particle.isActive()) {
-                window.setColor(particle.getColor());
-                window.fillOval((int)particle.x, (int)particle.y, 
-                               (int)particle.size, (int)particle.size);
-            }
-        }
-    }
-    
     private static void drawBouncingBalls(SpiteWindow window) {
         for (BouncingBall ball : bouncingBalls) {
             window.setColor(ball.getColor());
@@ -165,6 +150,7 @@ public class ComplexTest {
             window.setColor(shape.getColor());
             
             // Apply transform for rotation
+            window.pushTransform();
             window.translate(shape.x, shape.y);
             window.rotate(shape.rotation);
             
@@ -186,8 +172,7 @@ public class ComplexTest {
                     break;
             }
             
-            // Reset transform
-            window.setTransform(new AffineTransform());
+            window.popTransform();
         }
     }
     
@@ -217,7 +202,7 @@ public class ComplexTest {
         window.drawString("Multithreaded Rendering Demo", 20, 50);
         
         window.setFont(new Font("Monospaced", Font.PLAIN, 12));
-        window.drawString("Particles: " + particleCount.get(), 20, 70);
+        window.drawString("Particles: " + Math.min(particles.getEmittedCount(), MAX_PARTICLES), 20, 70);
         window.drawString("Balls: " + ballCount.get(), 20, 85);
         window.drawString("Shapes: " + shapeCount.get(), 20, 100);
         window.drawString("Total Frames: " + totalFrames, 20, 115);
@@ -227,6 +212,9 @@ public class ComplexTest {
         window.setColor(Color.YELLOW);
         window.setFont(new Font("Monospaced", Font.BOLD, 16));
         window.drawString(String.format("FPS: %.1f", currentFPS), WINDOW_WIDTH - 150, 30);
+
+        window.setFont(new Font("Monospaced", Font.PLAIN, 12));
+        window.drawString("Draw calls: " + window.getDrawCallCount(), WINDOW_WIDTH - 150, 70);
         
         // Draw FPS bar
         window.setColor(Color.GREEN);
@@ -242,21 +230,19 @@ public class ComplexTest {
             
             while (running.get()) {
                 try {
-                    // Add new particles
-                    if (particles.size() < MAX_PARTICLES) {
-                        particles.add(new Particle(
-                            random.nextDouble() * WINDOW_WIDTH,
-                            random.nextDouble() * WINDOW_HEIGHT,
-                            random.nextDouble() * 4 - 2,
-                            random.nextDouble() * 4 - 2,
-                            random.nextDouble() * 10 + 5,
-                            new Color(random.nextInt(256), random.nextInt(256), random.nextInt(256))
-                        ));
-                        particleCount.incrementAndGet();
+                    // Spawn a batch of particles; the GPU moves and fades them from here on
+                    float[] spawn = new float[PARTICLES_PER_TICK * 6];
+                    for (int i = 0; i < PARTICLES_PER_TICK; i++) {
+                        int p = i * 6;
+                        spawn[p] = random.nextFloat() * WINDOW_WIDTH;
+                        spawn[p + 1] = random.nextFloat() * WINDOW_HEIGHT;
+                        spawn[p + 2] = random.nextFloat() * 80 - 40;
+                        spawn[p + 3] = random.nextFloat() * 80 - 40;
+                        spawn[p + 4] = random.nextFloat() * 10 + 5;
+                        spawn[p + 5] = PARTICLE_LIFETIME;
                     }
-                    
-                    // Update existing particles
-                    particles.removeIf(particle -> !particle.update());
+                    particles.emit(spawn, PARTICLES_PER_TICK,
+                            new Color(random.nextInt(256), random.nextInt(256), random.nextInt(256)));
                     
                     Thread.sleep(50); // 20 FPS particle system
                 } catch (InterruptedException e) {
@@ -356,16 +342,23 @@ public class ComplexTest {
                 public void mouseClicked(java.awt.event.MouseEvent e) {
                     // Add explosion effect at click point
                     Random random = threadRandom.get();
-                    for (int i = 0; i < 20; i++) {
-                        particles.add(new Particle(
-                            e.getX(),
-                            e.getY(),
-                            random.nextDouble() * 10 - 5,
-                            random.nextDouble() * 10 - 5,
-                            random.nextDouble() * 8 + 3,
-                            new Color(255, random.nextInt(256), 0)
-                        ));
-                    }
+                    particles.emitBurst(2000, e.getX(), e.getY(), 20, 200, 3, 11, 2.0f,
+                            new Color(255, random.nextInt(256), 0));
+                }
+            });
+
+            // F12 saves a screenshot without pausing the render loop
+            window.addKeyListener(new java.awt.event.KeyAdapter() {
+                @Override
+                public void keyPressed(java.awt.event.KeyEvent e) {
+                    if (e.getKeyCode() != java.awt.event.KeyEvent.VK_F12) return;
+                    window.captureScreenshot().thenAccept(image -> {
+                        try {
+                            javax.imageio.ImageIO.write(image, "png", new java.io.File("screenshot.png"));
+                        } catch (java.io.IOException ex) {
+                            System.err.println("Failed to save screenshot: " + ex.getMessage());
+                        }
+                    });
                 }
             });
         });
@@ -384,42 +377,6 @@ public class ComplexTest {
     }
     
     // Data classes
-    static class Particle {
-        double x, y, vx, vy, size;
-        Color color;
-        int life;
-        static final int MAX_LIFE = 100;
-        
-        public Particle(double x, double y, double vx, double vy, double size, Color color) {
-            this.x = x;
-            this.y = y;
-            this.vx = vx;
-            this.vy = vy;
-            this.size = size;
-            this.color = color;
-            this.life = MAX_LIFE;
-        }
-        
-        public boolean update() {
-            x += vx;
-            y += vy;
-            vy += 0.1; // gravity
-            life--;
-            
-            // Bounce off walls
-            if (x < 0 || x > WINDOW_WIDTH) vx = -vx;
-            if (y > WINDOW_HEIGHT) vy = -vy * 0.8;
-            
-            return life > 0 && y < WINDOW_HEIGHT + 100;
-        }
-        
-        public boolean isActive() { return life > 0; }
-        public Color getColor() { 
-            return new Color(color.getRed(), color.getGreen(), color.getBlue(), 
-                           (int)(255 * life / (double)MAX_LIFE)); 
-        }
-    }
-    
     static class BouncingBall {
         double x, y, vx, vy, size;
         Color color;
@@ -0,0 +1,167 @@
+package spite2d;
+
+import java.util.Arrays;
+
+// Execution order for a frame whose draws carry depths or are regrouped by material. Each command
+// gets one long sort key: depth, then segment, then material, then its position in the frame. Depths
+// that are not material-sorted use segment and material 0, so they keep painter's order; in sorted
+// depths, commands that cannot be reordered (custom GL, copyArea, ...) start a new segment, so
+// regrouping never moves a draw across them. Each command also keeps the position of the transform
+// it was recorded under, since reordering separates it from the OP_TRANSFORM before it.
+final class DrawOrder {
+    static final int MAX_COMMANDS = 1 << 20;
+    private static final int MAX_SEGMENT = 0xFFFF;
+    private static final int MAX_MATERIAL = 0xFFF;
+
+    private long[] keys = new long[1024];
+    private CommandBuffer[] units = new CommandBuffer[1024];
+    private int[] positions = new int[1024];
+    private int[] transforms = new int[1024];
+    private int count;
+
+    // Per-frame numbering of materials and the current segment of each depth
+    private final IntTable materials = new IntTable();
+    private final IntTable segments = new IntTable();
+
+    void clear() {
+        Arrays.fill(units, 0, count, null);
+        count = 0;
+        materials.clear();
+        segments.clear();
+    }
+
+    /**
+     * Small dense id for a texture and primitive kind, so similar draws sort next to each other
+     */
+    int material(int texture, boolean lines) {
+        int id = materials.get(texture, -1);
+        if (id < 0) {
+            id = materials.size();
+            materials.put(texture, id);
+        }
+        return Math.min(MAX_MATERIAL, (id << 1) | (lines ? 1 : 0));
+    }
+
+    int segment(int depth) {
+        return segments.get(depth, 0);
+    }
+
+    /**
+     * Segment for a command that must stay between what came before and after it at this depth
+     */
+    int barrier(int depth) {
+        int segment = segments.get(depth, 0) + 2;
+        segments.put(depth, segment);
+        return segment - 1;
+    }
+
+    /**
+     * Queue a command; false once the frame is too large to encode, in which case it is run unsorted
+     */
+    boolean add(int depth, int segment, int material, CommandBuffer unit, int position, int transform) {
+        if (count == MAX_COMMANDS || segment > MAX_SEGMENT) return false;
+
+        if (count == keys.length) {
+            int capacity = keys.length * 2;
+            keys = Arrays.copyOf(keys, capacity);
+            units = Arrays.copyOf(units, capacity);
+            positions = Arrays.copyOf(positions, capacity);
+            transforms = Arrays.copyOf(transforms, capacity);
+        }
+        // Depth is a short, so shifting it to the top keeps signed ordering
+        keys[count] = ((long) depth << 48) | ((long) segment << 32) | ((long) material << 20) | count;
+        units[count] = unit;
+        positions[count] = position;
+        transforms[count] = transform;
+        count++;
+        return true;
+    }
+
+    void sort() {
+        Arrays.sort(keys, 0, count);
+    }
+
+    int size() {
+        return count;
+    }
+
+    CommandBuffer unit(int index) {
+        return units[(int) (keys[index] & (MAX_COMMANDS - 1))];
+    }
+
+    int position(int index) {
+        return positions[(int) (keys[index] & (MAX_COMMANDS - 1))];
+    }
+
+    /**
+     * Position of the OP_TRANSFORM in effect for the command, or -1 for identity
+     */
+    int transform(int index) {
+        return transforms[(int) (keys[index] & (MAX_COMMANDS - 1))];
+    }
+
+    // Open-addressing int to int map with linear probing, so the per-command lookups don't box
+    private static final class IntTable {
+        private int[] keys = new int[16];
+        private int[] values = new int[16];
+        private boolean[] used = new boolean[16];
+        private int size;
+
+        int size() {
+            return size;
+        }
+
+        int get(int key, int missing) {
+            int slot = find(key);
+            return used[slot] ? values[slot] : missing;
+        }
+
+        void put(int key, int value) {
+            int slot = find(key);
+            if (!used[slot]) {
+                // Kept at most half full so probe runs stay short
+                if ((size + 1) * 2 > keys.length) {
+                    grow();
+                    slot = find(key);
+                }
+                used[slot] = true;
+                keys[slot] = key;
+                size++;
+            }
+            values[slot] = value;
+        }
+
+        void clear() {
+            if (size == 0) return;
+            Arrays.fill(used, false);
+            size = 0;
+        }
+
+        // Slot holding the key, or the free slot where it would go
+        private int find(int key) {
+            int mask = keys.length - 1;
+            int h = key * 0x9E3779B9;
+            int slot = (h ^ (h >>> 16)) & mask;
+            while (used[slot] && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void grow() {
+            int[] oldKeys = keys, oldValues = values;
+            boolean[] oldUsed = used;
+            keys = new int[oldKeys.length * 2];
+            values = new int[oldKeys.length * 2];
+            used = new boolean[oldKeys.length * 2];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldUsed[i]) {
+                    int slot = find(oldKeys[i]);
+                    used[slot] = true;
+                    keys[slot] = oldKeys[i];
+                    values[slot] = oldValues[i];
+                }
+            }
+        }
+    }
+}
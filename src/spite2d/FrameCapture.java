@@ -0,0 +1,241 @@
+package spite2d;
+
+import com.jogamp.opengl.GL2GL3;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+// Asynchronous frame readback: each frame's glReadPixels goes into one of a ring of pixel buffer
+// objects and returns immediately; the buffer is mapped two frames later, once the GPU has long
+// finished the transfer, copied into a pooled array and handed to an encoder thread. The GL thread
+// never waits on the GPU or on the sink; when the encoder falls behind, frames are dropped.
+final class FrameCapture {
+    private static final int RING_SIZE = 3;
+    private static final int POOL_SIZE = 4;
+
+    private final FrameSink sink;
+    private final int frameLimit;
+    private volatile boolean stopRequested;
+
+    // GL thread: PBO ring, oldest pending slot first
+    private final int[] buffers = new int[RING_SIZE];
+    private final int[] slotWidth = new int[RING_SIZE];
+    private final int[] slotHeight = new int[RING_SIZE];
+    private final long[] slotFrame = new long[RING_SIZE];
+    private int next;
+    private int pending;
+    private long requested;
+
+    // Encoder thread hand-off
+    private final BlockingQueue<Frame> queue = new LinkedBlockingQueue<>();
+    private final BlockingQueue<int[]> pool = new ArrayBlockingQueue<>(POOL_SIZE);
+    private int allocated;
+    private final Thread encoder;
+
+    private volatile long written;
+    private volatile long dropped;
+
+    private static final class Frame {
+        final int[] argb;
+        final int width, height;
+        final long number;
+
+        Frame(int[] argb, int width, int height, long number) {
+            this.argb = argb;
+            this.width = width;
+            this.height = height;
+            this.number = number;
+        }
+    }
+
+    private static final Frame END = new Frame(null, 0, 0, -1);
+
+    /**
+     * Capture every frame until stop(), or only the next frameLimit frames if it is positive
+     */
+    FrameCapture(FrameSink sink, int frameLimit) {
+        this.sink = sink;
+        this.frameLimit = frameLimit;
+        this.encoder = new Thread(this::encode, "Spite2D-Capture");
+        this.encoder.setDaemon(true);
+        this.encoder.start();
+    }
+
+    void stop() {
+        stopRequested = true;
+    }
+
+    long getWritten() {
+        return written;
+    }
+
+    long getDropped() {
+        return dropped;
+    }
+
+    // ===== GL thread =====
+
+    /**
+     * Queue a readback of the frame just drawn and collect the one from two frames ago.
+     * Returns false once the capture has finished and released its buffers.
+     */
+    boolean capture(GL2GL3 gl, GLStateCache state, int width, int height) {
+        if (buffers[0] == 0) {
+            gl.glGenBuffers(RING_SIZE, buffers, 0);
+        }
+
+        boolean accepting = !stopRequested && (frameLimit <= 0 || requested < frameLimit);
+        if (accepting && width > 0 && height > 0) {
+            int slot = next;
+            state.bindBuffer(gl, GL2GL3.GL_PIXEL_PACK_BUFFER, buffers[slot]);
+            if (slotWidth[slot] != width || slotHeight[slot] != height) {
+                gl.glBufferData(GL2GL3.GL_PIXEL_PACK_BUFFER, (long) width * height * 4, null, GL2GL3.GL_STREAM_READ);
+                slotWidth[slot] = width;
+                slotHeight[slot] = height;
+            }
+            gl.glPixelStorei(GL2GL3.GL_PACK_ALIGNMENT, 4);
+            gl.glReadPixels(0, 0, width, height, GL2GL3.GL_BGRA, GL2GL3.GL_UNSIGNED_INT_8_8_8_8_REV, 0L);
+            state.bindBuffer(gl, GL2GL3.GL_PIXEL_PACK_BUFFER, 0);
+
+            slotFrame[slot] = requested++;
+            next = (next + 1) % RING_SIZE;
+            pending++;
+        }
+
+        if (accepting) {
+            if (pending == RING_SIZE) {
+                collectOldest(gl, state);
+            }
+            return true;
+        }
+
+        // Finished: collect whatever is still in flight, then let the encoder close the sink
+        while (pending > 0) {
+            collectOldest(gl, state);
+        }
+        release(gl, state);
+        queue.add(END);
+        return false;
+    }
+
+    /**
+     * Software backend: the frame is already in memory, so it is copied and queued right away.
+     * Returns false once the capture has finished.
+     */
+    boolean capture(int[] frame, int width, int height) {
+        boolean accepting = !stopRequested && (frameLimit <= 0 || requested < frameLimit);
+        if (!accepting) {
+            queue.add(END);
+            return false;
+        }
+
+        long number = requested++;
+        int[] argb = obtain(width * height);
+        if (argb == null) {
+            dropped++;
+            return true;
+        }
+        // Same as a window surface: no meaningful alpha
+        for (int i = 0; i < width * height; i++) {
+            argb[i] = frame[i] | 0xFF000000;
+        }
+        queue.add(new Frame(argb, width, height, number));
+        return true;
+    }
+
+    /**
+     * Drop everything in flight without collecting it (context going away)
+     */
+    void release(GL2GL3 gl, GLStateCache state) {
+        if (buffers[0] != 0) {
+            state.deleteBuffers(gl, RING_SIZE, buffers);
+            buffers[0] = 0;
+        }
+        pending = 0;
+    }
+
+    void abort() {
+        stopRequested = true;
+        queue.add(END);
+    }
+
+    private void collectOldest(GL2GL3 gl, GLStateCache state) {
+        int slot = (next - pending + RING_SIZE) % RING_SIZE;
+        pending--;
+
+        int width = slotWidth[slot], height = slotHeight[slot];
+        int[] argb = obtain(width * height);
+        if (argb == null) {
+            dropped++;
+            return;
+        }
+
+        state.bindBuffer(gl, GL2GL3.GL_PIXEL_PACK_BUFFER, buffers[slot]);
+        ByteBuffer mapped = gl.glMapBuffer(GL2GL3.GL_PIXEL_PACK_BUFFER, GL2GL3.GL_READ_ONLY);
+        if (mapped == null) {
+            state.bindBuffer(gl, GL2GL3.GL_PIXEL_PACK_BUFFER, 0);
+            pool.offer(argb);
+            dropped++;
+            System.err.println("Failed to map capture buffer for frame " + slotFrame[slot]);
+            return;
+        }
+        IntBuffer pixels = mapped.order(ByteOrder.nativeOrder()).asIntBuffer();
+        // Rows come back bottom-up; the window surface has no meaningful alpha
+        for (int row = 0; row < height; row++) {
+            pixels.position((height - 1 - row) * width);
+            pixels.get(argb, row * width, width);
+        }
+        gl.glUnmapBuffer(GL2GL3.GL_PIXEL_PACK_BUFFER);
+        state.bindBuffer(gl, GL2GL3.GL_PIXEL_PACK_BUFFER, 0);
+
+        for (int i = 0; i < width * height; i++) {
+            argb[i] |= 0xFF000000;
+        }
+        queue.add(new Frame(argb, width, height, slotFrame[slot]));
+    }
+
+    // A free pixel array of the right size, or null when the encoder still holds all of them
+    private int[] obtain(int size) {
+        int[] argb = pool.poll();
+        if (argb == null && allocated < POOL_SIZE) {
+            allocated++;
+            argb = new int[size];
+        }
+        if (argb != null && argb.length != size) {
+            argb = new int[size];
+        }
+        return argb;
+    }
+
+    // ===== Encoder thread =====
+
+    private void encode() {
+        try {
+            while (true) {
+                Frame frame = queue.take();
+                if (frame == END) break;
+
+                try {
+                    sink.write(frame.argb, frame.width, frame.height, frame.number);
+                    written++;
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Error writing captured frame " + frame.number + ": " + e.getMessage());
+                }
+                pool.offer(frame.argb);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                sink.close();
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Error closing frame sink: " + e.getMessage());
+            }
+        }
+    }
+}
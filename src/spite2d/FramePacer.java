@@ -0,0 +1,51 @@
+package spite2d;
+
+import java.util.concurrent.locks.LockSupport;
+
+// Waits for fixed frame deadlines: parks for the bulk of the wait, then spins the last stretch
+// because parkNanos/sleep overshoot by up to a millisecond or more depending on the OS timer.
+// Deadlines advance by exactly one period, so rounding never accumulates into drift.
+class FramePacer {
+    private static final long SPIN_NANOS = 1_500_000L;
+
+    private volatile long periodNanos;
+    // Render-thread state
+    private long appliedPeriod;
+    private long deadline;
+
+    /**
+     * Zero or negative means unlimited: await() returns immediately
+     */
+    void setTargetFps(int fps) {
+        periodNanos = fps > 0 ? 1_000_000_000L / fps : 0;
+    }
+
+    void await() {
+        long period = periodNanos;
+        if (period != appliedPeriod) {
+            appliedPeriod = period;
+            deadline = 0;
+        }
+        if (period == 0) return;
+
+        long now = System.nanoTime();
+        if (deadline == 0) {
+            deadline = now + period;
+        }
+
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > SPIN_NANOS) {
+            LockSupport.parkNanos(remaining - SPIN_NANOS);
+        }
+        while (deadline - System.nanoTime() > 0) {
+            Thread.onSpinWait();
+        }
+
+        // After a long stall start a fresh schedule instead of rendering a burst to catch up
+        deadline += period;
+        now = System.nanoTime();
+        if (now - deadline > period) {
+            deadline = now + period;
+        }
+    }
+}
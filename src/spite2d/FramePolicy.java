@@ -0,0 +1,17 @@
+package spite2d;
+
+/**
+ * What happens when the game thread commits frames faster than the GL thread renders them
+ */
+public enum FramePolicy {
+    /**
+     * Render only the newest committed frame; older frames still waiting are dropped and
+     * endFrame() never waits for the GL thread
+     */
+    RENDER_LATEST,
+
+    /**
+     * Render every committed frame in order; endFrame() waits while all frame buffers are in use
+     */
+    RENDER_ALL
+}
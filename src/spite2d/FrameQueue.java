@@ -0,0 +1,105 @@
+package spite2d;
+
+import java.util.ArrayDeque;
+import java.util.function.Consumer;
+
+// Hands committed frames from the recording thread to the GL thread. Up to depth frames exist:
+// the one on screen (kept so it can be redrawn when nothing newer arrived) plus depth - 1 pending.
+class FrameQueue {
+    private final Object lock = new Object();
+    private final ArrayDeque<CommandFrame> free = new ArrayDeque<>();
+    private final ArrayDeque<CommandFrame> pending = new ArrayDeque<>();
+    private final Consumer<CommandFrame> recycler;
+    private CommandFrame displayed;
+    private int created;
+    private int depth = 2;
+    private FramePolicy policy = FramePolicy.RENDER_LATEST;
+    private volatile long dropped;
+
+    FrameQueue(Consumer<CommandFrame> recycler) {
+        this.recycler = recycler;
+    }
+
+    void configure(int depth, FramePolicy policy) {
+        synchronized (lock) {
+            this.depth = depth;
+            this.policy = policy;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Get an empty frame to commit into. Under RENDER_ALL this waits for the GL thread when every
+     * frame is in use; under RENDER_LATEST the oldest pending frame is dropped instead.
+     */
+    CommandFrame acquire() throws InterruptedException {
+        synchronized (lock) {
+            while (true) {
+                if (!free.isEmpty()) {
+                    return free.poll();
+                }
+                if (created < depth) {
+                    created++;
+                    return new CommandFrame();
+                }
+                if (policy == FramePolicy.RENDER_LATEST && !pending.isEmpty()) {
+                    CommandFrame stale = pending.poll();
+                    recycler.accept(stale);
+                    dropped++;
+                    return stale;
+                }
+                lock.wait();
+            }
+        }
+    }
+
+    void commit(CommandFrame frame) {
+        synchronized (lock) {
+            pending.add(frame);
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Next frame to render: the newest or oldest pending one depending on the policy, or the frame
+     * already on screen if nothing new was committed. Returns null before the first commit.
+     */
+    CommandFrame take() {
+        synchronized (lock) {
+            if (pending.isEmpty()) {
+                return displayed;
+            }
+
+            CommandFrame next;
+            if (policy == FramePolicy.RENDER_LATEST) {
+                next = pending.pollLast();
+                while (!pending.isEmpty()) {
+                    release(pending.poll());
+                    dropped++;
+                }
+            } else {
+                next = pending.poll();
+            }
+
+            if (displayed != null) {
+                release(displayed);
+            }
+            displayed = next;
+            lock.notifyAll();
+            return next;
+        }
+    }
+
+    long getDroppedFrames() {
+        return dropped;
+    }
+
+    private void release(CommandFrame frame) {
+        recycler.accept(frame);
+        if (created > depth) {
+            created--;
+        } else {
+            free.add(frame);
+        }
+    }
+}
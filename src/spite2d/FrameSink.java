@@ -0,0 +1,119 @@
+package spite2d;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Receives captured frames on the capture thread, in order. Pixels are width * height
+ * non-premultiplied ARGB ints, top row first; the array is reused after write returns.
+ */
+public interface FrameSink {
+    void write(int[] argb, int width, int height, long frameNumber) throws IOException;
+
+    /**
+     * Called once after the last frame
+     */
+    default void close() throws IOException {
+    }
+
+    /**
+     * One PNG per frame, named frame-000000.png, frame-000001.png, ... in the directory
+     */
+    static FrameSink pngSequence(File directory) {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalArgumentException("Cannot create capture directory: " + directory);
+        }
+        return (argb, width, height, frameNumber) -> {
+            BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            image.getRaster().setDataElements(0, 0, width, height, argb);
+            ImageIO.write(image, "png", new File(directory, String.format("frame-%06d.png", frameNumber)));
+        };
+    }
+
+    /**
+     * Frames back to back as raw BGRA bytes (e.g. ffmpeg -f rawvideo -pix_fmt bgra)
+     */
+    static FrameSink raw(File file) throws IOException {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 20);
+        return new FrameSink() {
+            private ByteBuffer bytes;
+
+            @Override
+            public void write(int[] argb, int width, int height, long frameNumber) throws IOException {
+                int size = width * height * 4;
+                if (bytes == null || bytes.capacity() < size) {
+                    bytes = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+                }
+                bytes.clear();
+                bytes.asIntBuffer().put(argb, 0, width * height);
+                out.write(bytes.array(), 0, size);
+            }
+
+            @Override
+            public void close() throws IOException {
+                out.close();
+            }
+        };
+    }
+
+    /**
+     * Same layout as raw, but written through a memory-mapped window of the file that is
+     * remapped only when full, so the OS flushes pages in the background instead of the
+     * capture thread copying through a stream
+     */
+    static FrameSink mappedFile(File file) throws IOException {
+        RandomAccessFile access = new RandomAccessFile(file, "rw");
+        access.setLength(0);
+        FileChannel channel = access.getChannel();
+        return new FrameSink() {
+            private static final long WINDOW_BYTES = 64L << 20;
+
+            // End of the frames written so far, and the mapped window they are going into
+            private long position;
+            private long windowStart;
+            private MappedByteBuffer window;
+            private IntBuffer pixels;
+
+            @Override
+            public void write(int[] argb, int width, int height, long frameNumber) throws IOException {
+                int size = width * height * 4;
+                if (window == null || position + size > windowStart + window.capacity()) {
+                    // The old window is unmapped once it is collected; at most one per WINDOW_BYTES
+                    windowStart = position;
+                    window = channel.map(FileChannel.MapMode.READ_WRITE, position, Math.max(WINDOW_BYTES, size));
+                    pixels = window.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+                }
+                pixels.position((int) ((position - windowStart) / 4));
+                pixels.put(argb, 0, width * height);
+                position += size;
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    if (window != null) {
+                        window.force();
+                        window = null;
+                        pixels = null;
+                    }
+                    // Mapping grew the file to the end of the last window
+                    channel.truncate(position);
+                } finally {
+                    channel.close();
+                    access.close();
+                }
+            }
+        };
+    }
+}
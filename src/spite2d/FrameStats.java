@@ -0,0 +1,102 @@
+package spite2d;
+
+/**
+ * Frame time statistics over the most recent frames of a SpiteWindow render loop
+ */
+public class FrameStats {
+    private static final int WINDOW = 240;
+
+    // Private so callers holding this object can never stall the render loop
+    private final Object lock = new Object();
+    private final long[] frameTimes = new long[WINDOW];
+    private int count;
+    private int next;
+    private long totalFrames;
+
+    void record(long frameNanos) {
+        synchronized (lock) {
+            frameTimes[next] = frameNanos;
+            next = (next + 1) % WINDOW;
+            if (count < WINDOW) count++;
+            totalFrames++;
+        }
+    }
+
+    void reset() {
+        synchronized (lock) {
+            count = 0;
+            next = 0;
+        }
+    }
+
+    public long getTotalFrames() {
+        synchronized (lock) {
+            return totalFrames;
+        }
+    }
+
+    public double getFps() {
+        double average = getAverageFrameTimeMillis();
+        return average > 0 ? 1000.0 / average : 0.0;
+    }
+
+    public double getAverageFrameTimeMillis() {
+        synchronized (lock) {
+            if (count == 0) return 0.0;
+
+            long sum = 0;
+            for (int i = 0; i < count; i++) {
+                sum += frameTimes[i];
+            }
+            return sum / (double) count / 1_000_000.0;
+        }
+    }
+
+    /**
+     * Standard deviation of the frame time: how far frames stray from the average
+     */
+    public double getFrameTimeStdDevMillis() {
+        synchronized (lock) {
+            if (count < 2) return 0.0;
+
+            double mean = getAverageFrameTimeMillis();
+            double sumSquares = 0;
+            for (int i = 0; i < count; i++) {
+                double delta = frameTimes[i] / 1_000_000.0 - mean;
+                sumSquares += delta * delta;
+            }
+            return Math.sqrt(sumSquares / (count - 1));
+        }
+    }
+
+    public double getMinFrameTimeMillis() {
+        synchronized (lock) {
+            if (count == 0) return 0.0;
+
+            long min = Long.MAX_VALUE;
+            for (int i = 0; i < count; i++) {
+                min = Math.min(min, frameTimes[i]);
+            }
+            return min / 1_000_000.0;
+        }
+    }
+
+    public double getMaxFrameTimeMillis() {
+        synchronized (lock) {
+            long max = 0;
+            for (int i = 0; i < count; i++) {
+                max = Math.max(max, frameTimes[i]);
+            }
+            return max / 1_000_000.0;
+        }
+    }
+
+    @Override
+    public String toString() {
+        synchronized (lock) {
+            return String.format("%.1f FPS, avg %.3f ms, stddev %.3f ms, min %.3f ms, max %.3f ms",
+                    getFps(), getAverageFrameTimeMillis(), getFrameTimeStdDevMillis(),
+                    getMinFrameTimeMillis(), getMaxFrameTimeMillis());
+        }
+    }
+}
@@ -0,0 +1,434 @@
+package spite2d;
+
+import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.GL2GL3;
+import com.jogamp.opengl.GL3;
+
+import java.util.Arrays;
+
+// Shadow copy of the GL state the renderer changes, so calls that would set a value already in
+// place are skipped. All GL-thread code binds, enables and loads matrices through here; anything
+// changed behind its back must be forgotten with invalidate(). Unknown state is always issued.
+// Client arrays and the matrix stacks only exist in the fixed-function pipeline (Gl2Backend).
+final class GLStateCache {
+    private static final int UNKNOWN = -1;
+
+    private int texture = UNKNOWN;
+    private int program = UNKNOWN;
+    private int framebuffer = UNKNOWN;
+    private int blendSource = UNKNOWN, blendDestination = UNKNOWN;
+    private final int[] viewport = {UNKNOWN, 0, 0, 0};
+    // Indexed by bufferSlot, capabilitySlot and clientStateSlot; 0 or 1 for the switches
+    private final int[] buffers = new int[4];
+    private final int[] capabilities = new int[5];
+    private final int[] clientStates = new int[3];
+    // Generic vertex attribute arrays by index; GL guarantees at least 16
+    private final int[] attribArrays = new int[16];
+
+    // Top of the modelview and projection stacks, valid while known
+    private int matrixMode = UNKNOWN;
+    private final double[][] matrices = new double[2][16];
+    private final boolean[] known = new boolean[2];
+    private final MatrixStack modelviewStack = new MatrixStack();
+    private final MatrixStack projectionStack = new MatrixStack();
+    private final double[] product = new double[16];
+    // Separate from product, which multMatrix writes while reading its argument
+    private final double[] orthographic = new double[16];
+    private final int[] single = new int[1];
+
+    // GL thread only; SpiteWindow publishes them once per frame
+    private long issued;
+    private long elided;
+
+    private static final double[] IDENTITY = {1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1};
+
+    GLStateCache() {
+        invalidate();
+    }
+
+    /**
+     * Forget everything, e.g. for a new context
+     */
+    void invalidate() {
+        texture = program = framebuffer = UNKNOWN;
+        blendSource = blendDestination = UNKNOWN;
+        viewport[0] = UNKNOWN;
+        Arrays.fill(buffers, UNKNOWN);
+        Arrays.fill(capabilities, UNKNOWN);
+        Arrays.fill(clientStates, UNKNOWN);
+        Arrays.fill(attribArrays, UNKNOWN);
+        matrixMode = UNKNOWN;
+        known[0] = known[1] = false;
+        modelviewStack.depth = 0;
+        projectionStack.depth = 0;
+    }
+
+    /**
+     * Forget the state the drawable may change between frames (its framebuffer, viewport and textures)
+     */
+    void beginFrame() {
+        texture = framebuffer = UNKNOWN;
+        viewport[0] = UNKNOWN;
+    }
+
+    long getIssued() {
+        return issued;
+    }
+
+    long getElided() {
+        return elided;
+    }
+
+    // ===== Bindings =====
+
+    void bindTexture(GL2GL3 gl, int id) {
+        if (texture == id) {
+            elided++;
+            return;
+        }
+        gl.glBindTexture(GL2GL3.GL_TEXTURE_2D, id);
+        texture = id;
+        issued++;
+    }
+
+    void bindBuffer(GL2GL3 gl, int target, int id) {
+        int slot = bufferSlot(target);
+        if (slot >= 0 && buffers[slot] == id) {
+            elided++;
+            return;
+        }
+        gl.glBindBuffer(target, id);
+        if (slot >= 0) {
+            buffers[slot] = id;
+        }
+        issued++;
+    }
+
+    void bindFramebuffer(GL2GL3 gl, int id) {
+        if (framebuffer == id) {
+            elided++;
+            return;
+        }
+        gl.glBindFramebuffer(GL2GL3.GL_FRAMEBUFFER, id);
+        framebuffer = id;
+        issued++;
+    }
+
+    /**
+     * Current framebuffer binding, queried once per frame at most
+     */
+    int getFramebuffer(GL2GL3 gl) {
+        if (framebuffer == UNKNOWN) {
+            gl.glGetIntegerv(GL2GL3.GL_FRAMEBUFFER_BINDING, single, 0);
+            framebuffer = single[0];
+        }
+        return framebuffer;
+    }
+
+    void useProgram(GL2GL3 gl, int id) {
+        if (program == id) {
+            elided++;
+            return;
+        }
+        gl.glUseProgram(id);
+        program = id;
+        issued++;
+    }
+
+    // Deleting a bound object reverts the binding to 0 in GL, so the shadow must follow
+
+    void deleteTexture(GL2GL3 gl, int id) {
+        single[0] = id;
+        gl.glDeleteTextures(1, single, 0);
+        if (texture == id) texture = 0;
+    }
+
+    void deleteBuffers(GL2GL3 gl, int count, int[] ids) {
+        gl.glDeleteBuffers(count, ids, 0);
+        for (int i = 0; i < count; i++) {
+            for (int slot = 0; slot < buffers.length; slot++) {
+                if (buffers[slot] == ids[i]) buffers[slot] = 0;
+            }
+        }
+    }
+
+    void deleteFramebuffer(GL2GL3 gl, int id) {
+        single[0] = id;
+        gl.glDeleteFramebuffers(1, single, 0);
+        if (framebuffer == id) framebuffer = 0;
+    }
+
+    void deleteProgram(GL2GL3 gl, int id) {
+        gl.glDeleteProgram(id);
+        if (program == id) program = 0;
+    }
+
+    // ===== Fixed function state =====
+
+    void enable(GL2GL3 gl, int capability) {
+        if (!change(capabilities, capabilitySlot(capability), 1)) return;
+        gl.glEnable(capability);
+    }
+
+    void disable(GL2GL3 gl, int capability) {
+        if (!change(capabilities, capabilitySlot(capability), 0)) return;
+        gl.glDisable(capability);
+    }
+
+    void enableClientState(GL2 gl, int array) {
+        if (!change(clientStates, clientStateSlot(array), 1)) return;
+        gl.glEnableClientState(array);
+    }
+
+    void disableClientState(GL2 gl, int array) {
+        if (!change(clientStates, clientStateSlot(array), 0)) return;
+        gl.glDisableClientState(array);
+    }
+
+    void enableVertexAttribArray(GL2GL3 gl, int index) {
+        if (!change(attribArrays, attribSlot(index), 1)) return;
+        gl.glEnableVertexAttribArray(index);
+    }
+
+    void disableVertexAttribArray(GL2GL3 gl, int index) {
+        if (!change(attribArrays, attribSlot(index), 0)) return;
+        gl.glDisableVertexAttribArray(index);
+    }
+
+    // Record a switch and tell whether the call must be issued; untracked slots always are
+    private boolean change(int[] switches, int slot, int value) {
+        if (slot >= 0 && switches[slot] == value) {
+            elided++;
+            return false;
+        }
+        if (slot >= 0) {
+            switches[slot] = value;
+        }
+        issued++;
+        return true;
+    }
+
+    void blendFunc(GL2GL3 gl, int source, int destination) {
+        if (blendSource == source && blendDestination == destination) {
+            elided++;
+            return;
+        }
+        gl.glBlendFunc(source, destination);
+        blendSource = source;
+        blendDestination = destination;
+        issued++;
+    }
+
+    void viewport(GL2GL3 gl, int x, int y, int width, int height) {
+        if (viewport[0] == x && viewport[1] == y && viewport[2] == width && viewport[3] == height) {
+            elided++;
+            return;
+        }
+        gl.glViewport(x, y, width, height);
+        viewport[0] = x;
+        viewport[1] = y;
+        viewport[2] = width;
+        viewport[3] = height;
+        issued++;
+    }
+
+    /**
+     * Current viewport as {x, y, width, height}, queried once per frame at most
+     */
+    int[] getViewport(GL2GL3 gl) {
+        if (viewport[0] == UNKNOWN) {
+            gl.glGetIntegerv(GL2GL3.GL_VIEWPORT, viewport, 0);
+        }
+        return viewport;
+    }
+
+    // ===== Matrices =====
+
+    void matrixMode(GL2 gl, int mode) {
+        if (matrixMode == mode) {
+            elided++;
+            return;
+        }
+        gl.glMatrixMode(mode);
+        matrixMode = mode;
+        issued++;
+    }
+
+    void loadIdentity(GL2 gl) {
+        loadMatrix(gl, IDENTITY);
+    }
+
+    /**
+     * Load a column-major matrix into the current matrix mode
+     */
+    void loadMatrix(GL2 gl, double[] matrix) {
+        int slot = slot();
+        if (slot >= 0 && known[slot] && Arrays.equals(matrices[slot], matrix)) {
+            elided++;
+            return;
+        }
+        if (matrix == IDENTITY) {
+            gl.glLoadIdentity();
+        } else {
+            gl.glLoadMatrixd(matrix, 0);
+        }
+        if (slot >= 0) {
+            System.arraycopy(matrix, 0, matrices[slot], 0, 16);
+            known[slot] = true;
+        }
+        issued++;
+    }
+
+    void multMatrix(GL2 gl, double[] matrix) {
+        if (Arrays.equals(matrix, IDENTITY)) {
+            elided++;
+            return;
+        }
+        gl.glMultMatrixd(matrix, 0);
+        int slot = slot();
+        if (slot >= 0 && known[slot]) {
+            multiply(matrices[slot], matrix, product);
+            System.arraycopy(product, 0, matrices[slot], 0, 16);
+        }
+        issued++;
+    }
+
+    /**
+     * Multiply the current matrix by an orthographic projection (same as glOrtho)
+     */
+    void ortho(GL2 gl, double left, double right, double bottom, double top, double near, double far) {
+        double[] matrix = orthographic;
+        Arrays.fill(matrix, 0);
+        matrix[0] = 2 / (right - left);
+        matrix[5] = 2 / (top - bottom);
+        matrix[10] = -2 / (far - near);
+        matrix[12] = -(right + left) / (right - left);
+        matrix[13] = -(top + bottom) / (top - bottom);
+        matrix[14] = -(far + near) / (far - near);
+        matrix[15] = 1;
+
+        int slot = slot();
+        if (slot >= 0 && known[slot] && Arrays.equals(matrices[slot], IDENTITY)) {
+            loadMatrix(gl, matrix);
+        } else {
+            multMatrix(gl, matrix);
+        }
+    }
+
+    void pushMatrix(GL2 gl) {
+        gl.glPushMatrix();
+        int slot = slot();
+        if (slot >= 0) {
+            stack(slot).push(matrices[slot], known[slot]);
+        }
+        issued++;
+    }
+
+    void popMatrix(GL2 gl) {
+        gl.glPopMatrix();
+        int slot = slot();
+        if (slot >= 0) {
+            known[slot] = stack(slot).pop(matrices[slot]);
+        }
+        issued++;
+    }
+
+    private int slot() {
+        return matrixMode == GL2.GL_MODELVIEW ? 0 : matrixMode == GL2.GL_PROJECTION ? 1 : -1;
+    }
+
+    // The few targets and switches the renderer uses; anything else is passed through untracked
+
+    private static int bufferSlot(int target) {
+        switch (target) {
+            case GL2GL3.GL_ARRAY_BUFFER:
+                return 0;
+            case GL2GL3.GL_ELEMENT_ARRAY_BUFFER:
+                return 1;
+            case GL2GL3.GL_PIXEL_PACK_BUFFER:
+                return 2;
+            case GL2GL3.GL_PIXEL_UNPACK_BUFFER:
+                return 3;
+            default:
+                return -1;
+        }
+    }
+
+    private static int capabilitySlot(int capability) {
+        switch (capability) {
+            case GL2GL3.GL_BLEND:
+                return 0;
+            case GL2GL3.GL_LINE_SMOOTH:
+                return 1;
+            case GL2GL3.GL_TEXTURE_2D:
+                return 2;
+            case GL3.GL_PROGRAM_POINT_SIZE:
+                return 3;
+            case GL2.GL_POINT_SPRITE:
+                return 4;
+            default:
+                return -1;
+        }
+    }
+
+    private int attribSlot(int index) {
+        return index >= 0 && index < attribArrays.length ? index : -1;
+    }
+
+    private static int clientStateSlot(int array) {
+        switch (array) {
+            case GL2.GL_VERTEX_ARRAY:
+                return 0;
+            case GL2.GL_TEXTURE_COORD_ARRAY:
+                return 1;
+            case GL2.GL_COLOR_ARRAY:
+                return 2;
+            default:
+                return -1;
+        }
+    }
+
+    private MatrixStack stack(int slot) {
+        return slot == 0 ? modelviewStack : projectionStack;
+    }
+
+    // result = a * b, column-major
+    private static void multiply(double[] a, double[] b, double[] result) {
+        for (int column = 0; column < 4; column++) {
+            for (int row = 0; row < 4; row++) {
+                double sum = 0;
+                for (int k = 0; k < 4; k++) {
+                    sum += a[k * 4 + row] * b[column * 4 + k];
+                }
+                result[column * 4 + row] = sum;
+            }
+        }
+    }
+
+    // Matrices saved below the top of one GL stack; levels are allocated once and reused
+    private static final class MatrixStack {
+        double[][] saved = new double[4][16];
+        boolean[] known = new boolean[4];
+        int depth;
+
+        void push(double[] top, boolean topKnown) {
+            if (depth == saved.length) {
+                saved = Arrays.copyOf(saved, depth * 2);
+                known = Arrays.copyOf(known, depth * 2);
+                for (int i = depth; i < saved.length; i++) {
+                    saved[i] = new double[16];
+                }
+            }
+            System.arraycopy(top, 0, saved[depth], 0, 16);
+            known[depth++] = topKnown;
+        }
+
+        // Restore the saved matrix into top; false if it was unknown or nothing was saved
+        boolean pop(double[] top) {
+            if (depth == 0) return false;
+            depth--;
+            System.arraycopy(saved[depth], 0, top, 0, 16);
+            return known[depth];
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package spite2d;
+
+import com.jogamp.common.nio.Buffers;
+import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.GL2GL3;
+import com.jogamp.opengl.GLProfile;
+
+// Fixed-function OpenGL 2: matrices on the GL matrix stacks, vertices through client arrays
+final class Gl2Backend implements RenderBackend {
+    private final GLStateCache state;
+    private final double[] modelview = new double[16];
+
+    Gl2Backend(GLStateCache state) {
+        this.state = state;
+        modelview[10] = 1;
+        modelview[15] = 1;
+    }
+
+    @Override
+    public GLProfile getProfile() {
+        return GLProfile.get(GLProfile.GL2);
+    }
+
+    @Override
+    public void init(GL2GL3 gl) {
+        GL2 gl2 = gl.getGL2();
+        state.enable(gl, GL2.GL_TEXTURE_2D);
+        // Array state stays enabled between frames; the state cache skips re-enabling it
+        state.enableClientState(gl2, GL2.GL_VERTEX_ARRAY);
+        state.enableClientState(gl2, GL2.GL_TEXTURE_COORD_ARRAY);
+        state.enableClientState(gl2, GL2.GL_COLOR_ARRAY);
+    }
+
+    @Override
+    public void release(GL2GL3 gl) {
+    }
+
+    @Override
+    public void setProjection(GL2GL3 gl, int width, int height) {
+        GL2 gl2 = gl.getGL2();
+        state.matrixMode(gl2, GL2.GL_PROJECTION);
+        state.loadIdentity(gl2);
+        state.ortho(gl2, 0, width, height, 0, -1, 1);
+        state.matrixMode(gl2, GL2.GL_MODELVIEW);
+        state.loadIdentity(gl2);
+    }
+
+    @Override
+    public void setModelview(GL2GL3 gl, float[] t) {
+        GL2 gl2 = gl.getGL2();
+        state.matrixMode(gl2, GL2.GL_MODELVIEW);
+        if (t == null) {
+            state.loadIdentity(gl2);
+            return;
+        }
+        double[] matrix = modelview;
+        matrix[0] = t[0];  matrix[1] = t[1];
+        matrix[4] = t[2];  matrix[5] = t[3];
+        matrix[12] = t[4]; matrix[13] = t[5];
+        state.loadMatrix(gl2, matrix);
+    }
+
+    @Override
+    public void bindVertices(GL2GL3 gl, int vertexBuffer, int indexBuffer) {
+        GL2 gl2 = gl.getGL2();
+        state.bindBuffer(gl, GL2.GL_ARRAY_BUFFER, vertexBuffer);
+        state.bindBuffer(gl, GL2.GL_ELEMENT_ARRAY_BUFFER, indexBuffer);
+        gl2.glVertexPointer(2, GL2.GL_FLOAT, SpriteBatch.BYTES_PER_VERTEX, 0);
+        gl2.glTexCoordPointer(2, GL2.GL_FLOAT, SpriteBatch.BYTES_PER_VERTEX, 2 * Buffers.SIZEOF_FLOAT);
+        gl2.glColorPointer(4, GL2.GL_UNSIGNED_BYTE, SpriteBatch.BYTES_PER_VERTEX, 4 * Buffers.SIZEOF_FLOAT);
+    }
+
+    @Override
+    public String shaderPrelude(boolean fragment) {
+        return "#version 120\n#define MATRIX gl_ModelViewProjectionMatrix\n";
+    }
+
+    @Override
+    public void loadMatrix(GL2GL3 gl, int location) {
+        // MATRIX is built in
+    }
+
+    @Override
+    public boolean isFixedFunction() {
+        return true;
+    }
+}
@@ -0,0 +1,169 @@
+package spite2d;
+
+import com.jogamp.common.nio.Buffers;
+import com.jogamp.opengl.GL2GL3;
+import com.jogamp.opengl.GLProfile;
+
+// OpenGL 3.2 core: one shader program for the batch, one vertex array object that stays bound,
+// and the projection * modelview matrix as a uniform. The batch's streamed buffers work unchanged.
+final class Gl3Backend implements RenderBackend {
+    private static final int ATTRIB_POSITION = 0;
+    private static final int ATTRIB_TEX_COORD = 1;
+    private static final int ATTRIB_COLOR = 2;
+
+    private static final String VERTEX_SHADER =
+            "#version 150 core\n" +
+            "in vec2 a_position;\n" +
+            "in vec2 a_texCoord;\n" +
+            "in vec4 a_color;\n" +
+            "uniform mat4 u_matrix;\n" +
+            "out vec2 v_texCoord;\n" +
+            "out vec4 v_color;\n" +
+            "void main() {\n" +
+            "    v_texCoord = a_texCoord;\n" +
+            "    v_color = a_color;\n" +
+            "    gl_Position = u_matrix * vec4(a_position, 0.0, 1.0);\n" +
+            "}\n";
+
+    // Same result as the fixed-function GL_MODULATE texture environment
+    private static final String FRAGMENT_SHADER =
+            "#version 150 core\n" +
+            "uniform sampler2D u_texture;\n" +
+            "in vec2 v_texCoord;\n" +
+            "in vec4 v_color;\n" +
+            "out vec4 fragColor;\n" +
+            "void main() {\n" +
+            "    fragColor = texture(u_texture, v_texCoord) * v_color;\n" +
+            "}\n";
+
+    private final GLStateCache state;
+    private final int[] vertexArray = new int[1];
+    private int program;
+    private int matrixLocation = -1;
+
+    // Ortho scale for the current surface and the modelview affine {m00, m10, m01, m11, m02, m12}
+    private float scaleX = 1, scaleY = -1;
+    private final float[] modelview = {1, 0, 0, 1, 0, 0};
+    // Column-major projection * modelview, as uploaded to u_matrix
+    private final float[] matrix = new float[16];
+
+    Gl3Backend(GLStateCache state) {
+        this.state = state;
+    }
+
+    @Override
+    public GLProfile getProfile() {
+        return GLProfile.get(GLProfile.GL3);
+    }
+
+    @Override
+    public void init(GL2GL3 gl) {
+        program = ShaderPrograms.link(gl, "Batch", VERTEX_SHADER, FRAGMENT_SHADER, "a_position", "a_texCoord", "a_color");
+        if (program == 0) {
+            System.err.println("GL3 backend has no batch shader; nothing will be drawn");
+            return;
+        }
+        matrixLocation = gl.glGetUniformLocation(program, "u_matrix");
+        state.useProgram(gl, program);
+        gl.glUniform1i(gl.glGetUniformLocation(program, "u_texture"), 0);
+
+        // Core profiles can't draw without a vertex array object; everything shares this one
+        gl.glGenVertexArrays(1, vertexArray, 0);
+        gl.glBindVertexArray(vertexArray[0]);
+    }
+
+    @Override
+    public void release(GL2GL3 gl) {
+        if (vertexArray[0] != 0) {
+            gl.glBindVertexArray(0);
+            gl.glDeleteVertexArrays(1, vertexArray, 0);
+            vertexArray[0] = 0;
+        }
+        if (program != 0) {
+            state.deleteProgram(gl, program);
+            program = 0;
+        }
+    }
+
+    @Override
+    public void setProjection(GL2GL3 gl, int width, int height) {
+        scaleX = 2f / width;
+        scaleY = -2f / height;
+        setModelview(gl, null);
+    }
+
+    @Override
+    public void setModelview(GL2GL3 gl, float[] t) {
+        if (t == null) {
+            modelview[0] = 1;
+            modelview[1] = 0;
+            modelview[2] = 0;
+            modelview[3] = 1;
+            modelview[4] = 0;
+            modelview[5] = 0;
+        } else {
+            System.arraycopy(t, 0, modelview, 0, 6);
+        }
+        updateMatrix();
+        if (program != 0) {
+            state.useProgram(gl, program);
+            gl.glUniformMatrix4fv(matrixLocation, 1, false, matrix, 0);
+        }
+    }
+
+    @Override
+    public void bindVertices(GL2GL3 gl, int vertexBuffer, int indexBuffer) {
+        state.useProgram(gl, program);
+        state.bindBuffer(gl, GL2GL3.GL_ARRAY_BUFFER, vertexBuffer);
+        state.bindBuffer(gl, GL2GL3.GL_ELEMENT_ARRAY_BUFFER, indexBuffer);
+        state.enableVertexAttribArray(gl, ATTRIB_POSITION);
+        state.enableVertexAttribArray(gl, ATTRIB_TEX_COORD);
+        state.enableVertexAttribArray(gl, ATTRIB_COLOR);
+        gl.glVertexAttribPointer(ATTRIB_POSITION, 2, GL2GL3.GL_FLOAT, false, SpriteBatch.BYTES_PER_VERTEX, 0);
+        gl.glVertexAttribPointer(ATTRIB_TEX_COORD, 2, GL2GL3.GL_FLOAT, false, SpriteBatch.BYTES_PER_VERTEX,
+                2 * Buffers.SIZEOF_FLOAT);
+        gl.glVertexAttribPointer(ATTRIB_COLOR, 4, GL2GL3.GL_UNSIGNED_BYTE, true, SpriteBatch.BYTES_PER_VERTEX,
+                4 * Buffers.SIZEOF_FLOAT);
+    }
+
+    @Override
+    public String shaderPrelude(boolean fragment) {
+        // GLSL 1.20 source runs as 1.50 once the renamed keywords and outputs are mapped
+        if (fragment) {
+            return "#version 150 core\n" +
+                    "#define varying in\n" +
+                    "#define texture2D texture\n" +
+                    "out vec4 fragColor;\n" +
+                    "#define gl_FragColor fragColor\n";
+        }
+        return "#version 150 core\n" +
+                "#define attribute in\n" +
+                "#define varying out\n" +
+                "#define texture2D texture\n" +
+                "uniform mat4 u_matrix;\n" +
+                "#define MATRIX u_matrix\n";
+    }
+
+    @Override
+    public void loadMatrix(GL2GL3 gl, int location) {
+        gl.glUniformMatrix4fv(location, 1, false, matrix, 0);
+    }
+
+    @Override
+    public boolean isFixedFunction() {
+        return false;
+    }
+
+    // Ortho (origin top left, depth -1..1) times the affine modelview
+    private void updateMatrix() {
+        float[] t = modelview;
+        matrix[0] = scaleX * t[0];
+        matrix[1] = scaleY * t[1];
+        matrix[4] = scaleX * t[2];
+        matrix[5] = scaleY * t[3];
+        matrix[10] = -1;
+        matrix[12] = scaleX * t[4] - 1;
+        matrix[13] = scaleY * t[5] + 1;
+        matrix[15] = 1;
+    }
+}
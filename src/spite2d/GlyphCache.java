@@ -0,0 +1,113 @@
+package spite2d;
+
+import com.jogamp.opengl.GL2GL3;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Rasterizes each (Font, glyph) pair once into the texture atlas (or software textures) and draws strings as batched
+// quads tinted by the vertex color. Glyphs are laid out with per-character advances, no kerning.
+class GlyphCache {
+    private static final int ASCII_GLYPHS = 256;
+    private static final int PADDING = 2;
+
+    private final TextureSource textures;
+    private final Map<Font, FontGlyphs> fonts = new HashMap<>();
+    // Metrics are also requested from user threads through SpiteWindow.getFontMetrics
+    private final Map<Font, FontMetrics> metrics = new ConcurrentHashMap<>();
+    private final Component metricsSource = new Canvas();
+
+    GlyphCache(TextureSource textures) {
+        this.textures = textures;
+    }
+
+    private static final class Glyph {
+        // Strongly held so the texture manager never reclaims it while the font is cached
+        final BufferedImage image;
+        final int advance;
+
+        Glyph(BufferedImage image, int advance) {
+            this.image = image;
+            this.advance = advance;
+        }
+    }
+
+    private static final class FontGlyphs {
+        final FontMetrics metrics;
+        final Glyph[] ascii = new Glyph[ASCII_GLYPHS];
+        final Map<Integer, Glyph> other = new HashMap<>();
+
+        FontGlyphs(FontMetrics metrics) {
+            this.metrics = metrics;
+        }
+    }
+
+    FontMetrics getFontMetrics(Font font) {
+        return metrics.computeIfAbsent(font, metricsSource::getFontMetrics);
+    }
+
+    /**
+     * Append the quads for a string with its baseline at (x, y)
+     */
+    void drawString(GL2GL3 gl, SpriteBatch batch, Font font, String str, float x, float y, int color) {
+        FontGlyphs glyphs = fonts.get(font);
+        if (glyphs == null) {
+            glyphs = new FontGlyphs(getFontMetrics(font));
+            fonts.put(font, glyphs);
+        }
+
+        float top = y - glyphs.metrics.getAscent();
+        float penX = x;
+        for (int i = 0; i < str.length(); ) {
+            int codePoint = str.codePointAt(i);
+            i += Character.charCount(codePoint);
+
+            Glyph glyph = getGlyph(font, glyphs, codePoint);
+            if (glyph.image != null) {
+                TextureAtlas.Region r = textures.getRegion(gl, glyph.image);
+                batch.texturedRect(r.texture, penX - PADDING, top, r.width, r.height,
+                        r.u0, r.v0, r.u1, r.v1, color);
+            }
+            penX += glyph.advance;
+        }
+    }
+
+    void clear() {
+        fonts.clear();
+    }
+
+    private Glyph getGlyph(Font font, FontGlyphs glyphs, int codePoint) {
+        Glyph glyph = codePoint < ASCII_GLYPHS ? glyphs.ascii[codePoint] : glyphs.other.get(codePoint);
+        if (glyph == null) {
+            glyph = rasterize(font, glyphs.metrics, codePoint);
+            if (codePoint < ASCII_GLYPHS) {
+                glyphs.ascii[codePoint] = glyph;
+            } else {
+                glyphs.other.put(codePoint, glyph);
+            }
+        }
+        return glyph;
+    }
+
+    private Glyph rasterize(Font font, FontMetrics fm, int codePoint) {
+        int advance = fm.charWidth(codePoint);
+        if (Character.isWhitespace(codePoint)) {
+            return new Glyph(null, advance);
+        }
+
+        // White glyph on transparent, padded for overhanging strokes (italics etc.)
+        int width = Math.max(1, advance + 2 * PADDING);
+        int height = Math.max(1, fm.getHeight());
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2d = image.createGraphics();
+        g2d.setFont(font);
+        g2d.setColor(Color.WHITE);
+        g2d.drawString(new String(Character.toChars(codePoint)), PADDING, fm.getAscent());
+        g2d.dispose();
+
+        return new Glyph(image, advance);
+    }
+}
@@ -0,0 +1,23 @@
+package spite2d;
+
+/**
+ * Pipeline a SpiteWindow renders with, chosen when it is created
+ */
+public enum GraphicsBackend {
+    /**
+     * Fixed-function OpenGL 2 compatibility profile; custom commands get a GL2 and may use anything in it
+     */
+    GL2,
+    /**
+     * OpenGL 3.2 core profile: shaders, a vertex array object and streamed buffers only, for drivers
+     * whose compatibility path is slow or missing (Mesa llvmpipe provides it). Custom commands are skipped.
+     */
+    GL3,
+    /**
+     * No OpenGL at all: frames are rasterized in Java into an int[], split into tiles drawn in
+     * parallel on the fork-join pool. Headless only (createHeadless); output is the same on any
+     * machine, which also makes it a reference for the GL backends. Custom commands and
+     * particles are skipped and lines are not antialiased.
+     */
+    SOFTWARE
+}
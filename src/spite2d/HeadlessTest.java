@@ -0,0 +1,80 @@
+package spite2d;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Headless throughput test: one offscreen SpiteWindow per core, each rendering frames as fast
+ * as possible and reading them back. Runs without a display (e.g. on Mesa llvmpipe with
+ * -Djava.awt.headless=true). Pass a frame count per worker as the first argument and gl2, gl3
+ * or software as the second to pick the backend.
+ */
+public class HeadlessTest {
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 360;
+
+    public static void main(String[] args) throws Exception {
+        int framesPerWorker = args.length > 0 ? Integer.parseInt(args[0]) : 300;
+        GraphicsBackend backend = args.length > 1 ? GraphicsBackend.valueOf(args[1].toUpperCase()) : GraphicsBackend.GL2;
+        int workers = Runtime.getRuntime().availableProcessors();
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        AtomicLong totalFrames = new AtomicLong();
+
+        long start = System.nanoTime();
+        List<Future<?>> results = new ArrayList<>();
+        for (int w = 0; w < workers; w++) {
+            int worker = w;
+            results.add(executor.submit(() -> {
+                renderFrames(worker, framesPerWorker, backend, totalFrames);
+                return null;
+            }));
+        }
+        for (Future<?> result : results) {
+            result.get();
+        }
+        executor.shutdown();
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d workers rendered %d frames in %.2f s (%.1f frames/s)%n",
+                workers, totalFrames.get(), seconds, totalFrames.get() / seconds);
+    }
+
+    private static void renderFrames(int worker, int frames, GraphicsBackend backend, AtomicLong totalFrames) throws IOException {
+        SpiteWindow window = SpiteWindow.createHeadless(WIDTH, HEIGHT, backend);
+        int[] pixels = new int[WIDTH * HEIGHT];
+        try {
+            for (int i = 0; i < frames; i++) {
+                drawScene(window, i);
+                window.renderFrame(pixels);
+                totalFrames.incrementAndGet();
+            }
+
+            // Keep one frame per worker so the output can be checked
+            drawScene(window, frames);
+            ImageIO.write(window.renderFrame(), "png", new File("headless-" + worker + ".png"));
+        } finally {
+            window.stop();
+        }
+    }
+
+    private static void drawScene(SpiteWindow window, int frame) {
+        window.setBackground(new Color(20, 20, 40));
+
+        for (int i = 0; i < 50; i++) {
+            double angle = (frame + i * 7) * 0.05;
+            int x = (int) (WIDTH / 2 + Math.cos(angle) * (40 + i * 5));
+            int y = (int) (HEIGHT / 2 + Math.sin(angle) * (20 + i * 3));
+            window.setColor(new Color(Color.HSBtoRGB(i / 50f, 0.8f, 1f)));
+            window.fillOval(x - 8, y - 8, 16, 16);
+        }
+
+        window.setColor(Color.WHITE);
+        window.drawString("Frame " + frame, 10, 20);
+    }
+}
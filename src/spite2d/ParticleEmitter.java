@@ -0,0 +1,312 @@
+package spite2d;
+
+import com.jogamp.common.nio.Buffers;
+import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.GL2GL3;
+import com.jogamp.opengl.GL3;
+
+import java.awt.Color;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * GPU particle system. Each particle is written once, at spawn, into a ring-buffer VBO and from
+ * then on moves analytically in a vertex shader (position + velocity * age + gravity * age^2 / 2,
+ * fading out over its lifetime), so live particles cost no CPU time at all.
+ * Spawn from any thread; draw with SpiteWindow.drawParticles. Velocities are in pixels per second.
+ * Needs GLSL 1.20 (OpenGL 2.1), or 1.50 on the GL3 backend; Mesa's software renderers provide both.
+ */
+public class ParticleEmitter {
+    // Per particle: x, y, vx, vy, spawn time (two floats), lifetime, size (floats) and packed RGBA
+    private static final int INTS_PER_PARTICLE = 9;
+    private static final int BYTES_PER_PARTICLE = INTS_PER_PARTICLE * Buffers.SIZEOF_INT;
+    private static final int ATTRIB_MOTION = 0;
+    private static final int ATTRIB_LIFE = 1;
+    private static final int ATTRIB_COLOR = 2;
+    // Times are split into a whole multiple of this many seconds plus the rest. Both parts subtract
+    // exactly, so ages stay accurate to microseconds however long the emitter lives.
+    private static final double TIME_STEP = 64;
+
+    private static final String VERTEX_SHADER =
+            "attribute vec4 a_motion;\n" +   // x, y, vx, vy
+            "attribute vec4 a_life;\n" +     // spawn time (steps, rest), lifetime, size
+            "attribute vec4 a_color;\n" +
+            "uniform vec2 u_time;\n" +
+            "uniform vec2 u_gravity;\n" +
+            "varying vec4 v_color;\n" +
+            "void main() {\n" +
+            "    float age = (u_time.x - a_life.x) + (u_time.y - a_life.y);\n" +
+            "    if (age < 0.0 || age >= a_life.z) {\n" +
+            "        gl_Position = vec4(2.0, 2.0, 2.0, 1.0);\n" +
+            "        gl_PointSize = 0.0;\n" +
+            "        v_color = vec4(0.0);\n" +
+            "        return;\n" +
+            "    }\n" +
+            "    vec2 pos = a_motion.xy + a_motion.zw * age + 0.5 * u_gravity * age * age;\n" +
+            "    gl_Position = MATRIX * vec4(pos, 0.0, 1.0);\n" +
+            "    gl_PointSize = a_life.w;\n" +
+            "    v_color = vec4(a_color.rgb, a_color.a * (1.0 - age / a_life.z));\n" +
+            "}\n";
+
+    private static final String FRAGMENT_SHADER =
+            "varying vec4 v_color;\n" +
+            "void main() {\n" +
+            "    vec2 d = gl_PointCoord - vec2(0.5);\n" +
+            "    if (dot(d, d) > 0.25) discard;\n" +
+            "    gl_FragColor = v_color;\n" +
+            "}\n";
+
+    private final int capacity;
+    private final long epoch = System.nanoTime();
+    private volatile float gravityX = 0, gravityY = 0;
+    private volatile boolean disposed = false;
+
+    // Spawns recorded since the last upload, guarded by this
+    private int[] staged = new int[INTS_PER_PARTICLE * 64];
+    private int stagedCount;
+    private long emitted;
+
+    // GL thread state
+    private final int[] vbo = new int[1];
+    private int program;
+    private int timeLocation, gravityLocation, matrixLocation;
+    private IntBuffer upload;
+    private int writeSlot;
+    private int usedSlots;
+
+    ParticleEmitter(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Particle capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+    }
+
+    // ===== Spawning (any thread) =====
+
+    /**
+     * Constant acceleration applied to every particle, in pixels per second squared
+     */
+    public void setGravity(float gx, float gy) {
+        this.gravityX = gx;
+        this.gravityY = gy;
+    }
+
+    public synchronized void emit(float x, float y, float vx, float vy, float size, float lifetime, Color color) {
+        if (stage(1) == 1) {
+            put(stagedCount - 1, x, y, vx, vy, size, lifetime, packColor(color), now());
+        }
+    }
+
+    /**
+     * Bulk spawn: count particles stored as x, y, vx, vy, size, lifetime (6 floats each)
+     */
+    public synchronized void emit(float[] particles, int count, Color color) {
+        int added = stage(count);
+        int first = stagedCount - added;
+        int rgba = packColor(color);
+        double time = now();
+        for (int i = 0; i < added; i++) {
+            int p = i * 6;
+            put(first + i, particles[p], particles[p + 1], particles[p + 2], particles[p + 3],
+                    particles[p + 4], particles[p + 5], rgba, time);
+        }
+    }
+
+    /**
+     * Spawn count particles at (x, y) flying in random directions
+     */
+    public synchronized void emitBurst(int count, float x, float y, float minSpeed, float maxSpeed,
+                                       float minSize, float maxSize, float lifetime, Color color) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int added = stage(count);
+        int first = stagedCount - added;
+        int rgba = packColor(color);
+        double time = now();
+        for (int i = 0; i < added; i++) {
+            double angle = random.nextDouble() * 2 * Math.PI;
+            float speed = minSpeed + random.nextFloat() * (maxSpeed - minSpeed);
+            float size = minSize + random.nextFloat() * (maxSize - minSize);
+            put(first + i, x, y, (float) Math.cos(angle) * speed, (float) Math.sin(angle) * speed,
+                    size, lifetime, rgba, time);
+        }
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Total particles spawned so far
+     */
+    public synchronized long getEmittedCount() {
+        return emitted;
+    }
+
+    /**
+     * Release the GPU buffers on the next frame; the emitter cannot be used afterwards
+     */
+    public void dispose() {
+        disposed = true;
+    }
+
+    boolean isDisposed() {
+        return disposed;
+    }
+
+    // Reserve room for up to count spawns and return how many fit; more than capacity spawns
+    // per frame would overwrite each other in the ring anyway, so the excess is dropped
+    private int stage(int count) {
+        count = Math.max(0, Math.min(count, capacity - stagedCount));
+
+        int needed = (stagedCount + count) * INTS_PER_PARTICLE;
+        if (needed > staged.length) {
+            staged = Arrays.copyOf(staged, Math.max(needed, staged.length * 2));
+        }
+        stagedCount += count;
+        emitted += count;
+        return count;
+    }
+
+    private void put(int slot, float x, float y, float vx, float vy, float size, float lifetime, int rgba, double time) {
+        int[] s = staged;
+        int at = slot * INTS_PER_PARTICLE;
+        s[at] = Float.floatToRawIntBits(x);
+        s[at + 1] = Float.floatToRawIntBits(y);
+        s[at + 2] = Float.floatToRawIntBits(vx);
+        s[at + 3] = Float.floatToRawIntBits(vy);
+        s[at + 4] = Float.floatToRawIntBits(timeSteps(time));
+        s[at + 5] = Float.floatToRawIntBits(timeRest(time));
+        s[at + 6] = Float.floatToRawIntBits(lifetime);
+        s[at + 7] = Float.floatToRawIntBits(size);
+        s[at + 8] = rgba;
+    }
+
+    private static int packColor(Color color) {
+        if (color == null) color = Color.WHITE;
+        return SpriteBatch.packColor(color.getRed(), color.getGreen(), color.getBlue(), color.getAlpha());
+    }
+
+    // Seconds since the emitter was created; the shader sees the same clock
+    private double now() {
+        return (System.nanoTime() - epoch) / 1e9;
+    }
+
+    private static float timeSteps(double time) {
+        return (float) (Math.floor(time / TIME_STEP) * TIME_STEP);
+    }
+
+    private static float timeRest(double time) {
+        return (float) (time - Math.floor(time / TIME_STEP) * TIME_STEP);
+    }
+
+    // ===== Rendering (GL thread) =====
+
+    /**
+     * Upload pending spawns and draw every particle slot as a shaded point
+     */
+    void render(GL2GL3 gl, GLStateCache state, RenderBackend backend) {
+        if (program == 0) {
+            init(gl, state, backend);
+        }
+        if (program < 0) return;
+
+        uploadStaged(gl, state);
+        if (usedSlots == 0) return;
+
+        state.useProgram(gl, program);
+        double time = now();
+        gl.glUniform2f(timeLocation, timeSteps(time), timeRest(time));
+        gl.glUniform2f(gravityLocation, gravityX, gravityY);
+        if (matrixLocation >= 0) {
+            backend.loadMatrix(gl, matrixLocation);
+        }
+
+        state.bindBuffer(gl, GL2GL3.GL_ARRAY_BUFFER, vbo[0]);
+        state.enableVertexAttribArray(gl, ATTRIB_MOTION);
+        state.enableVertexAttribArray(gl, ATTRIB_LIFE);
+        state.enableVertexAttribArray(gl, ATTRIB_COLOR);
+        gl.glVertexAttribPointer(ATTRIB_MOTION, 4, GL2GL3.GL_FLOAT, false, BYTES_PER_PARTICLE, 0);
+        gl.glVertexAttribPointer(ATTRIB_LIFE, 4, GL2GL3.GL_FLOAT, false, BYTES_PER_PARTICLE, 4 * Buffers.SIZEOF_FLOAT);
+        gl.glVertexAttribPointer(ATTRIB_COLOR, 4, GL2GL3.GL_UNSIGNED_BYTE, true, BYTES_PER_PARTICLE, 8 * Buffers.SIZEOF_FLOAT);
+        // Nothing else draws points, so these stay enabled between emitters and frames. GL3's
+        // PROGRAM_POINT_SIZE is the same enum as GL2's VERTEX_PROGRAM_POINT_SIZE.
+        state.enable(gl, GL3.GL_PROGRAM_POINT_SIZE);
+        if (backend.isFixedFunction()) {
+            // Core profiles always rasterize points as sprites and reject the enable
+            state.enable(gl, GL2.GL_POINT_SPRITE);
+        }
+
+        gl.glDrawArrays(GL2GL3.GL_POINTS, 0, usedSlots);
+
+        // Some drivers alias generic attributes onto fixed-function arrays, so these must go; through
+        // the cache, so it knows the GL3 backend has to enable them again
+        state.disableVertexAttribArray(gl, ATTRIB_MOTION);
+        state.disableVertexAttribArray(gl, ATTRIB_LIFE);
+        state.disableVertexAttribArray(gl, ATTRIB_COLOR);
+        state.useProgram(gl, 0);
+    }
+
+    void release(GL2GL3 gl, GLStateCache state) {
+        if (vbo[0] != 0) {
+            state.deleteBuffers(gl, 1, vbo);
+            vbo[0] = 0;
+        }
+        if (program > 0) {
+            state.deleteProgram(gl, program);
+        }
+        program = 0;
+        usedSlots = 0;
+        writeSlot = 0;
+    }
+
+    private void init(GL2GL3 gl, GLStateCache state, RenderBackend backend) {
+        program = ShaderPrograms.link(gl, "Particle", backend.shaderPrelude(false) + VERTEX_SHADER,
+                backend.shaderPrelude(true) + FRAGMENT_SHADER, "a_motion", "a_life", "a_color");
+        if (program == 0) {
+            // Remember the failure so the shader is not recompiled every frame
+            program = -1;
+            return;
+        }
+
+        timeLocation = gl.glGetUniformLocation(program, "u_time");
+        gravityLocation = gl.glGetUniformLocation(program, "u_gravity");
+        matrixLocation = gl.glGetUniformLocation(program, "u_matrix");
+
+        gl.glGenBuffers(1, vbo, 0);
+        state.bindBuffer(gl, GL2GL3.GL_ARRAY_BUFFER, vbo[0]);
+        gl.glBufferData(GL2GL3.GL_ARRAY_BUFFER, (long) capacity * BYTES_PER_PARTICLE, null, GL2GL3.GL_DYNAMIC_DRAW);
+    }
+
+    // Copy staged spawns into the ring at the write cursor, wrapping at capacity
+    private void uploadStaged(GL2GL3 gl, GLStateCache state) {
+        int count;
+        synchronized (this) {
+            count = stagedCount;
+            if (count == 0) return;
+
+            int ints = count * INTS_PER_PARTICLE;
+            if (upload == null || upload.capacity() < ints) {
+                upload = Buffers.newDirectIntBuffer(Math.max(ints, staged.length));
+            }
+            upload.clear();
+            upload.put(staged, 0, ints);
+            stagedCount = 0;
+        }
+
+        state.bindBuffer(gl, GL2GL3.GL_ARRAY_BUFFER, vbo[0]);
+        int first = Math.min(count, capacity - writeSlot);
+        upload.position(0);
+        upload.limit(first * INTS_PER_PARTICLE);
+        gl.glBufferSubData(GL2GL3.GL_ARRAY_BUFFER, (long) writeSlot * BYTES_PER_PARTICLE,
+                (long) first * BYTES_PER_PARTICLE, upload);
+        if (count > first) {
+            upload.limit(count * INTS_PER_PARTICLE);
+            upload.position(first * INTS_PER_PARTICLE);
+            gl.glBufferSubData(GL2GL3.GL_ARRAY_BUFFER, 0, (long) (count - first) * BYTES_PER_PARTICLE, upload);
+        }
+
+        writeSlot = (writeSlot + count) % capacity;
+        usedSlots = Math.min(capacity, usedSlots + count);
+    }
+}
@@ -0,0 +1,183 @@
+package spite2d;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Grid raycaster for Wolfenstein-style walls. Casts one ray per screen column with DDA over a
+ * row-major grid of cells (0 is empty, n > 0 a wall textured with texture n - 1) and writes the
+ * wall strips into ColumnStrips for SpiteWindow.drawColumns. Columns are split across the common
+ * fork-join pool, since every ray is independent. The cell array is read as it is, so walls can
+ * be changed between casts; don't change them during one.
+ */
+public class Raycaster {
+    // Columns per task; smaller ranges cost more to schedule than to cast
+    private static final int COLUMNS_PER_TASK = 64;
+
+    private final int[] cells;
+    private final int width, height;
+    private float sideShade = 0.7f;
+    private double fogDistance;
+    private float[] distances = new float[0];
+
+    public Raycaster(int[] cells, int width, int height) {
+        if (cells == null || width <= 0 || height <= 0 || cells.length < width * height) {
+            throw new IllegalArgumentException("Map must hold " + width + "x" + height + " cells");
+        }
+        this.cells = cells;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Shade of walls facing north or south, so corners stay readable (0.7 by default)
+     */
+    public void setSideShade(float sideShade) {
+        this.sideShade = Math.max(0, Math.min(1, sideShade));
+    }
+
+    /**
+     * Walls fade to black over this distance in cells; 0 turns fog off
+     */
+    public void setFogDistance(double fogDistance) {
+        this.fogDistance = Math.max(0, fogDistance);
+    }
+
+    /**
+     * Perpendicular distance to the wall in each column of the last cast, for clipping sprites;
+     * infinite where no wall was hit
+     */
+    public float getDistance(int column) {
+        return distances[column];
+    }
+
+    /**
+     * Cast from (x, y) in cell units looking along angle (radians) with the given horizontal
+     * field of view, filling one strip per column of a screenWidth x screenHeight view
+     */
+    public void cast(double x, double y, double angle, double fov, int screenWidth, int screenHeight, ColumnStrips out) {
+        int columnWidth = out.getColumnWidth();
+        int columns = (screenWidth + columnWidth - 1) / columnWidth;
+        if (columns > out.getCapacity()) {
+            throw new IllegalArgumentException(columns + " columns do not fit in strips of capacity " + out.getCapacity());
+        }
+        if (distances.length < columns) {
+            distances = new float[columns];
+        }
+
+        double dirX = Math.cos(angle), dirY = Math.sin(angle);
+        double planeLength = Math.tan(fov / 2);
+        Cast cast = new Cast(out, x, y, dirX, dirY, -dirY * planeLength, dirX * planeLength, screenWidth, screenHeight);
+        if (columns <= COLUMNS_PER_TASK) {
+            cast.columns(0, columns);
+        } else {
+            ForkJoinPool.commonPool().invoke(new CastTask(cast, 0, columns));
+        }
+        out.setCount(columns);
+    }
+
+    // One cast's view parameters, shared by all of its tasks
+    private final class Cast {
+        final ColumnStrips out;
+        final double x, y, dirX, dirY, planeX, planeY;
+        final int screenWidth, screenHeight;
+        final float sideShade = Raycaster.this.sideShade;
+        final double fogDistance = Raycaster.this.fogDistance;
+
+        Cast(ColumnStrips out, double x, double y, double dirX, double dirY, double planeX, double planeY,
+             int screenWidth, int screenHeight) {
+            this.out = out;
+            this.x = x;
+            this.y = y;
+            this.dirX = dirX;
+            this.dirY = dirY;
+            this.planeX = planeX;
+            this.planeY = planeY;
+            this.screenWidth = screenWidth;
+            this.screenHeight = screenHeight;
+        }
+
+        void columns(int from, int to) {
+            int columnWidth = out.getColumnWidth();
+            for (int column = from; column < to; column++) {
+                int screenX = column * columnWidth;
+                // -1 at the left edge of the view, 1 at the right, sampled at the column center
+                double cameraX = 2 * (screenX + columnWidth / 2.0) / screenWidth - 1;
+                ray(column, screenX, dirX + planeX * cameraX, dirY + planeY * cameraX);
+            }
+        }
+
+        // DDA: step cell edge to cell edge until a wall or the map edge
+        private void ray(int column, int screenX, double rayX, double rayY) {
+            int cellX = (int) Math.floor(x), cellY = (int) Math.floor(y);
+            double deltaX = rayX == 0 ? Double.POSITIVE_INFINITY : Math.abs(1 / rayX);
+            double deltaY = rayY == 0 ? Double.POSITIVE_INFINITY : Math.abs(1 / rayY);
+            int stepX = rayX < 0 ? -1 : 1, stepY = rayY < 0 ? -1 : 1;
+            double sideX = (rayX < 0 ? x - cellX : cellX + 1 - x) * deltaX;
+            double sideY = (rayY < 0 ? y - cellY : cellY + 1 - y) * deltaY;
+
+            boolean vertical = false;
+            int wall = 0;
+            while (true) {
+                if (sideX < sideY) {
+                    sideX += deltaX;
+                    cellX += stepX;
+                    vertical = false;
+                } else {
+                    sideY += deltaY;
+                    cellY += stepY;
+                    vertical = true;
+                }
+                if (cellX < 0 || cellY < 0 || cellX >= width || cellY >= height) break;
+                wall = cells[cellY * width + cellX];
+                if (wall > 0) break;
+            }
+            if (wall <= 0) {
+                distances[column] = Float.POSITIVE_INFINITY;
+                out.set(column, screenX, 0, 0, -1, 0, 0);
+                return;
+            }
+
+            double distance = vertical ? sideY - deltaY : sideX - deltaX;
+            distances[column] = (float) distance;
+            double lineHeight = screenHeight / Math.max(distance, 1e-6);
+            float top = (float) ((screenHeight - lineHeight) / 2);
+
+            // Where along the wall face the ray hit, mirrored so textures read the same from both sides
+            double hit = vertical ? x + distance * rayX : y + distance * rayY;
+            float u = (float) (hit - Math.floor(hit));
+            if ((!vertical && rayX > 0) || (vertical && rayY < 0)) {
+                u = 1 - u;
+            }
+
+            float shade = vertical ? sideShade : 1;
+            if (fogDistance > 0) {
+                shade *= (float) Math.max(0, 1 - distance / fogDistance);
+            }
+            out.set(column, screenX, top, (float) (top + lineHeight), wall - 1, Math.min(u, 0.99999f), shade);
+        }
+    }
+
+    private static final class CastTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Cast cast;
+        private final int from, to;
+
+        CastTask(Cast cast, int from, int to) {
+            this.cast = cast;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= COLUMNS_PER_TASK) {
+                cast.columns(from, to);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new CastTask(cast, from, middle), new CastTask(cast, middle, to));
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package spite2d;
+
+// Retained content (layers, render targets) that a thread can record draw calls into instead of a frame
+interface RecordingSink {
+    boolean isDisposed();
+
+    /**
+     * Take over a finished recording, replacing the previous one
+     */
+    void setRecording(CommandBuffer buffer);
+}
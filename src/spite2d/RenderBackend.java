@@ -0,0 +1,45 @@
+package spite2d;
+
+import com.jogamp.opengl.GL2GL3;
+import com.jogamp.opengl.GLProfile;
+
+// The parts of drawing that differ between the fixed-function GL2 pipeline and shader-only core
+// profiles: the projection and modelview matrices, the sprite batch vertex layout and the GLSL
+// dialect. Buffers, textures and framebuffers are plain GL2GL3 code shared by both. Backends
+// change GL state through the window's GLStateCache, like everything else.
+interface RenderBackend {
+    GLProfile getProfile();
+
+    void init(GL2GL3 gl);
+
+    void release(GL2GL3 gl);
+
+    /**
+     * Pixel coordinates with the origin at the top left of a width x height surface; also resets the modelview
+     */
+    void setProjection(GL2GL3 gl, int width, int height);
+
+    /**
+     * Transform for geometry the batch doesn't transform itself, as {m00, m10, m01, m11, m02, m12};
+     * null for identity
+     */
+    void setModelview(GL2GL3 gl, float[] transform);
+
+    /**
+     * Point the sprite batch vertex format (xy and uv floats, RGBA bytes) at these buffers
+     */
+    void bindVertices(GL2GL3 gl, int vertexBuffer, int indexBuffer);
+
+    /**
+     * Version line and definitions that let GLSL 1.20-style source compile in this profile.
+     * The source uses MATRIX for the projection * modelview matrix.
+     */
+    String shaderPrelude(boolean fragment);
+
+    /**
+     * Upload projection * modelview to the mat4 uniform of the program in use; -1 when MATRIX is a built-in
+     */
+    void loadMatrix(GL2GL3 gl, int location);
+
+    boolean isFixedFunction();
+}
@@ -0,0 +1,119 @@
+package spite2d;
+
+import com.jogamp.opengl.GL2GL3;
+
+/**
+ * Retained drawing: record SpiteWindow draw calls into the layer once (beginLayer/endLayer or
+ * recordLayer) and draw it every frame with drawLayer. The first draw compiles the recording into
+ * a GPU-resident vertex buffer; after that a frame costs one draw call per texture the layer uses.
+ * Re-record to change the content, or invalidate() to empty it.
+ */
+public class RenderLayer implements RecordingSink {
+    // Latest recording, handed from the recording thread to the GL thread; guarded by this
+    private CommandBuffer recorded;
+    private boolean changed;
+    private volatile boolean valid;
+    private volatile boolean disposed;
+
+    // GL thread state
+    CommandBuffer commands;
+    final SpriteBatch.Capture capture = new SpriteBatch.Capture();
+    final int[] buffers = new int[2];
+    int[] ranges = new int[0];
+    int rangeCount;
+    private int compiledVersion;
+    private boolean compiled;
+
+    RenderLayer() {
+    }
+
+    /**
+     * Drop the recorded content; the layer draws nothing until it is recorded again
+     */
+    public synchronized void invalidate() {
+        recorded = null;
+        changed = true;
+        valid = false;
+    }
+
+    public boolean isValid() {
+        return valid;
+    }
+
+    /**
+     * Release the GPU buffers on the next frame; the layer cannot be used afterwards
+     */
+    public void dispose() {
+        disposed = true;
+        invalidate();
+    }
+
+    @Override
+    public boolean isDisposed() {
+        return disposed;
+    }
+
+    @Override
+    public synchronized void setRecording(CommandBuffer buffer) {
+        recorded = buffer;
+        changed = true;
+        valid = true;
+    }
+
+    // ===== GL thread =====
+
+    /**
+     * Pick up a new recording, if any; returns whether there is anything to draw
+     */
+    boolean update() {
+        synchronized (this) {
+            if (changed) {
+                commands = recorded;
+                changed = false;
+                compiled = false;
+            }
+        }
+        return commands != null && !commands.isEmpty();
+    }
+
+    /**
+     * Whether the compiled buffers are missing or refer to texture coordinates that have since changed
+     */
+    boolean needsCompile(int textureVersion) {
+        return !compiled || compiledVersion != textureVersion;
+    }
+
+    /**
+     * Move the captured geometry into static buffers
+     */
+    void upload(GL2GL3 gl, GLStateCache state, int textureVersion) {
+        if (buffers[0] == 0) {
+            gl.glGenBuffers(2, buffers, 0);
+        }
+        state.bindBuffer(gl, GL2GL3.GL_ARRAY_BUFFER, buffers[0]);
+        gl.glBufferData(GL2GL3.GL_ARRAY_BUFFER, capture.vertices.limit(), capture.vertices, GL2GL3.GL_STATIC_DRAW);
+        state.bindBuffer(gl, GL2GL3.GL_ELEMENT_ARRAY_BUFFER, buffers[1]);
+        gl.glBufferData(GL2GL3.GL_ELEMENT_ARRAY_BUFFER, (long) capture.indices.limit() * Integer.BYTES,
+                capture.indices, GL2GL3.GL_STATIC_DRAW);
+
+        compile(textureVersion);
+    }
+
+    /**
+     * Keep the captured geometry as the layer's content; the software backend draws it from here
+     */
+    void compile(int textureVersion) {
+        ranges = capture.ranges.clone();
+        rangeCount = capture.rangeCount;
+        compiledVersion = textureVersion;
+        compiled = true;
+    }
+
+    void release(GL2GL3 gl, GLStateCache state) {
+        if (buffers[0] != 0) {
+            state.deleteBuffers(gl, 2, buffers);
+            buffers[0] = buffers[1] = 0;
+        }
+        compiled = false;
+    }
+}
@@ -0,0 +1,151 @@
+package spite2d;
+
+import com.jogamp.opengl.GL2GL3;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+
+/**
+ * Offscreen image backed by a framebuffer object. Record draw calls into it with
+ * beginTarget/endTarget (or recordTarget) using the normal SpiteWindow API, then draw it like an
+ * image with drawImage. The recording is rendered into the texture once, the first time the target
+ * is drawn after it changes, so expensive composited content costs one textured quad per frame.
+ */
+public class RenderTarget implements RecordingSink {
+    private final int width, height;
+    private volatile Color clearColor = new Color(0, 0, 0, 0);
+    private volatile boolean disposed;
+
+    // Latest recording, handed from the recording thread to the GL thread; guarded by this
+    private CommandBuffer recorded;
+    private boolean changed;
+
+    // GL thread state
+    CommandBuffer commands;
+    int texture;
+    int framebuffer;
+    boolean rendering;
+    // Software backend: the target's pixels, drawn like any TYPE_INT_ARGB image
+    BufferedImage image;
+    private boolean rendered;
+    private boolean failed;
+
+    RenderTarget(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Render target size must be positive: " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Color the target is cleared to before its content is rendered; transparent by default
+     */
+    public void setClearColor(Color color) {
+        this.clearColor = color != null ? color : new Color(0, 0, 0, 0);
+    }
+
+    Color getClearColor() {
+        return clearColor;
+    }
+
+    /**
+     * Render the current recording again on next use, e.g. after images it draws were modified
+     */
+    public synchronized void invalidate() {
+        changed = true;
+    }
+
+    /**
+     * Release the texture and framebuffer on the next frame; the target cannot be used afterwards
+     */
+    public void dispose() {
+        disposed = true;
+    }
+
+    @Override
+    public boolean isDisposed() {
+        return disposed;
+    }
+
+    @Override
+    public synchronized void setRecording(CommandBuffer buffer) {
+        recorded = buffer;
+        changed = true;
+    }
+
+    // ===== GL thread =====
+
+    /**
+     * Pick up a new recording; returns whether the texture content must be rendered
+     */
+    boolean update() {
+        synchronized (this) {
+            if (changed) {
+                commands = recorded;
+                changed = false;
+                rendered = false;
+            }
+        }
+        return !rendered;
+    }
+
+    void markRendered() {
+        rendered = true;
+    }
+
+    /**
+     * Create the texture and framebuffer on first use; false if the driver rejects them
+     */
+    boolean allocate(GL2GL3 gl, GLStateCache state) {
+        if (framebuffer != 0) return true;
+        if (failed) return false;
+
+        int[] ids = new int[1];
+        gl.glGenTextures(1, ids, 0);
+        texture = ids[0];
+        state.bindTexture(gl, texture);
+        gl.glTexParameteri(GL2GL3.GL_TEXTURE_2D, GL2GL3.GL_TEXTURE_MIN_FILTER, GL2GL3.GL_LINEAR);
+        gl.glTexParameteri(GL2GL3.GL_TEXTURE_2D, GL2GL3.GL_TEXTURE_MAG_FILTER, GL2GL3.GL_LINEAR);
+        gl.glTexParameteri(GL2GL3.GL_TEXTURE_2D, GL2GL3.GL_TEXTURE_WRAP_S, GL2GL3.GL_CLAMP_TO_EDGE);
+        gl.glTexParameteri(GL2GL3.GL_TEXTURE_2D, GL2GL3.GL_TEXTURE_WRAP_T, GL2GL3.GL_CLAMP_TO_EDGE);
+        gl.glTexImage2D(GL2GL3.GL_TEXTURE_2D, 0, GL2GL3.GL_RGBA8, width, height, 0,
+                GL2GL3.GL_RGBA, GL2GL3.GL_UNSIGNED_BYTE, null);
+
+        int previousFramebuffer = state.getFramebuffer(gl);
+        gl.glGenFramebuffers(1, ids, 0);
+        framebuffer = ids[0];
+        state.bindFramebuffer(gl, framebuffer);
+        gl.glFramebufferTexture2D(GL2GL3.GL_FRAMEBUFFER, GL2GL3.GL_COLOR_ATTACHMENT0, GL2GL3.GL_TEXTURE_2D, texture, 0);
+        int status = gl.glCheckFramebufferStatus(GL2GL3.GL_FRAMEBUFFER);
+        state.bindFramebuffer(gl, previousFramebuffer);
+
+        if (status != GL2GL3.GL_FRAMEBUFFER_COMPLETE) {
+            System.err.println("Render target framebuffer incomplete: 0x" + Integer.toHexString(status));
+            release(gl, state);
+            failed = true;
+            return false;
+        }
+        return true;
+    }
+
+    void release(GL2GL3 gl, GLStateCache state) {
+        if (framebuffer != 0) {
+            state.deleteFramebuffer(gl, framebuffer);
+            framebuffer = 0;
+        }
+        if (texture != 0) {
+            state.deleteTexture(gl, texture);
+            texture = 0;
+        }
+        rendered = false;
+    }
+}
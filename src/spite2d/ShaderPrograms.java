@@ -0,0 +1,64 @@
+package spite2d;
+
+import com.jogamp.opengl.GL2GL3;
+
+import java.nio.charset.StandardCharsets;
+
+// Compiling and linking GLSL programs; failures are reported on stderr and return 0
+final class ShaderPrograms {
+    private ShaderPrograms() {
+    }
+
+    /**
+     * Link a program from vertex and fragment source, binding the attributes to locations 0, 1, ... in order
+     */
+    static int link(GL2GL3 gl, String name, String vertexSource, String fragmentSource, String... attributes) {
+        int vertex = compile(gl, name, GL2GL3.GL_VERTEX_SHADER, vertexSource);
+        int fragment = compile(gl, name, GL2GL3.GL_FRAGMENT_SHADER, fragmentSource);
+        if (vertex == 0 || fragment == 0) {
+            if (vertex != 0) gl.glDeleteShader(vertex);
+            if (fragment != 0) gl.glDeleteShader(fragment);
+            return 0;
+        }
+
+        int program = gl.glCreateProgram();
+        gl.glAttachShader(program, vertex);
+        gl.glAttachShader(program, fragment);
+        for (int i = 0; i < attributes.length; i++) {
+            gl.glBindAttribLocation(program, i, attributes[i]);
+        }
+        gl.glLinkProgram(program);
+        gl.glDeleteShader(vertex);
+        gl.glDeleteShader(fragment);
+
+        int[] status = new int[1];
+        gl.glGetProgramiv(program, GL2GL3.GL_LINK_STATUS, status, 0);
+        if (status[0] == 0) {
+            byte[] log = new byte[1024];
+            int[] length = new int[1];
+            gl.glGetProgramInfoLog(program, log.length, length, 0, log, 0);
+            System.err.println(name + " shader link failed: " + new String(log, 0, length[0], StandardCharsets.UTF_8));
+            gl.glDeleteProgram(program);
+            return 0;
+        }
+        return program;
+    }
+
+    private static int compile(GL2GL3 gl, String name, int type, String source) {
+        int shader = gl.glCreateShader(type);
+        gl.glShaderSource(shader, 1, new String[]{source}, null, 0);
+        gl.glCompileShader(shader);
+
+        int[] status = new int[1];
+        gl.glGetShaderiv(shader, GL2GL3.GL_COMPILE_STATUS, status, 0);
+        if (status[0] == 0) {
+            byte[] log = new byte[1024];
+            int[] length = new int[1];
+            gl.glGetShaderInfoLog(shader, log.length, length, 0, log, 0);
+            System.err.println(name + " shader compile failed: " + new String(log, 0, length[0], StandardCharsets.UTF_8));
+            gl.glDeleteShader(shader);
+            return 0;
+        }
+        return shader;
+    }
+}
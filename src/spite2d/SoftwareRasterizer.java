@@ -0,0 +1,505 @@
+package spite2d;
+
+import com.jogamp.opengl.GL2GL3;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+// Rasterizer for the software backend. SpriteBatch hands it every batch as indexed triangles or
+// lines; they are queued until resolve(), which bins each primitive into the 64 x 64 pixel tiles
+// its bounds touch and then rasterizes the tiles in parallel on the common fork-join pool. A tile
+// draws its primitives in submission order and no two tasks share a pixel, so the result does not
+// depend on the number of cores. Vertices are snapped to 1/256 pixel and triangles follow the
+// top-left fill rule, so edges shared by two triangles are drawn exactly once. Blending, texture
+// modulation and bilinear sampling follow the GL backends; lines are not antialiased.
+final class SoftwareRasterizer {
+    static final int TILE_SIZE = 64;
+    private static final int SUBPIXEL_BITS = 8;
+    private static final int SUBPIXEL = 1 << SUBPIXEL_BITS;
+    private static final int HALF_PIXEL = SUBPIXEL / 2;
+    // Vertices further off the surface are clamped so edge functions stay within a long
+    private static final float COORDINATE_LIMIT = 1 << 20;
+    // Below this many queued primitives, one thread is faster than splitting the tiles
+    private static final int PARALLEL_PRIMITIVES = 64;
+
+    private static final byte TRIANGLE = 3;
+    private static final byte LINE = 2;
+
+    private final SoftwareTextures textures;
+    private final int frameWidth, frameHeight;
+    private final int[] frame;
+
+    // Surface being drawn to: the frame, or a render target's pixels
+    private int[] pixels;
+    private int width, height;
+
+    // Queued vertices: snapped position, texture coordinates and ARGB color
+    private int[] positions = new int[3 * 1024 * 2];
+    private float[] texCoords = new float[3 * 1024 * 2];
+    private int[] colors = new int[3 * 1024];
+    private int vertexCount;
+
+    // Queued primitives: kind, first vertex and texture
+    private byte[] kinds = new byte[1024];
+    private int[] firstVertex = new int[1024];
+    private SoftwareTextures.Texture[] primitiveTextures = new SoftwareTextures.Texture[1024];
+    private int primitiveCount;
+
+    // Primitive indices per tile, in submission order
+    private int tilesX, tilesY;
+    private int[][] bins = new int[0][];
+    private int[] binSizes = new int[0];
+    // Task trees by tile count, built once and reinitialized for every parallel resolve
+    private TileTask[] tileTrees = new TileTask[0];
+
+    SoftwareRasterizer(SoftwareTextures textures, int width, int height) {
+        this.textures = textures;
+        this.frameWidth = width;
+        this.frameHeight = height;
+        this.frame = new int[width * height];
+        setSurface(frame, width, height);
+    }
+
+    int[] getFrame() {
+        return frame;
+    }
+
+    int getFrameWidth() {
+        return frameWidth;
+    }
+
+    int getFrameHeight() {
+        return frameHeight;
+    }
+
+    int[] getSurface() {
+        return pixels;
+    }
+
+    int getSurfaceWidth() {
+        return width;
+    }
+
+    int getSurfaceHeight() {
+        return height;
+    }
+
+    /**
+     * Draw into width x height ARGB pixels from here on; anything queued goes to the previous surface first
+     */
+    void setSurface(int[] pixels, int width, int height) {
+        resolve();
+        this.pixels = pixels;
+        this.width = width;
+        this.height = height;
+        tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+        tilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+        int tiles = tilesX * tilesY;
+        if (bins.length < tiles) {
+            bins = Arrays.copyOf(bins, tiles);
+            binSizes = Arrays.copyOf(binSizes, tiles);
+        }
+    }
+
+    void resetSurface() {
+        setSurface(frame, frameWidth, frameHeight);
+    }
+
+    void clear(int argb) {
+        primitiveCount = 0;
+        vertexCount = 0;
+        Arrays.fill(pixels, 0, width * height, argb);
+    }
+
+    /**
+     * Copy a rectangle of the surface by (dx, dy), after everything queued so far
+     */
+    void copyArea(int x, int y, int w, int h, int dx, int dy) {
+        resolve();
+        // Clip the source so both it and the destination lie on the surface
+        int x0 = Math.max(Math.max(x, 0), -dx);
+        int y0 = Math.max(Math.max(y, 0), -dy);
+        int x1 = Math.min(Math.min(x + w, width), width - dx);
+        int y1 = Math.min(Math.min(y + h, height), height - dy);
+        if (x0 >= x1 || y0 >= y1) return;
+
+        int rowWidth = x1 - x0;
+        int[] copy = new int[rowWidth * (y1 - y0)];
+        for (int row = y0; row < y1; row++) {
+            System.arraycopy(pixels, row * width + x0, copy, (row - y0) * rowWidth, rowWidth);
+        }
+        for (int row = y0; row < y1; row++) {
+            System.arraycopy(copy, (row - y0) * rowWidth, pixels, (row + dy) * width + x0 + dx, rowWidth);
+        }
+    }
+
+    // ===== Queueing =====
+
+    /**
+     * Queue count indices from first as GL_TRIANGLES or GL_LINES over SpriteBatch vertices,
+     * optionally transformed by {m00, m10, m01, m11, m02, m12}
+     */
+    void submit(int mode, int texture, ByteBuffer vertices, IntBuffer indices, int first, int count, float[] transform) {
+        SoftwareTextures.Texture source = textures.get(texture);
+        if (source == null) return;
+
+        int perPrimitive = mode == GL2GL3.GL_TRIANGLES ? 3 : mode == GL2GL3.GL_LINES ? 2 : 0;
+        if (perPrimitive == 0) return;
+        byte kind = perPrimitive == 3 ? TRIANGLE : LINE;
+        int primitives = count / perPrimitive;
+        ensureCapacity(primitives, primitives * perPrimitive);
+
+        for (int i = 0; i < primitives; i++) {
+            int primitive = primitiveCount++;
+            kinds[primitive] = kind;
+            firstVertex[primitive] = vertexCount;
+            primitiveTextures[primitive] = source;
+            for (int k = 0; k < perPrimitive; k++) {
+                int offset = indices.get(first + i * perPrimitive + k) * SpriteBatch.BYTES_PER_VERTEX;
+                float x = vertices.getFloat(offset), y = vertices.getFloat(offset + 4);
+                if (transform != null) {
+                    float tx = transform[0] * x + transform[2] * y + transform[4];
+                    y = transform[1] * x + transform[3] * y + transform[5];
+                    x = tx;
+                }
+                int v = vertexCount++;
+                positions[v * 2] = snap(x);
+                positions[v * 2 + 1] = snap(y);
+                texCoords[v * 2] = vertices.getFloat(offset + 8);
+                texCoords[v * 2 + 1] = vertices.getFloat(offset + 12);
+                colors[v] = SpriteBatch.unpackColor(vertices.getInt(offset + 16));
+            }
+        }
+    }
+
+    /**
+     * Bin and rasterize everything queued, then empty the queue
+     */
+    void resolve() {
+        if (primitiveCount == 0) return;
+
+        bin();
+        int tiles = tilesX * tilesY;
+        if (primitiveCount < PARALLEL_PRIMITIVES || tiles == 1) {
+            for (int tile = 0; tile < tiles; tile++) {
+                rasterizeTile(tile);
+            }
+        } else {
+            ForkJoinPool.commonPool().invoke(tileTree(tiles));
+        }
+        primitiveCount = 0;
+        vertexCount = 0;
+    }
+
+    private static int snap(float coordinate) {
+        float clamped = Math.max(-COORDINATE_LIMIT, Math.min(COORDINATE_LIMIT, coordinate));
+        return Math.round(clamped * SUBPIXEL);
+    }
+
+    private void ensureCapacity(int primitives, int vertices) {
+        if (primitiveCount + primitives > kinds.length) {
+            int size = Math.max(primitiveCount + primitives, kinds.length * 2);
+            kinds = Arrays.copyOf(kinds, size);
+            firstVertex = Arrays.copyOf(firstVertex, size);
+            primitiveTextures = Arrays.copyOf(primitiveTextures, size);
+        }
+        if (vertexCount + vertices > colors.length) {
+            int size = Math.max(vertexCount + vertices, colors.length * 2);
+            positions = Arrays.copyOf(positions, size * 2);
+            texCoords = Arrays.copyOf(texCoords, size * 2);
+            colors = Arrays.copyOf(colors, size);
+        }
+    }
+
+    // ===== Binning =====
+
+    private void bin() {
+        int tiles = tilesX * tilesY;
+        Arrays.fill(binSizes, 0, tiles, 0);
+        for (int primitive = 0; primitive < primitiveCount; primitive++) {
+            int v = firstVertex[primitive];
+            int n = kinds[primitive];
+            int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+            for (int k = 0; k < n; k++) {
+                int x = positions[(v + k) * 2], y = positions[(v + k) * 2 + 1];
+                minX = Math.min(minX, x);
+                maxX = Math.max(maxX, x);
+                minY = Math.min(minY, y);
+                maxY = Math.max(maxY, y);
+            }
+
+            // Pixels whose centers may be covered; lines reach one pixel further either way
+            int margin = n == LINE ? SUBPIXEL : 0;
+            int pixelX0 = Math.max(0, (minX - margin - HALF_PIXEL + SUBPIXEL - 1) >> SUBPIXEL_BITS);
+            int pixelY0 = Math.max(0, (minY - margin - HALF_PIXEL + SUBPIXEL - 1) >> SUBPIXEL_BITS);
+            int pixelX1 = Math.min(width - 1, (maxX + margin - HALF_PIXEL) >> SUBPIXEL_BITS);
+            int pixelY1 = Math.min(height - 1, (maxY + margin - HALF_PIXEL) >> SUBPIXEL_BITS);
+            if (pixelX0 > pixelX1 || pixelY0 > pixelY1) continue;
+
+            for (int tileY = pixelY0 / TILE_SIZE; tileY <= pixelY1 / TILE_SIZE; tileY++) {
+                for (int tileX = pixelX0 / TILE_SIZE; tileX <= pixelX1 / TILE_SIZE; tileX++) {
+                    int tile = tileY * tilesX + tileX;
+                    int[] bin = bins[tile];
+                    if (bin == null || binSizes[tile] == bin.length) {
+                        bin = bins[tile] = bin == null ? new int[64] : Arrays.copyOf(bin, bin.length * 2);
+                    }
+                    bin[binSizes[tile]++] = primitive;
+                }
+            }
+        }
+    }
+
+    private TileTask tileTree(int tiles) {
+        if (tiles >= tileTrees.length) {
+            tileTrees = Arrays.copyOf(tileTrees, tiles + 1);
+        }
+        TileTask tree = tileTrees[tiles];
+        if (tree == null) {
+            tree = tileTrees[tiles] = new TileTask(0, tiles);
+        }
+        tree.reinitialize();
+        return tree;
+    }
+
+    private final class TileTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from, to;
+        private final TileTask left, right;
+
+        TileTask(int from, int to) {
+            this.from = from;
+            this.to = to;
+            int middle = (from + to) >>> 1;
+            left = to - from == 1 ? null : new TileTask(from, middle);
+            right = to - from == 1 ? null : new TileTask(middle, to);
+        }
+
+        @Override
+        protected void compute() {
+            if (left == null) {
+                rasterizeTile(from);
+                return;
+            }
+            // Done from the last run, so safe to reuse
+            left.reinitialize();
+            right.reinitialize();
+            invokeAll(left, right);
+        }
+    }
+
+    // ===== Rasterization (one task per tile) =====
+
+    private void rasterizeTile(int tile) {
+        int size = binSizes[tile];
+        if (size == 0) return;
+
+        int[] bin = bins[tile];
+        int x0 = (tile % tilesX) * TILE_SIZE, y0 = (tile / tilesX) * TILE_SIZE;
+        int x1 = Math.min(x0 + TILE_SIZE, width) - 1, y1 = Math.min(y0 + TILE_SIZE, height) - 1;
+        for (int i = 0; i < size; i++) {
+            int primitive = bin[i];
+            if (kinds[primitive] == TRIANGLE) {
+                triangle(primitive, x0, y0, x1, y1);
+            } else {
+                line(primitive, x0, y0, x1, y1);
+            }
+        }
+    }
+
+    private void triangle(int primitive, int clipX0, int clipY0, int clipX1, int clipY1) {
+        int a = firstVertex[primitive], b = a + 1, c = a + 2;
+        long ax = positions[a * 2], ay = positions[a * 2 + 1];
+        long bx = positions[b * 2], by = positions[b * 2 + 1];
+        long cx = positions[c * 2], cy = positions[c * 2 + 1];
+        long area = (bx - ax) * (cy - ay) - (by - ay) * (cx - ax);
+        if (area == 0) return;
+        if (area < 0) {
+            // Wind every triangle the same way so inside is positive for all three edges
+            int swap = b;
+            b = c;
+            c = swap;
+            long sx = bx, sy = by;
+            bx = cx;
+            by = cy;
+            cx = sx;
+            cy = sy;
+            area = -area;
+        }
+
+        int minX = Math.max(clipX0, (int) ((Math.min(ax, Math.min(bx, cx)) - HALF_PIXEL + SUBPIXEL - 1) >> SUBPIXEL_BITS));
+        int minY = Math.max(clipY0, (int) ((Math.min(ay, Math.min(by, cy)) - HALF_PIXEL + SUBPIXEL - 1) >> SUBPIXEL_BITS));
+        int maxX = Math.min(clipX1, (int) ((Math.max(ax, Math.max(bx, cx)) - HALF_PIXEL) >> SUBPIXEL_BITS));
+        int maxY = Math.min(clipY1, (int) ((Math.max(ay, Math.max(by, cy)) - HALF_PIXEL) >> SUBPIXEL_BITS));
+        if (minX > maxX || minY > maxY) return;
+
+        // Edge functions at the first pixel center; each is the weight of the opposite vertex.
+        // Pixels exactly on an edge belong to it only if it is a top or left edge.
+        long px = ((long) minX << SUBPIXEL_BITS) + HALF_PIXEL, py = ((long) minY << SUBPIXEL_BITS) + HALF_PIXEL;
+        long rowA = edge(bx, by, cx, cy, px, py) - (topLeft(bx, by, cx, cy) ? 0 : 1);
+        long rowB = edge(cx, cy, ax, ay, px, py) - (topLeft(cx, cy, ax, ay) ? 0 : 1);
+        long rowC = edge(ax, ay, bx, by, px, py) - (topLeft(ax, ay, bx, by) ? 0 : 1);
+        long stepAX = -(cy - by) << SUBPIXEL_BITS, stepAY = (cx - bx) << SUBPIXEL_BITS;
+        long stepBX = -(ay - cy) << SUBPIXEL_BITS, stepBY = (ax - cx) << SUBPIXEL_BITS;
+        long stepCX = -(by - ay) << SUBPIXEL_BITS, stepCY = (bx - ax) << SUBPIXEL_BITS;
+
+        SoftwareTextures.Texture texture = primitiveTextures[primitive];
+        int colorA = colors[a], colorB = colors[b], colorC = colors[c];
+        boolean flatColor = colorA == colorB && colorA == colorC;
+        boolean solid = texture.source == null;
+        float inverseArea = 1f / area;
+        float ua = texCoords[a * 2], va = texCoords[a * 2 + 1];
+        float du1 = texCoords[b * 2] - ua, dv1 = texCoords[b * 2 + 1] - va;
+        float du2 = texCoords[c * 2] - ua, dv2 = texCoords[c * 2 + 1] - va;
+
+        int[] target = pixels;
+        for (int y = minY; y <= maxY; y++) {
+            long wa = rowA, wb = rowB, wc = rowC;
+            int index = y * width + minX;
+            for (int x = minX; x <= maxX; x++, index++, wa += stepAX, wb += stepBX, wc += stepCX) {
+                if ((wa | wb | wc) < 0) continue;
+
+                int color;
+                if (flatColor) {
+                    color = colorA;
+                } else {
+                    color = interpolate(colorA, colorB, colorC, wa * inverseArea, wb * inverseArea, wc * inverseArea);
+                }
+                if (!solid) {
+                    float lb = wb * inverseArea, lc = wc * inverseArea;
+                    color = modulate(sample(texture, ua + lb * du1 + lc * du2, va + lb * dv1 + lc * dv2), color);
+                }
+                target[index] = blend(color, target[index]);
+            }
+            rowA += stepAY;
+            rowB += stepBY;
+            rowC += stepCY;
+        }
+    }
+
+    // Lines step along their major axis through the pixel centers they pass, GL's diamond rule simplified
+    private void line(int primitive, int clipX0, int clipY0, int clipX1, int clipY1) {
+        int a = firstVertex[primitive], b = a + 1;
+        float ax = positions[a * 2] / (float) SUBPIXEL, ay = positions[a * 2 + 1] / (float) SUBPIXEL;
+        float bx = positions[b * 2] / (float) SUBPIXEL, by = positions[b * 2 + 1] / (float) SUBPIXEL;
+        float dx = bx - ax, dy = by - ay;
+        if (dx == 0 && dy == 0) return;
+
+        boolean xMajor = Math.abs(dx) >= Math.abs(dy);
+        // Walk from the lower end of the major axis
+        if (xMajor ? dx < 0 : dy < 0) {
+            int swap = a;
+            a = b;
+            b = swap;
+            float sx = ax, sy = ay;
+            ax = bx;
+            ay = by;
+            bx = sx;
+            by = sy;
+            dx = -dx;
+            dy = -dy;
+        }
+
+        SoftwareTextures.Texture texture = primitiveTextures[primitive];
+        int colorA = colors[a], colorB = colors[b];
+        boolean solid = texture.source == null;
+        float ua = texCoords[a * 2], va = texCoords[a * 2 + 1];
+        float du = texCoords[b * 2] - ua, dv = texCoords[b * 2 + 1] - va;
+
+        float start = xMajor ? ax : ay, end = xMajor ? bx : by, length = xMajor ? dx : dy;
+        int first = (int) Math.ceil(start - 0.5f), last = (int) Math.ceil(end - 0.5f) - 1;
+        first = Math.max(first, xMajor ? clipX0 : clipY0);
+        last = Math.min(last, xMajor ? clipX1 : clipY1);
+        for (int major = first; major <= last; major++) {
+            float t = (major + 0.5f - start) / length;
+            int minor = (int) Math.floor(xMajor ? ay + t * dy : ax + t * dx);
+            int x = xMajor ? major : minor, y = xMajor ? minor : major;
+            if (x < clipX0 || x > clipX1 || y < clipY0 || y > clipY1) continue;
+
+            int color = colorA == colorB ? colorA : interpolate(colorA, colorB, colorB, 1 - t, t, 0);
+            if (!solid) {
+                color = modulate(sample(texture, ua + t * du, va + t * dv), color);
+            }
+            int index = y * width + x;
+            pixels[index] = blend(color, pixels[index]);
+        }
+    }
+
+    private static long edge(long x0, long y0, long x1, long y1, long px, long py) {
+        return (x1 - x0) * (py - y0) - (y1 - y0) * (px - x0);
+    }
+
+    // With y down and positive winding, top edges run right and left edges run up
+    private static boolean topLeft(long x0, long y0, long x1, long y1) {
+        return y1 < y0 || (y1 == y0 && x1 > x0);
+    }
+
+    // ===== Pixels (non-premultiplied ARGB) =====
+
+    private static int interpolate(int c0, int c1, int c2, float l0, float l1, float l2) {
+        int a = channel(c0 >>> 24, c1 >>> 24, c2 >>> 24, l0, l1, l2);
+        int r = channel((c0 >> 16) & 0xFF, (c1 >> 16) & 0xFF, (c2 >> 16) & 0xFF, l0, l1, l2);
+        int g = channel((c0 >> 8) & 0xFF, (c1 >> 8) & 0xFF, (c2 >> 8) & 0xFF, l0, l1, l2);
+        int b = channel(c0 & 0xFF, c1 & 0xFF, c2 & 0xFF, l0, l1, l2);
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    private static int channel(int v0, int v1, int v2, float l0, float l1, float l2) {
+        return Math.max(0, Math.min(255, Math.round(v0 * l0 + v1 * l1 + v2 * l2)));
+    }
+
+    // Bilinear with clamp to edge, like the GL_LINEAR textures of the GL backends
+    private static int sample(SoftwareTextures.Texture texture, float u, float v) {
+        float fx = u * texture.width - 0.5f, fy = v * texture.height - 0.5f;
+        int x0 = (int) Math.floor(fx), y0 = (int) Math.floor(fy);
+        int wx = (int) ((fx - x0) * 256), wy = (int) ((fy - y0) * 256);
+        int maxX = texture.width - 1, maxY = texture.height - 1;
+        int left = Math.max(0, Math.min(maxX, x0)), top = Math.max(0, Math.min(maxY, y0));
+        int[] data = texture.pixels;
+        int row = texture.offset + top * texture.stride;
+        int c00 = data[row + left];
+        if (wx == 0 && wy == 0) return c00;
+
+        int right = Math.max(0, Math.min(maxX, x0 + 1)), bottom = Math.max(0, Math.min(maxY, y0 + 1));
+        int nextRow = texture.offset + bottom * texture.stride;
+        int c10 = data[row + right], c01 = data[nextRow + left], c11 = data[nextRow + right];
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            int upper = ((c00 >>> shift) & 0xFF) * (256 - wx) + ((c10 >>> shift) & 0xFF) * wx;
+            int lower = ((c01 >>> shift) & 0xFF) * (256 - wx) + ((c11 >>> shift) & 0xFF) * wx;
+            result |= ((upper * (256 - wy) + lower * wy + 32768) >>> 16) << shift;
+        }
+        return result;
+    }
+
+    // Texel times vertex color, GL_MODULATE
+    private static int modulate(int texel, int color) {
+        if (color == 0xFFFFFFFF) return texel;
+        return (multiply(texel >>> 24, color >>> 24) << 24)
+                | (multiply((texel >> 16) & 0xFF, (color >> 16) & 0xFF) << 16)
+                | (multiply((texel >> 8) & 0xFF, (color >> 8) & 0xFF) << 8)
+                | multiply(texel & 0xFF, color & 0xFF);
+    }
+
+    // glBlendFunc(GL_SRC_ALPHA, GL_ONE_MINUS_SRC_ALPHA) on all four channels
+    private static int blend(int source, int destination) {
+        int alpha = source >>> 24;
+        if (alpha == 255) return source;
+        if (alpha == 0) return destination;
+
+        int inverse = 255 - alpha;
+        return ((multiply(alpha, alpha) + multiply(destination >>> 24, inverse)) << 24)
+                | ((multiply((source >> 16) & 0xFF, alpha) + multiply((destination >> 16) & 0xFF, inverse)) << 16)
+                | ((multiply((source >> 8) & 0xFF, alpha) + multiply((destination >> 8) & 0xFF, inverse)) << 8)
+                | (multiply(source & 0xFF, alpha) + multiply(destination & 0xFF, inverse));
+    }
+
+    // a * b / 255, rounded
+    private static int multiply(int a, int b) {
+        int x = a * b + 128;
+        return (x + (x >> 8)) >> 8;
+    }
+}
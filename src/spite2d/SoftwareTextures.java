@@ -0,0 +1,134 @@
+package spite2d;
+
+import com.jogamp.opengl.GL2GL3;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.WeakHashMap;
+
+// Texture regions for the software backend. Every image gets a stable handle in place of a GL
+// texture id and a region covering the whole of it, so batches, layers and draw ordering work
+// unchanged. TYPE_INT_ARGB images are sampled straight from their pixel arrays and always show
+// their current content; other types are converted once and again after markDirty.
+final class SoftwareTextures implements TextureSource {
+    // Handle of the opaque white texture; image handles start after it
+    static final int WHITE = 0;
+
+    static final class Texture {
+        final WeakReference<BufferedImage> source;
+        int[] pixels;
+        int offset, stride;
+        int width, height;
+        // Converted copies are refreshed on next use after markDirty
+        boolean stale;
+
+        Texture(BufferedImage source) {
+            this.source = source != null ? new WeakReference<>(source) : null;
+        }
+    }
+
+    private final WeakHashMap<BufferedImage, TextureAtlas.Region> regions = new WeakHashMap<>();
+    // Indexed by handle; slots of collected images are reused
+    private final ArrayList<Texture> textures = new ArrayList<>();
+    private final TextureAtlas.Region white = new TextureAtlas.Region(null, null, 0, 0, 1, 1);
+
+    SoftwareTextures() {
+        Texture texture = new Texture(null);
+        texture.pixels = new int[]{0xFFFFFFFF};
+        texture.width = texture.height = texture.stride = 1;
+        textures.add(texture);
+        white.texture = WHITE;
+    }
+
+    @Override
+    public synchronized TextureAtlas.Region getRegion(GL2GL3 gl, BufferedImage img) {
+        TextureAtlas.Region region = regions.get(img);
+        if (region == null) {
+            region = new TextureAtlas.Region(null, img, 0, 0, img.getWidth(), img.getHeight());
+            region.texture = allocate(new Texture(img));
+            regions.put(img, region);
+        }
+        Texture texture = textures.get(region.texture);
+        if (texture.pixels == null || texture.stale) {
+            load(texture, img);
+        }
+        return region;
+    }
+
+    @Override
+    public TextureAtlas.Region white(GL2GL3 gl) {
+        return white;
+    }
+
+    @Override
+    public int getLayoutVersion() {
+        // Regions never move
+        return 0;
+    }
+
+    /**
+     * Texture for a handle from a region; called on the rendering thread before rasterizing
+     */
+    synchronized Texture get(int handle) {
+        return textures.get(handle);
+    }
+
+    synchronized void markDirty(BufferedImage img) {
+        TextureAtlas.Region region = regions.get(img);
+        if (region != null) {
+            textures.get(region.texture).stale = true;
+        }
+    }
+
+    /**
+     * Free the handles of collected images; once per frame
+     */
+    synchronized void beginFrame() {
+        for (int i = WHITE + 1; i < textures.size(); i++) {
+            Texture texture = textures.get(i);
+            if (texture != null && texture.source.get() == null) {
+                textures.set(i, null);
+            }
+        }
+    }
+
+    private int allocate(Texture texture) {
+        for (int i = WHITE + 1; i < textures.size(); i++) {
+            if (textures.get(i) == null) {
+                textures.set(i, texture);
+                return i;
+            }
+        }
+        textures.add(texture);
+        return textures.size() - 1;
+    }
+
+    private static void load(Texture texture, BufferedImage img) {
+        texture.width = img.getWidth();
+        texture.height = img.getHeight();
+        texture.stale = false;
+
+        WritableRaster raster = img.getRaster();
+        if (img.getType() == BufferedImage.TYPE_INT_ARGB && raster.getSampleModel() instanceof SinglePixelPackedSampleModel) {
+            SinglePixelPackedSampleModel model = (SinglePixelPackedSampleModel) raster.getSampleModel();
+            DataBufferInt data = (DataBufferInt) raster.getDataBuffer();
+            texture.pixels = data.getData();
+            texture.stride = model.getScanlineStride();
+            // Subimages share their parent's array at an offset
+            texture.offset = data.getOffset() - raster.getSampleModelTranslateY() * texture.stride
+                    - raster.getSampleModelTranslateX();
+            return;
+        }
+
+        int[] pixels = texture.pixels != null && texture.pixels.length == texture.width * texture.height
+                ? texture.pixels : new int[texture.width * texture.height];
+        img.getRGB(0, 0, texture.width, texture.height, pixels, 0, texture.width);
+        texture.pixels = pixels;
+        texture.stride = texture.width;
+        texture.offset = 0;
+    }
+}
@@ -0,0 +1,267 @@
+package spite2d;
+
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Uniform grid of axis-aligned boxes for finding the objects in a region, e.g. the ones inside
+ * SpiteWindow.getVisibleBounds() so only those are drawn. Pick a cell size around the size of a
+ * typical object; objects larger than a cell are stored in every cell they cover. Not thread-safe.
+ */
+public class SpatialGrid<T> {
+    private final double cellSize;
+    // Open-addressing table from cell key to the cell's entries, linear probing; a null list is a free slot
+    private long[] cellKeys = new long[64];
+    private ArrayList<Entry<T>>[] cellLists = newLists(64);
+    private int cellCount;
+    // Lists of cells that emptied, reused so moving items doesn't allocate
+    private final ArrayDeque<ArrayList<Entry<T>>> spareLists = new ArrayDeque<>();
+    private final Map<T, Entry<T>> entries = new HashMap<>();
+    // Marks entries already visited by the current query, since they may span several cells
+    private int queryStamp;
+
+    private static final class Entry<T> {
+        final T item;
+        double x, y, width, height;
+        int cellX0, cellY0, cellX1, cellY1;
+        int stamp;
+
+        Entry(T item) {
+            this.item = item;
+        }
+    }
+
+    public SpatialGrid(double cellSize) {
+        if (!(cellSize > 0) || Double.isInfinite(cellSize)) {
+            throw new IllegalArgumentException("Cell size must be positive: " + cellSize);
+        }
+        this.cellSize = cellSize;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Add an item with the given bounds, or move it there if it is already in the grid
+     */
+    public void insert(T item, double x, double y, double width, double height) {
+        if (item == null) {
+            throw new IllegalArgumentException("Item must not be null");
+        }
+        Entry<T> entry = entries.get(item);
+        int cellX0 = cell(x), cellY0 = cell(y);
+        int cellX1 = cell(x + Math.max(0, width)), cellY1 = cell(y + Math.max(0, height));
+
+        if (entry == null) {
+            entry = new Entry<>(item);
+            entries.put(item, entry);
+        } else if (entry.cellX0 != cellX0 || entry.cellY0 != cellY0 || entry.cellX1 != cellX1 || entry.cellY1 != cellY1) {
+            unlink(entry);
+        } else {
+            // Same cells: only the bounds change
+            entry.x = x;
+            entry.y = y;
+            entry.width = width;
+            entry.height = height;
+            return;
+        }
+
+        entry.x = x;
+        entry.y = y;
+        entry.width = width;
+        entry.height = height;
+        entry.cellX0 = cellX0;
+        entry.cellY0 = cellY0;
+        entry.cellX1 = cellX1;
+        entry.cellY1 = cellY1;
+        for (int cy = cellY0; cy <= cellY1; cy++) {
+            for (int cx = cellX0; cx <= cellX1; cx++) {
+                cellList(key(cx, cy)).add(entry);
+            }
+        }
+    }
+
+    public boolean remove(T item) {
+        Entry<T> entry = entries.remove(item);
+        if (entry == null) return false;
+
+        unlink(entry);
+        return true;
+    }
+
+    public boolean contains(T item) {
+        return entries.containsKey(item);
+    }
+
+    public void clear() {
+        entries.clear();
+        Arrays.fill(cellLists, null);
+        cellCount = 0;
+        spareLists.clear();
+    }
+
+    /**
+     * Call visitor once for every item whose bounds intersect the region; returns how many there were
+     */
+    public int query(double x, double y, double width, double height, Consumer<? super T> visitor) {
+        int stamp = ++queryStamp;
+        double maxX = x + width, maxY = y + height;
+        int cellX0 = cell(x), cellY0 = cell(y), cellX1 = cell(maxX), cellY1 = cell(maxY);
+        int found = 0;
+
+        // A region much larger than the populated area is cheaper to answer from the occupied cells
+        long span = (long) (cellX1 - cellX0 + 1) * (cellY1 - cellY0 + 1);
+        if (span > cellCount) {
+            for (ArrayList<Entry<T>> list : cellLists) {
+                if (list != null) {
+                    found += visit(list, stamp, x, y, maxX, maxY, visitor);
+                }
+            }
+            return found;
+        }
+
+        for (int cy = cellY0; cy <= cellY1; cy++) {
+            for (int cx = cellX0; cx <= cellX1; cx++) {
+                int slot = find(key(cx, cy));
+                if (slot >= 0) {
+                    found += visit(cellLists[slot], stamp, x, y, maxX, maxY, visitor);
+                }
+            }
+        }
+        return found;
+    }
+
+    public int query(Rectangle2D region, Consumer<? super T> visitor) {
+        return query(region.getX(), region.getY(), region.getWidth(), region.getHeight(), visitor);
+    }
+
+    private int visit(ArrayList<Entry<T>> list, int stamp, double minX, double minY, double maxX, double maxY,
+                      Consumer<? super T> visitor) {
+        int found = 0;
+        for (int i = 0; i < list.size(); i++) {
+            Entry<T> entry = list.get(i);
+            if (entry.stamp == stamp) continue;
+            entry.stamp = stamp;
+            if (entry.x <= maxX && entry.x + entry.width >= minX && entry.y <= maxY && entry.y + entry.height >= minY) {
+                visitor.accept(entry.item);
+                found++;
+            }
+        }
+        return found;
+    }
+
+    private void unlink(Entry<T> entry) {
+        for (int cy = entry.cellY0; cy <= entry.cellY1; cy++) {
+            for (int cx = entry.cellX0; cx <= entry.cellX1; cx++) {
+                int slot = find(key(cx, cy));
+                if (slot < 0) continue;
+                ArrayList<Entry<T>> list = cellLists[slot];
+
+                // Order within a cell doesn't matter: swap the last entry into the hole
+                int index = list.indexOf(entry);
+                if (index >= 0) {
+                    list.set(index, list.get(list.size() - 1));
+                    list.remove(list.size() - 1);
+                }
+                if (list.isEmpty()) {
+                    removeSlot(slot);
+                }
+            }
+        }
+    }
+
+    private int cell(double coordinate) {
+        return (int) Math.floor(coordinate / cellSize);
+    }
+
+    private static long key(int cellX, int cellY) {
+        return ((long) cellX << 32) | (cellY & 0xFFFFFFFFL);
+    }
+
+    // ===== Cell table =====
+
+    private int home(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & (cellKeys.length - 1);
+    }
+
+    // Slot holding the cell, or -1 if it has no entries
+    private int find(long key) {
+        int mask = cellKeys.length - 1;
+        for (int slot = home(key); cellLists[slot] != null; slot = (slot + 1) & mask) {
+            if (cellKeys[slot] == key) return slot;
+        }
+        return -1;
+    }
+
+    // The cell's list, added to the table if the cell was empty
+    private ArrayList<Entry<T>> cellList(long key) {
+        int mask = cellKeys.length - 1;
+        int slot = home(key);
+        for (; cellLists[slot] != null; slot = (slot + 1) & mask) {
+            if (cellKeys[slot] == key) return cellLists[slot];
+        }
+
+        ArrayList<Entry<T>> list = spareLists.isEmpty() ? new ArrayList<>() : spareLists.pop();
+        cellKeys[slot] = key;
+        cellLists[slot] = list;
+        // Kept at most half full so probe runs stay short
+        if (++cellCount * 2 > cellKeys.length) {
+            resize(cellKeys.length * 2);
+        }
+        return list;
+    }
+
+    // Empty a slot, shifting later entries of the probe run back so lookups never stop early
+    private void removeSlot(int slot) {
+        freeList(cellLists[slot]);
+        cellLists[slot] = null;
+        cellCount--;
+
+        int mask = cellKeys.length - 1;
+        int hole = slot;
+        for (int next = (slot + 1) & mask; cellLists[next] != null; next = (next + 1) & mask) {
+            int wanted = home(cellKeys[next]);
+            // Move the entry unless its home lies cyclically in (hole, next]
+            if (((next - wanted) & mask) >= ((next - hole) & mask)) {
+                cellKeys[hole] = cellKeys[next];
+                cellLists[hole] = cellLists[next];
+                cellLists[next] = null;
+                hole = next;
+            }
+        }
+    }
+
+    private void freeList(ArrayList<Entry<T>> list) {
+        list.clear();
+        spareLists.push(list);
+    }
+
+    private void resize(int capacity) {
+        long[] oldKeys = cellKeys;
+        ArrayList<Entry<T>>[] oldLists = cellLists;
+        cellKeys = new long[capacity];
+        cellLists = newLists(capacity);
+        int mask = capacity - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldLists[i] == null) continue;
+            int slot = home(oldKeys[i]);
+            while (cellLists[slot] != null) {
+                slot = (slot + 1) & mask;
+            }
+            cellKeys[slot] = oldKeys[i];
+            cellLists[slot] = oldLists[i];
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> ArrayList<Entry<T>>[] newLists(int capacity) {
+        return (ArrayList<Entry<T>>[]) new ArrayList<?>[capacity];
+    }
+}
@@ -0,0 +1,85 @@
+package spite2d;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Spatial grid check: inserts, moves and removes random boxes, then compares every query with a
+ * brute-force scan over the boxes still present. Needs no display or GL. Pass a step count as the
+ * first argument; exits with status 1 on any mismatch.
+ */
+public class SpatialGridTest {
+    private static final int ITEMS = 2000;
+
+    public static void main(String[] args) {
+        int steps = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        Random random = new Random(1);
+        SpatialGrid<Integer> grid = new SpatialGrid<>(32);
+        double[][] boxes = new double[ITEMS][];
+        int failures = 0;
+
+        for (int step = 0; step < steps; step++) {
+            Integer item = random.nextInt(ITEMS);
+            int action = random.nextInt(10);
+            if (action < 6) {
+                // Insert or move; occasionally large or far away so the table has to grow and probe
+                boolean large = random.nextInt(20) == 0;
+                double range = random.nextInt(50) == 0 ? 1e6 : 2000;
+                double[] box = {random.nextDouble() * range - range / 2, random.nextDouble() * range - range / 2,
+                        random.nextDouble() * (large ? 400 : 40), random.nextDouble() * (large ? 400 : 40)};
+                boxes[item] = box;
+                grid.insert(item, box[0], box[1], box[2], box[3]);
+            } else if (action < 8) {
+                boolean removed = grid.remove(item);
+                if (removed != (boxes[item] != null)) {
+                    System.out.printf("step %d: remove(%d) returned %b%n", step, item, removed);
+                    failures++;
+                }
+                boxes[item] = null;
+            } else {
+                double width = random.nextInt(10) == 0 ? 5000 : random.nextDouble() * 300;
+                double height = random.nextInt(10) == 0 ? 5000 : random.nextDouble() * 300;
+                double x = random.nextDouble() * 2400 - 1200, y = random.nextDouble() * 2400 - 1200;
+                if (!checkQuery(step, grid, boxes, x, y, width, height)) failures++;
+            }
+
+            if (step == steps / 2) {
+                grid.clear();
+                boxes = new double[ITEMS][];
+            }
+        }
+
+        System.out.printf("%d steps checked, %d failures%n", steps, failures);
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static boolean checkQuery(int step, SpatialGrid<Integer> grid, double[][] boxes,
+                                      double x, double y, double width, double height) {
+        Set<Integer> expected = new HashSet<>();
+        int size = 0;
+        for (int i = 0; i < boxes.length; i++) {
+            double[] b = boxes[i];
+            if (b == null) continue;
+            size++;
+            if (b[0] <= x + width && b[0] + b[2] >= x && b[1] <= y + height && b[1] + b[3] >= y) {
+                expected.add(i);
+            }
+        }
+
+        Set<Integer> actual = new HashSet<>();
+        int[] visits = new int[1];
+        int found = grid.query(x, y, width, height, item -> {
+            actual.add(item);
+            visits[0]++;
+        });
+        if (!actual.equals(expected) || found != expected.size() || visits[0] != found || grid.size() != size) {
+            System.out.printf("step %d: query %.1f,%.1f %.1fx%.1f found %d (%d visits, %d distinct), expected %d%n",
+                    step, x, y, width, height, found, visits[0], actual.size(), expected.size());
+            return false;
+        }
+        return true;
+    }
+}
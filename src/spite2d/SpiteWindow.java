@@ -2,114 +2,311 @@
 
 package spite2d;
 
+import com.jogamp.common.nio.Buffers;
 import com.jogamp.opengl.*;
 import com.jogamp.opengl.awt.GLCanvas;
 
 import java.awt.*;
 import java.awt.geom.*;
 import java.awt.image.BufferedImage;
-import java.nio.ByteBuffer;
-import java.util.WeakHashMap;
+import java.awt.image.DataBufferInt;
+import java.nio.IntBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.*;
 
 public class SpiteWindow {
+    private static final double PATH_FLATNESS = 0.25;
+    private static final Comparator<CommandBuffer> UNIT_ORDER = (a, b) -> a.sortKey != b.sortKey
+            ? Integer.compare(a.sortKey, b.sortKey) : Long.compare(a.sequence, b.sequence);
+
+    // Windowed mode has a frame and canvas; headless mode only an offscreen drawable
     private final Frame frame;
     private final GLCanvas canvas;
-    private final WeakHashMap<BufferedImage, Integer> textureCache;
+    private final GLAutoDrawable drawable;
     private final AtomicBoolean running;
 
-    // Graphics state (like Graphics2D)
-    private Color color = Color.BLACK;
+    // Graphics state (like Graphics2D); color, font and transform live in the calling thread's recorder
     private Color backgroundColor = Color.WHITE;
-    private Font font = new Font("Dialog", Font.PLAIN, 12);
     private Stroke stroke = new BasicStroke(1.0f);
     private Composite composite = AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 1.0f);
-    private AffineTransform transform = new AffineTransform();
     private RenderingHints renderingHints = new RenderingHints(null);
 
     private Runnable renderCallback;
     private float clearR = 0.0f, clearG = 0.0f, clearB = 0.0f, clearA = 1.0f;
 
-    // Multithreading support
-    private final ConcurrentLinkedQueue<RenderingCommand> commandQueue = new ConcurrentLinkedQueue<>();
+    // Multithreading support: threads without their own recording share one locked recorder,
+    // threads inside beginRecording/endRecording record into a private buffer without contention
+    private final CommandRecorder sharedRecorder = new CommandRecorder(new CommandBuffer());
+    private final ThreadLocal<CommandRecorder> threadRecorders = ThreadLocal.withInitial(() -> new CommandRecorder(null));
+    private final List<CommandBuffer> submitted = new ArrayList<>();
+    private final ArrayDeque<CommandBuffer> bufferPool = new ArrayDeque<>();
+    private long submitSequence = 0;
+
+    // Committed frames waiting for the GL thread; without beginFrame() a frame is committed per display
+    private final FrameQueue frames = new FrameQueue(this::recycleFrame);
+    private volatile boolean explicitFrames = false;
+
+    // Built-in render loop: a dedicated thread that paces frames (and owns the context when headless)
+    private final FramePacer pacer = new FramePacer();
+    private final FrameStats frameStats = new FrameStats();
+    private volatile Thread renderThread;
+    // Set by stop() while the loop runs; the loop releases the window as it exits
+    private boolean releaseOnExit;
+    private volatile boolean vsync = false;
+    private volatile boolean vsyncChanged = true;
+    // Guards renderThread and releaseOnExit
     private final Object renderLock = new Object();
-    private volatile boolean isRendering = false;
-    private volatile GL2 currentGL = null;
+
+    // Batched vertex submission (GL thread only)
+    private final GLStateCache glState = new GLStateCache();
+    private final SpriteBatch batch = new SpriteBatch(glState);
+    private final TextureUploader uploader = new TextureUploader(glState);
+    private final TextureAtlas atlas = new TextureAtlas(batch, uploader, glState);
+    private final TextureManager textures = new TextureManager(atlas, uploader, glState);
+    private final GlyphCache glyphs;
+    private final Tessellator tessellator = new Tessellator();
+    private final CircleTables circles = new CircleTables();
+    private final List<ParticleEmitter> emitters = new ArrayList<>();
+    private final List<RenderLayer> layers = new ArrayList<>();
+    // Scratch for loading a command's transform onto the modelview matrix
+    private final float[] commandTransform = new float[6];
+    // Projection, vertex layout and shader dialect of the GL pipeline chosen at construction
+    private final GraphicsBackend backendType;
+    private final RenderBackend backend;
+    // Software backend instead of GL: images as textures and the tile rasterizer the batch feeds
+    private final SoftwareTextures softwareTextures;
+    private final SoftwareRasterizer software;
+    private final TextureSource textureSource;
+    private final List<RenderTarget> targets = new ArrayList<>();
+    private final List<TileMap> tileMaps = new ArrayList<>();
+    // Draws entirely outside the surface are dropped when recorded
+    private static final double CULL_MARGIN = 2;
+    private volatile boolean culling = true;
+    private final LongAdder culledDraws = new LongAdder();
+    // Depths whose draws may be regrouped by texture and primitive type
+    private final Set<Integer> materialSortedDepths = ConcurrentHashMap.newKeySet();
+    private final DrawOrder drawOrder = new DrawOrder();
+    private int copyTexture, copyTextureWidth, copyTextureHeight;
+    // Height in pixels of the framebuffer currently drawn to (window or render target)
+    private int surfaceWidth, surfaceHeight;
+    private float[] points = new float[64];
+    private TextureAtlas.Region[] columnRegions = new TextureAtlas.Region[8];
+    private final float[] pathCoords = new float[6];
+    // Transforms saved around nested layer and target draws, six floats per level
+    private float[] nestedTransforms = new float[6 * 4];
+    private int nestedDepth;
+    private volatile int drawCallCount = 0;
+    // The state cache's counters as of the last frame, for other threads
+    private volatile long glStateChanges, glStateChangesElided;
+
+    // Headless readback: the array renderFrame is waiting to have filled
+    private volatile int[] readbackTarget;
+    private IntBuffer readbackBuffer;
+
+    // Asynchronous frame captures; the GL thread drops them once they finish
+    private final List<FrameCapture> captures = new ArrayList<>();
+    private volatile FrameCapture recordingCapture;
 
     public SpiteWindow(int width, int height, String title) {
-        this.textureCache = new WeakHashMap<>();
+        this(width, height, title, false, GraphicsBackend.GL2);
+    }
+
+    public SpiteWindow(int width, int height, String title, GraphicsBackend backend) {
+        this(width, height, title, false, backend);
+    }
+
+    /**
+     * Create a window-less instance rendering into an offscreen surface (FBO or pbuffer, whichever
+     * the driver offers), for generating frames on machines without a display. Render with
+     * renderFrame, which returns the pixels. Each instance has its own GL context, so several can
+     * render in parallel, one per thread.
+     */
+    public static SpiteWindow createHeadless(int width, int height) {
+        return new SpiteWindow(width, height, null, true, GraphicsBackend.GL2);
+    }
+
+    public static SpiteWindow createHeadless(int width, int height, GraphicsBackend backend) {
+        return new SpiteWindow(width, height, null, true, backend);
+    }
+
+    private SpiteWindow(int width, int height, String title, boolean headless, GraphicsBackend backendType) {
         this.running = new AtomicBoolean(false);
+        if (backendType == null) {
+            throw new IllegalArgumentException("Backend must not be null");
+        }
+        this.backendType = backendType;
+        if (backendType == GraphicsBackend.SOFTWARE) {
+            if (!headless) {
+                throw new IllegalArgumentException("The software backend only renders headless; use createHeadless");
+            }
+            this.backend = null;
+            this.softwareTextures = new SoftwareTextures();
+            this.software = new SoftwareRasterizer(softwareTextures, width, height);
+            this.textureSource = softwareTextures;
+            this.glyphs = new GlyphCache(textureSource);
+            batch.setRasterizer(software);
+            this.canvas = null;
+            this.drawable = null;
+            this.frame = null;
+            return;
+        }
+        this.backend = backendType == GraphicsBackend.GL3 ? new Gl3Backend(glState) : new Gl2Backend(glState);
+        this.softwareTextures = null;
+        this.software = null;
+        this.textureSource = textures;
+        this.glyphs = new GlyphCache(textureSource);
+        batch.setBackend(backend);
 
         // Create OpenGL profile
-        GLProfile profile = GLProfile.get(GLProfile.GL2);
+        GLProfile profile = backend.getProfile();
         GLCapabilities capabilities = new GLCapabilities(profile);
-        capabilities.setDoubleBuffered(true);
 
-        // Create canvas
-        this.canvas = new GLCanvas(capabilities);
-        this.canvas.addGLEventListener(new GLEventListener() {
+        if (headless) {
+            // Frames are read back, never shown: no second buffer and no swap interval
+            capabilities.setOnscreen(false);
+            capabilities.setDoubleBuffered(false);
+            this.canvas = null;
+            this.drawable = GLDrawableFactory.getFactory(profile)
+                    .createOffscreenAutoDrawable(null, capabilities, null, width, height);
+        } else {
+            capabilities.setDoubleBuffered(true);
+            this.canvas = new GLCanvas(capabilities);
+            this.drawable = canvas;
+        }
+
+        this.drawable.addGLEventListener(new GLEventListener() {
             @Override
             public void init(GLAutoDrawable drawable) {
-                GL2 gl = drawable.getGL().getGL2();
-                gl.glEnable(GL2.GL_TEXTURE_2D);
-                gl.glEnable(GL2.GL_BLEND);
-                gl.glBlendFunc(GL2.GL_SRC_ALPHA, GL2.GL_ONE_MINUS_SRC_ALPHA);
-                gl.glEnable(GL2.GL_LINE_SMOOTH);
-                gl.glEnable(GL2.GL_POLYGON_SMOOTH);
+                GL2GL3 gl = drawable.getGL().getGL2GL3();
+                glState.invalidate();
+                backend.init(gl);
+                glState.enable(gl, GL2GL3.GL_BLEND);
+                glState.blendFunc(gl, GL2GL3.GL_SRC_ALPHA, GL2GL3.GL_ONE_MINUS_SRC_ALPHA);
+                glState.enable(gl, GL2GL3.GL_LINE_SMOOTH);
+                // No GL_POLYGON_SMOOTH: batched fills are triangles and it leaves seams along shared edges
             }
 
             @Override
             public void dispose(GLAutoDrawable drawable) {
                 // Clean up textures
-                GL2 gl = drawable.getGL().getGL2();
-                for (Integer textureId : textureCache.values()) {
-                    gl.glDeleteTextures(1, new int[]{textureId}, 0);
+                GL2GL3 gl = drawable.getGL().getGL2GL3();
+                glyphs.clear();
+                tessellator.clear();
+                synchronized (emitters) {
+                    for (ParticleEmitter emitter : emitters) {
+                        emitter.release(gl, glState);
+                    }
+                }
+                synchronized (layers) {
+                    for (RenderLayer layer : layers) {
+                        layer.release(gl, glState);
+                    }
+                }
+                synchronized (targets) {
+                    for (RenderTarget target : targets) {
+                        target.release(gl, glState);
+                    }
+                }
+                synchronized (tileMaps) {
+                    for (TileMap map : tileMaps) {
+                        map.release(gl, glState);
+                    }
                 }
-                textureCache.clear();
+                synchronized (captures) {
+                    for (FrameCapture capture : captures) {
+                        capture.release(gl, glState);
+                        capture.abort();
+                    }
+                    captures.clear();
+                }
+                if (copyTexture != 0) {
+                    glState.deleteTexture(gl, copyTexture);
+                    copyTexture = 0;
+                }
+                textures.dispose(gl);
+                batch.dispose(gl);
+                backend.release(gl);
+                glState.invalidate();
             }
 
             @Override
             public void display(GLAutoDrawable drawable) {
-                GL2 gl = drawable.getGL().getGL2();
-                currentGL = gl;
-
-                // Debug: Check if OpenGL is working
-                System.out.println("DEBUG: OpenGL display called - canvas size: " + canvas.getWidth() + "x" + canvas.getHeight());
-
-                // Clear screen
-                gl.glClearColor(clearR, clearG, clearB, clearA);
-                gl.glClear(GL2.GL_COLOR_BUFFER_BIT);
-
-                // Set up orthographic projection
-                gl.glMatrixMode(GL2.GL_PROJECTION);
-                gl.glLoadIdentity();
-                gl.glOrtho(0, canvas.getWidth(), canvas.getHeight(), 0, -1, 1);
+                GL2GL3 gl = drawable.getGL().getGL2GL3();
+                glState.beginFrame();
 
-                gl.glMatrixMode(GL2.GL_MODELVIEW);
-                gl.glLoadIdentity();
-
-                // Apply current transform
-                applyTransform(gl);
-
-                // Execute all queued rendering commands
-                executeQueuedCommands();
+                if (vsyncChanged && canvas != null) {
+                    gl.setSwapInterval(vsync ? 1 : 0);
+                    vsyncChanged = false;
+                }
 
-                // Call render callback
+                // Call render callback first so everything it records belongs to this frame
                 if (renderCallback != null) {
                     renderCallback.run();
                 }
+                if (!explicitFrames) {
+                    commitImplicitFrame();
+                }
+                CommandFrame frame = frames.take();
 
-                currentGL = null;
+                // Clear screen
+                if (frame != null) {
+                    gl.glClearColor(frame.clearR, frame.clearG, frame.clearB, frame.clearA);
+                } else {
+                    gl.glClearColor(clearR, clearG, clearB, clearA);
+                }
+                gl.glClear(GL2GL3.GL_COLOR_BUFFER_BIT);
+
+                // Orthographic projection; each command's transform is applied to its vertices by the batch
+                backend.setProjection(gl, getWidth(), getHeight());
+
+                releaseDisposedEmitters(gl);
+                releaseDisposedLayers(gl);
+                releaseDisposedTargets(gl);
+                releaseDisposedTileMaps(gl);
+                surfaceWidth = getWidth();
+                surfaceHeight = getHeight();
+
+                // Execute the frame's commands into the batch
+                textures.beginFrame(gl);
+                batch.begin(gl);
+                batch.setSolidRegion(atlas.white(gl));
+                if (frame != null) {
+                    executeFrame(gl, frame);
+                }
+                batch.end();
+                textures.endFrame(gl);
+                drawCallCount = batch.takeDrawCalls();
+                glStateChanges = glState.getIssued();
+                glStateChangesElided = glState.getElided();
+
+                runCaptures(gl);
+
+                int[] pixels = readbackTarget;
+                if (pixels != null) {
+                    readPixels(gl, pixels);
+                }
             }
 
             @Override
             public void reshape(GLAutoDrawable drawable, int x, int y, int width, int height) {
-                GL2 gl = drawable.getGL().getGL2();
-                gl.glViewport(0, 0, width, height);
+                GL2GL3 gl = drawable.getGL().getGL2GL3();
+                glState.viewport(gl, 0, 0, width, height);
             }
         });
 
+        if (headless) {
+            this.frame = null;
+            return;
+        }
+
         // Create frame
         this.frame = new Frame(title);
         this.frame.setSize(width, height);
@@ -120,59 +317,1193 @@ public class SpiteWindow {
             public void windowClosing(java.awt.event.WindowEvent e) {
                 stop();
             }
-        });
+        });
+    }
+
+    // ===== Graphics2D-like API =====
+
+    public void setRenderCallback(Runnable callback) {
+        this.renderCallback = callback;
+    }
+
+    /**
+     * Repaint the window - call this from your game loop.
+     * Does nothing while the built-in render loop is running, since it repaints on its own.
+     */
+    public void repaint() {
+        if (running.get() && renderThread == null) {
+            display();
+        }
+    }
+
+    // Draw one frame: through the GL drawable, or right here on the software backend
+    private void display() {
+        if (software == null) {
+            drawable.display();
+            return;
+        }
+        synchronized (software) {
+            displaySoftware();
+        }
+    }
+
+    // The software counterpart of the GL listener's display: same frame, rasterized into an int[]
+    private void displaySoftware() {
+        if (renderCallback != null) {
+            renderCallback.run();
+        }
+        if (!explicitFrames) {
+            commitImplicitFrame();
+        }
+        CommandFrame frame = frames.take();
+
+        software.resetSurface();
+        if (frame != null) {
+            software.clear(argb(frame.clearR, frame.clearG, frame.clearB, frame.clearA));
+        } else {
+            software.clear(argb(clearR, clearG, clearB, clearA));
+        }
+
+        // Nothing was allocated in GL, so releasing only drops the disposed objects
+        releaseDisposedEmitters(null);
+        releaseDisposedLayers(null);
+        releaseDisposedTargets(null);
+        releaseDisposedTileMaps(null);
+        surfaceWidth = getWidth();
+        surfaceHeight = getHeight();
+
+        softwareTextures.beginFrame();
+        batch.begin(null);
+        batch.setSolidRegion(softwareTextures.white(null));
+        if (frame != null) {
+            executeFrame(null, frame);
+        }
+        batch.end();
+        software.resolve();
+        drawCallCount = batch.takeDrawCalls();
+
+        runCaptures(null);
+
+        int[] pixels = readbackTarget;
+        if (pixels != null) {
+            System.arraycopy(software.getFrame(), 0, pixels, 0, getWidth() * getHeight());
+        }
+    }
+
+    private static int argb(float r, float g, float b, float a) {
+        return (Math.round(a * 255) << 24) | (Math.round(r * 255) << 16) | (Math.round(g * 255) << 8) | Math.round(b * 255);
+    }
+
+    /**
+     * Start a dedicated render thread that repaints continuously, paced to targetFps (zero or
+     * less for unlimited). Pair it with beginFrame/endFrame or a render callback; frame time
+     * statistics are available from getFrameStats(). Headless instances render on this thread,
+     * which owns their GL context; a window's canvas still draws on the AWT event thread, so
+     * there the thread only paces frames.
+     */
+    public void startRenderLoop(int targetFps) {
+        pacer.setTargetFps(targetFps);
+        synchronized (renderLock) {
+            if (renderThread != null) return;
+
+            frameStats.reset();
+            Thread thread = new Thread(this::runRenderLoop, "Spite2D-Render");
+            renderThread = thread;
+            thread.start();
+        }
+    }
+
+    /**
+     * Stop the render loop and wait for its last frame, unless called from the loop itself or,
+     * for a window, from the AWT event thread the loop's frames are waiting on
+     */
+    public void stopRenderLoop() {
+        Thread thread = detachRenderLoop();
+        if (canJoin(thread)) {
+            join(thread);
+        }
+    }
+
+    private Thread detachRenderLoop() {
+        synchronized (renderLock) {
+            Thread thread = renderThread;
+            renderThread = null;
+            return thread;
+        }
+    }
+
+    // GLCanvas.display() hands the frame to the event thread and waits, so joining there deadlocks
+    private boolean canJoin(Thread thread) {
+        return thread != null && thread != Thread.currentThread()
+                && !(canvas != null && EventQueue.isDispatchThread());
+    }
+
+    private static void join(Thread thread) {
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void setTargetFps(int targetFps) {
+        pacer.setTargetFps(targetFps);
+    }
+
+    /**
+     * Sync buffer swaps to the display refresh; applied on the next frame
+     */
+    public void setVSync(boolean enabled) {
+        this.vsync = enabled;
+        this.vsyncChanged = true;
+    }
+
+    public FrameStats getFrameStats() {
+        return frameStats;
+    }
+
+    private void runRenderLoop() {
+        Thread self = Thread.currentThread();
+        // Only an offscreen drawable renders on the calling thread; a GLCanvas always uses the event thread
+        boolean ownsContext = drawable != null && canvas == null;
+        if (ownsContext) {
+            drawable.setExclusiveContextThread(self);
+        }
+        try {
+            long lastFrame = System.nanoTime();
+            while (renderThread == self && running.get()) {
+                pacer.await();
+                display();
+
+                long now = System.nanoTime();
+                frameStats.record(now - lastFrame);
+                lastFrame = now;
+            }
+        } catch (Exception e) {
+            System.err.println("Render loop stopped: " + e.getMessage());
+        } finally {
+            if (ownsContext) {
+                drawable.setExclusiveContextThread(null);
+            }
+            boolean release;
+            synchronized (renderLock) {
+                if (renderThread == self) {
+                    renderThread = null;
+                }
+                release = releaseOnExit;
+                releaseOnExit = false;
+            }
+            if (release) {
+                if (frame != null) {
+                    EventQueue.invokeLater(this::releaseWindow);
+                } else {
+                    releaseWindow();
+                }
+            }
+        }
+    }
+
+    /**
+     * Thread-safe method to queue rendering commands.
+     * Custom commands see plain GL state: the batch is flushed and suspended around them.
+     * They need the GL2 backend; the GL3 backend skips them.
+     */
+    public void queueCommand(RenderingCommand command) {
+        if (command == null) return;
+
+        CommandRecorder r = recorder();
+        synchronized (r) {
+            r.begin(CommandBuffer.OP_CUSTOM, 1).putRef(command);
+        }
+    }
+
+    /**
+     * Start recording draw calls from the calling thread into a private buffer, without
+     * contending with other threads. The buffer is submitted as one unit by endRecording();
+     * at frame end units run in ascending sort key order (ties in submission order), and draw
+     * calls made outside any recording run first within sort key 0.
+     */
+    public void beginRecording(int sortKey) {
+        CommandRecorder r = threadRecorders.get();
+        if (r.active) {
+            throw new IllegalStateException("beginRecording called twice without endRecording");
+        }
+
+        r.buffer = obtainBuffer();
+        r.buffer.sortKey = sortKey;
+        r.color = sharedRecorder.color;
+        r.font = sharedRecorder.font;
+        r.depth = sharedRecorder.depth;
+        synchronized (sharedRecorder) {
+            r.resetTransform();
+            double[] m = sharedRecorder.transform;
+            r.setTransform(m[0], m[1], m[2], m[3], m[4], m[5]);
+        }
+        r.bufferChanged();
+        recordDepth(r);
+        r.active = true;
+    }
+
+    /**
+     * Submit everything recorded since beginRecording() for the next frame
+     */
+    public void endRecording() {
+        CommandRecorder r = threadRecorders.get();
+        if (!r.active || r.sink != null) {
+            throw new IllegalStateException("endRecording called without beginRecording");
+        }
+
+        r.active = false;
+        synchronized (submitted) {
+            r.buffer.sequence = submitSequence++;
+            submitted.add(r.buffer);
+        }
+        r.buffer = null;
+    }
+
+    /**
+     * Run the drawing code between beginRecording(sortKey) and endRecording()
+     */
+    public void record(int sortKey, Runnable drawing) {
+        beginRecording(sortKey);
+        try {
+            drawing.run();
+        } finally {
+            endRecording();
+        }
+    }
+
+    /**
+     * Switch to explicit frames: everything recorded up to the next endFrame() is one frame,
+     * and the GL thread only ever renders whole committed frames. Without it, each display()
+     * renders whatever was recorded since the previous one.
+     */
+    public void beginFrame() {
+        explicitFrames = true;
+    }
+
+    /**
+     * Commit the frame recorded since the last endFrame() (shared draw calls plus all submitted
+     * recordings). Recording of the next frame can start immediately while the GL thread renders
+     * this one; see setFrameBuffering for what happens when it falls behind.
+     */
+    public void endFrame() {
+        explicitFrames = true;
+        try {
+            commitFrame(frames.acquire());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Number of committed frames (2 or 3, including the one on screen) and what to do with
+     * frames that were committed but not rendered yet when a newer one arrives
+     */
+    public void setFrameBuffering(int depth, FramePolicy policy) {
+        if (depth < 2 || depth > 3) {
+            throw new IllegalArgumentException("Frame buffering depth must be 2 or 3: " + depth);
+        }
+        frames.configure(depth, policy != null ? policy : FramePolicy.RENDER_LATEST);
+    }
+
+    /**
+     * Committed frames that were never rendered because a newer frame replaced them
+     */
+    public long getDroppedFrameCount() {
+        return frames.getDroppedFrames();
+    }
+
+    /**
+     * Number of draw calls submitted to OpenGL during the last frame
+     */
+    public int getDrawCallCount() {
+        return drawCallCount;
+    }
+
+    /**
+     * GL state changes (binds, enables, matrix loads) actually sent to the driver since start,
+     * as of the last frame drawn
+     */
+    public long getGLStateChanges() {
+        return glStateChanges;
+    }
+
+    /**
+     * State changes skipped because the state was already set
+     */
+    public long getGLStateChangesElided() {
+        return glStateChangesElided;
+    }
+
+    /**
+     * Images larger than this (in either dimension) are not packed into the shared atlas;
+     * applied from the next frame drawn
+     */
+    public void setAtlasMaxImageSize(int maxImageSize) {
+        textures.setAtlasMaxImageSize(maxImageSize);
+    }
+
+    /**
+     * Give an image its own texture instead of an atlas slot, e.g. for large or frequently replaced images
+     */
+    public void excludeFromAtlas(BufferedImage img) {
+        if (img != null) {
+            textures.exclude(img);
+        }
+    }
+
+    /**
+     * Convert and upload an image in the background ahead of its first draw, e.g. while loading
+     * a level. Uploads are spread across frames by the upload budget; drawing an image that is
+     * still pending finishes it on the spot.
+     */
+    public void preloadImage(BufferedImage img) {
+        if (img == null) return;
+        if (softwareTextures != null) {
+            softwareTextures.getRegion(null, img);
+        } else {
+            textures.preload(img);
+        }
+    }
+
+    public void preloadImages(Collection<? extends BufferedImage> images) {
+        for (BufferedImage img : images) {
+            preloadImage(img);
+        }
+    }
+
+    /**
+     * Tell the renderer an image's pixels changed so its texture is refreshed on the next frame.
+     * Textures are otherwise cached by image identity and never re-read.
+     */
+    public void markDirty(BufferedImage img) {
+        if (img != null) {
+            markDirty(img, 0, 0, img.getWidth(), img.getHeight());
+        }
+    }
+
+    /**
+     * Like markDirty(img), but only the given rectangle is uploaded again
+     */
+    public void markDirty(BufferedImage img, int x, int y, int width, int height) {
+        if (img == null) return;
+        if (softwareTextures != null) {
+            softwareTextures.markDirty(img);
+        } else {
+            textures.markDirty(img, x, y, width, height);
+        }
+    }
+
+    /**
+     * Total bytes re-uploaded for dirty image areas
+     */
+    public long getTextureUpdatedBytes() {
+        return textures.getUpdatedBytes();
+    }
+
+    /**
+     * Bytes of preloaded images uploaded per frame (8 MB by default); zero or negative means unlimited
+     */
+    public void setUploadBudget(long bytesPerFrame) {
+        textures.setUploadBudget(bytesPerFrame);
+    }
+
+    /**
+     * Cap the GPU memory used for image textures; least recently used textures are evicted
+     * at frame end and re-uploaded when drawn again. Zero or negative means unlimited.
+     */
+    public void setTextureBudget(long bytes) {
+        textures.setBudget(bytes);
+    }
+
+    /**
+     * Bytes of texture memory currently allocated for images, glyphs and atlas pages
+     */
+    public long getTextureResidentBytes() {
+        return textures.getResidentBytes();
+    }
+
+    public long getTextureUploads() {
+        return textures.getUploads();
+    }
+
+    public long getTextureEvictions() {
+        return textures.getEvictions();
+    }
+
+    /**
+     * Textures deleted because their BufferedImage was garbage collected
+     */
+    public long getTexturesReclaimed() {
+        return textures.getReclaimed();
+    }
+
+    // ===== Particles =====
+
+    /**
+     * Create a GPU particle emitter holding up to capacity live particles
+     */
+    public ParticleEmitter createParticleEmitter(int capacity) {
+        ParticleEmitter emitter = new ParticleEmitter(capacity);
+        synchronized (emitters) {
+            emitters.add(emitter);
+        }
+        return emitter;
+    }
+
+    /**
+     * Draw every live particle of the emitter at this point in the command order
+     */
+    public void drawParticles(ParticleEmitter emitter) {
+        if (emitter == null || emitter.isDisposed()) return;
+
+        CommandRecorder r = recorder();
+        synchronized (r) {
+            r.begin(CommandBuffer.OP_PARTICLES, 1).putRef(emitter);
+        }
+    }
+
+    // ===== Retained layers =====
+
+    public RenderLayer createLayer() {
+        RenderLayer layer = new RenderLayer();
+        synchronized (layers) {
+            layers.add(layer);
+        }
+        return layer;
+    }
+
+    /**
+     * Send the calling thread's draw calls into the layer instead of the frame until endLayer().
+     * Replaces whatever the layer held before.
+     */
+    public void beginLayer(RenderLayer layer) {
+        beginSink(layer, "beginLayer");
+    }
+
+    public void endLayer() {
+        endSink(RenderLayer.class, "endLayer called without beginLayer");
+    }
+
+    /**
+     * Run the drawing code between beginLayer(layer) and endLayer()
+     */
+    public void recordLayer(RenderLayer layer, Runnable drawing) {
+        beginLayer(layer);
+        try {
+            drawing.run();
+        } finally {
+            endLayer();
+        }
+    }
+
+    public void drawLayer(RenderLayer layer) {
+        drawLayer(layer, null);
+    }
+
+    /**
+     * Draw the layer's recorded content, optionally under an extra transform
+     */
+    public void drawLayer(RenderLayer layer, AffineTransform at) {
+        if (layer == null || layer.isDisposed()) return;
+
+        CommandRecorder r = recorder();
+        synchronized (r) {
+            r.begin(CommandBuffer.OP_LAYER, 7).putRef(layer);
+            if (at != null) {
+                r.buffer.putFloat((float) at.getScaleX()).putFloat((float) at.getShearY())
+                        .putFloat((float) at.getShearX()).putFloat((float) at.getScaleY())
+                        .putFloat((float) at.getTranslateX()).putFloat((float) at.getTranslateY());
+            } else {
+                r.buffer.putFloat(1).putFloat(0).putFloat(0).putFloat(1).putFloat(0).putFloat(0);
+            }
+        }
+    }
+
+    // Compile the layer if its recording or the texture layout changed, then draw its buffers
+    private void drawLayer(GL2GL3 gl, RenderLayer layer, CommandBuffer buffer, int m) {
+        if (layer.isDisposed() || !layer.update()) return;
+        if (batch.isCapturing()) {
+            System.err.println("Layers cannot be nested; skipped");
+            return;
+        }
+
+        if (layer.needsCompile(textureSource.getLayoutVersion())) {
+            // Compiling can itself move atlas regions (page growth); capture again if it did
+            for (int attempt = 0; attempt < 2; attempt++) {
+                int version = textureSource.getLayoutVersion();
+                batch.beginCapture(layer.capture);
+                executeNested(gl, layer.commands);
+                batch.endCapture();
+                if (textureSource.getLayoutVersion() == version) break;
+            }
+            if (software != null) {
+                layer.compile(textureSource.getLayoutVersion());
+            } else {
+                layer.upload(gl, glState, textureSource.getLayoutVersion());
+            }
+        }
+
+        // The layer's vertices are baked, so the command transform times the layer's own goes on the modelview
+        float[] t = commandTransform;
+        batch.getTransform(t);
+        float a = buffer.getFloat(m), b = buffer.getFloat(m + 1), c = buffer.getFloat(m + 2);
+        float d = buffer.getFloat(m + 3), e = buffer.getFloat(m + 4), f = buffer.getFloat(m + 5);
+        float t0 = t[0], t1 = t[1], t2 = t[2], t3 = t[3];
+        t[0] = t0 * a + t2 * b;
+        t[1] = t1 * a + t3 * b;
+        t[2] = t0 * c + t2 * d;
+        t[3] = t1 * c + t3 * d;
+        t[4] += t0 * e + t2 * f;
+        t[5] += t1 * e + t3 * f;
+
+        batch.flush();
+        if (software != null) {
+            // No vertex buffers: the captured vertices go to the rasterizer, transformed on the way
+            for (int i = 0; i < layer.rangeCount * 4; i += 4) {
+                software.submit(layer.ranges[i], layer.ranges[i + 1], layer.capture.vertices, layer.capture.indices,
+                        layer.ranges[i + 2], layer.ranges[i + 3], t);
+            }
+            return;
+        }
+        backend.setModelview(gl, t);
+        batch.drawStatic(layer.buffers[0], layer.buffers[1], layer.ranges, layer.rangeCount);
+        backend.setModelview(gl, null);
+    }
+
+    // ===== Tile maps =====
+
+    /**
+     * Create an empty map of columns x rows tiles cut from the tileset, each tileWidth x tileHeight
+     */
+    public TileMap createTileMap(BufferedImage tileset, int tileWidth, int tileHeight, int columns, int rows) {
+        TileMap map = new TileMap(tileset, tileWidth, tileHeight, columns, rows);
+        synchronized (tileMaps) {
+            tileMaps.add(map);
+        }
+        return map;
+    }
+
+    /**
+     * Draw the map with its top-left corner at (x, y); only the chunks on screen are drawn
+     */
+    public void drawTileMap(TileMap map, int x, int y) {
+        if (map == null || map.isDisposed()) return;
+
+        CommandRecorder r = recorder();
+        synchronized (r) {
+            if (!visible(r, x, y, map.getWidth(), map.getHeight())) return;
+            r.begin(CommandBuffer.OP_TILEMAP, 3).putRef(map).putInt(x).putInt(y);
+        }
+    }
+
+    // Find the part of the map on the surface by mapping the surface corners back into map space
+    private void drawTileMap(GL2GL3 gl, TileMap map, int x, int y) {
+        if (map.isDisposed()) return;
+        if (batch.isCapturing()) {
+            System.err.println("Tile maps cannot be recorded into a layer; skipped");
+            return;
+        }
+
+        float[] t = commandTransform;
+        batch.getTransform(t);
+        t[4] += t[0] * x + t[2] * y;
+        t[5] += t[1] * x + t[3] * y;
+        float determinant = t[0] * t[3] - t[1] * t[2];
+        if (determinant == 0) return;
+
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+        for (int corner = 0; corner < 4; corner++) {
+            float dx = ((corner & 1) != 0 ? surfaceWidth : 0) - t[4];
+            float dy = ((corner & 2) != 0 ? surfaceHeight : 0) - t[5];
+            float mapX = (t[3] * dx - t[2] * dy) / determinant;
+            float mapY = (t[0] * dy - t[1] * dx) / determinant;
+            minX = Math.min(minX, mapX);
+            maxX = Math.max(maxX, mapX);
+            minY = Math.min(minY, mapY);
+            maxY = Math.max(maxY, mapY);
+        }
+
+        TextureAtlas.Region region = textureSource.getRegion(gl, map.getTileset());
+        if (software != null) {
+            // The batch still holds the command transform, so the tiles go through it like sprites
+            map.drawTiles(batch, region, x, y, minX, minY, maxX, maxY);
+            return;
+        }
+        batch.flush();
+        backend.setModelview(gl, t);
+        map.draw(gl, glState, batch, region, textureSource.getLayoutVersion(), minX, minY, maxX, maxY);
+        backend.setModelview(gl, null);
+    }
+
+    private void releaseDisposedTileMaps(GL2GL3 gl) {
+        synchronized (tileMaps) {
+            for (int i = tileMaps.size() - 1; i >= 0; i--) {
+                if (tileMaps.get(i).isDisposed()) {
+                    tileMaps.remove(i).release(gl, glState);
+                }
+            }
+        }
+    }
+
+    // ===== Render targets =====
+
+    /**
+     * Create an offscreen image of the given size that can be drawn into and then drawn with drawImage
+     */
+    public RenderTarget createRenderTarget(int width, int height) {
+        RenderTarget target = new RenderTarget(width, height);
+        synchronized (targets) {
+            targets.add(target);
+        }
+        return target;
+    }
+
+    /**
+     * Send the calling thread's draw calls into the target instead of the frame until endTarget().
+     * The target is cleared and re-rendered from this recording the next time it is drawn.
+     */
+    public void beginTarget(RenderTarget target) {
+        beginSink(target, "beginTarget");
+    }
+
+    public void endTarget() {
+        endSink(RenderTarget.class, "endTarget called without beginTarget");
+    }
+
+    /**
+     * Run the drawing code between beginTarget(target) and endTarget()
+     */
+    public void recordTarget(RenderTarget target, Runnable drawing) {
+        beginTarget(target);
+        try {
+            drawing.run();
+        } finally {
+            endTarget();
+        }
+    }
+
+    public void drawImage(RenderTarget target, int x, int y) {
+        if (target == null) return;
+
+        drawImage(target, x, y, target.getWidth(), target.getHeight());
+    }
+
+    public void drawImage(RenderTarget target, int x, int y, int width, int height) {
+        if (target == null || target.isDisposed()) return;
+
+        CommandRecorder r = recorder();
+        synchronized (r) {
+            if (!visible(r, x, y, width, height)) return;
+            r.begin(CommandBuffer.OP_TARGET, 6).putInt(packColor(Color.WHITE))
+                    .putRef(target).putInt(x).putInt(y).putInt(width).putInt(height);
+        }
+    }
+
+    // Render the target's recording into its framebuffer if it changed, then draw its texture
+    private void drawTarget(GL2GL3 gl, RenderTarget target, int x, int y, int width, int height, int packedColor) {
+        if (target.isDisposed() || target.rendering) return;
+        if (software != null) {
+            drawSoftwareTarget(target, x, y, width, height, packedColor);
+            return;
+        }
+
+        if (target.update()) {
+            if (!target.allocate(gl, glState)) return;
+
+            SpriteBatch.Capture capture = batch.pauseCapture();
+            int previousFramebuffer = glState.getFramebuffer(gl);
+            int[] viewport = glState.getViewport(gl);
+            int viewportX = viewport[0], viewportY = viewport[1], viewportWidth = viewport[2], viewportHeight = viewport[3];
+            int previousSurfaceWidth = surfaceWidth, previousSurfaceHeight = surfaceHeight;
+
+            glState.bindFramebuffer(gl, target.framebuffer);
+            glState.viewport(gl, 0, 0, target.getWidth(), target.getHeight());
+            backend.setProjection(gl, target.getWidth(), target.getHeight());
+
+            Color clear = target.getClearColor();
+            gl.glClearColor(clear.getRed() / 255.0f, clear.getGreen() / 255.0f,
+                    clear.getBlue() / 255.0f, clear.getAlpha() / 255.0f);
+            gl.glClear(GL2GL3.GL_COLOR_BUFFER_BIT);
+
+            surfaceWidth = target.getWidth();
+            surfaceHeight = target.getHeight();
+            target.rendering = true;
+            try {
+                if (target.commands != null) {
+                    executeNested(gl, target.commands);
+                }
+                batch.flush();
+            } finally {
+                target.rendering = false;
+                surfaceWidth = previousSurfaceWidth;
+                surfaceHeight = previousSurfaceHeight;
+                backend.setProjection(gl, previousSurfaceWidth, previousSurfaceHeight);
+                glState.bindFramebuffer(gl, previousFramebuffer);
+                glState.viewport(gl, viewportX, viewportY, viewportWidth, viewportHeight);
+                batch.resumeCapture(capture);
+            }
+            target.markRendered();
+        }
+
+        // Framebuffer rows run bottom-up, so the texture is drawn flipped
+        batch.texturedRect(target.texture, x, y, width, height, 0, 1, 1, 0, packedColor);
+    }
+
+    // Software backend: the target renders into its own TYPE_INT_ARGB image, which is then drawn like any image
+    private void drawSoftwareTarget(RenderTarget target, int x, int y, int width, int height, int packedColor) {
+        if (target.update()) {
+            if (target.image == null) {
+                target.image = new BufferedImage(target.getWidth(), target.getHeight(), BufferedImage.TYPE_INT_ARGB);
+            }
+
+            SpriteBatch.Capture capture = batch.pauseCapture();
+            int[] previous = software.getSurface();
+            int previousSurfaceWidth = surfaceWidth, previousSurfaceHeight = surfaceHeight;
+            software.setSurface(((DataBufferInt) target.image.getRaster().getDataBuffer()).getData(),
+                    target.getWidth(), target.getHeight());
+            software.clear(target.getClearColor().getRGB());
+
+            surfaceWidth = target.getWidth();
+            surfaceHeight = target.getHeight();
+            target.rendering = true;
+            try {
+                if (target.commands != null) {
+                    executeNested(null, target.commands);
+                }
+                batch.flush();
+            } finally {
+                target.rendering = false;
+                surfaceWidth = previousSurfaceWidth;
+                surfaceHeight = previousSurfaceHeight;
+                software.setSurface(previous, previousSurfaceWidth, previousSurfaceHeight);
+                batch.resumeCapture(capture);
+            }
+            target.markRendered();
+        }
+
+        TextureAtlas.Region region = softwareTextures.getRegion(null, target.image);
+        batch.texturedRect(region.texture, x, y, width, height, 0, 0, 1, 1, packedColor);
+    }
+
+    private void releaseDisposedTargets(GL2GL3 gl) {
+        synchronized (targets) {
+            for (int i = targets.size() - 1; i >= 0; i--) {
+                if (targets.get(i).isDisposed()) {
+                    targets.remove(i).release(gl, glState);
+                }
+            }
+        }
+    }
+
+    // Recording into retained content shares the per-thread recorder with beginRecording
+    private void beginSink(RecordingSink sink, String method) {
+        if (sink == null || sink.isDisposed()) {
+            throw new IllegalArgumentException(method + ": target is null or disposed");
+        }
+        CommandRecorder r = threadRecorders.get();
+        if (r.active) {
+            throw new IllegalStateException(method + " called while already recording");
+        }
+
+        r.buffer = new CommandBuffer();
+        r.sink = sink;
+        r.color = sharedRecorder.color;
+        r.font = sharedRecorder.font;
+        // Retained content is in its own space, so it starts untransformed
+        r.resetTransform();
+        r.bufferChanged();
+        r.active = true;
+    }
+
+    private void endSink(Class<? extends RecordingSink> type, String misuse) {
+        CommandRecorder r = threadRecorders.get();
+        if (!r.active || !type.isInstance(r.sink)) {
+            throw new IllegalStateException(misuse);
+        }
+
+        r.active = false;
+        r.sink.setRecording(r.buffer);
+        r.sink = null;
+        r.buffer = null;
+    }
+
+    private void releaseDisposedLayers(GL2GL3 gl) {
+        synchronized (layers) {
+            for (int i = layers.size() - 1; i >= 0; i--) {
+                if (layers.get(i).isDisposed()) {
+                    layers.remove(i).release(gl, glState);
+                }
+            }
+        }
+    }
+
+    private void releaseDisposedEmitters(GL2GL3 gl) {
+        synchronized (emitters) {
+            for (int i = emitters.size() - 1; i >= 0; i--) {
+                if (emitters.get(i).isDisposed()) {
+                    emitters.remove(i).release(gl, glState);
+                }
+            }
+        }
+    }
+
+    // Recorder for the calling thread: its own while recording, otherwise the shared one
+    private CommandRecorder recorder() {
+        CommandRecorder r = threadRecorders.get();
+        return r.active ? r : sharedRecorder;
+    }
+
+    private CommandBuffer obtainBuffer() {
+        synchronized (submitted) {
+            return bufferPool.isEmpty() ? new CommandBuffer() : bufferPool.poll();
+        }
+    }
+
+    /**
+     * Move everything recorded so far into the frame, ordered by sort key, and hand it to the GL thread
+     */
+    private void commitFrame(CommandFrame frame) {
+        // Swap the shared buffer so producers keep recording the next frame while this one replays
+        CommandBuffer replacement = obtainBuffer();
+        CommandBuffer shared;
+        synchronized (sharedRecorder) {
+            shared = sharedRecorder.buffer;
+            sharedRecorder.buffer = replacement;
+            sharedRecorder.bufferChanged();
+            recordDepth(sharedRecorder);
+        }
+        shared.sortKey = 0;
+        shared.sequence = Long.MIN_VALUE;
+
+        // Indexed loops here and below: no iterator or array copy per frame
+        synchronized (submitted) {
+            for (int i = 0; i < submitted.size(); i++) {
+                frame.units.add(submitted.get(i));
+            }
+            submitted.clear();
+        }
+        frame.units.add(shared);
+        frame.units.sort(UNIT_ORDER);
+
+        frame.clearR = clearR;
+        frame.clearG = clearG;
+        frame.clearB = clearB;
+        frame.clearA = clearA;
+        frames.commit(frame);
+    }
+
+    // Implicit mode commits on the GL thread itself, and only when something new was recorded
+    private void commitImplicitFrame() {
+        boolean recorded;
+        synchronized (sharedRecorder) {
+            recorded = !sharedRecorder.buffer.isEmpty();
+        }
+        synchronized (submitted) {
+            recorded |= !submitted.isEmpty();
+        }
+        if (!recorded) return;
+
+        try {
+            commitFrame(frames.acquire());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Called by the frame queue when a frame leaves the screen or is dropped
+    private void recycleFrame(CommandFrame frame) {
+        synchronized (submitted) {
+            for (int i = 0; i < frame.units.size(); i++) {
+                CommandBuffer unit = frame.units.get(i);
+                unit.clear();
+                bufferPool.push(unit);
+            }
+        }
+        frame.units.clear();
+    }
+
+    /**
+     * Execute a committed frame's rendering commands on the OpenGL thread
+     */
+    private void executeFrame(GL2GL3 gl, CommandFrame frame) {
+        boolean reorder = !materialSortedDepths.isEmpty();
+        for (int i = 0; i < frame.units.size(); i++) {
+            reorder |= frame.units.get(i).hasDepth;
+        }
+
+        if (reorder && buildDrawOrder(gl, frame)) {
+            // Commands arrive out of order, so each one carries the position of its transform
+            CommandBuffer transformUnit = null;
+            int transformPosition = -1;
+            batch.setIdentity();
+            for (int i = 0; i < drawOrder.size(); i++) {
+                CommandBuffer unit = drawOrder.unit(i);
+                int transform = drawOrder.transform(i);
+                if (transform != transformPosition || (transform >= 0 && unit != transformUnit)) {
+                    if (transform < 0) {
+                        batch.setIdentity();
+                    } else {
+                        setBatchTransform(unit, transform + 1);
+                    }
+                    transformUnit = unit;
+                    transformPosition = transform;
+                }
+                executeCommand(gl, unit, drawOrder.position(i));
+            }
+            drawOrder.clear();
+            return;
+        }
+        drawOrder.clear();
+        for (int i = 0; i < frame.units.size(); i++) {
+            executeBuffer(gl, frame.units.get(i));
+        }
     }
 
-    // ===== Graphics2D-like API =====
+    // Every buffer starts untransformed; OP_TRANSFORM commands set the transform from there on
+    private void executeBuffer(GL2GL3 gl, CommandBuffer buffer) {
+        batch.setIdentity();
+        int position = 0;
+        while (position < buffer.size) {
+            executeCommand(gl, buffer, position);
+            position += CommandBuffer.length(buffer.data[position]);
+        }
+    }
 
-    public void setRenderCallback(Runnable callback) {
-        this.renderCallback = callback;
+    // Retained content drawn by a command, after which the command's own transform still applies
+    private void executeNested(GL2GL3 gl, CommandBuffer buffer) {
+        int depth = nestedDepth++;
+        if ((depth + 1) * 6 > nestedTransforms.length) {
+            nestedTransforms = Arrays.copyOf(nestedTransforms, nestedTransforms.length * 2);
+        }
+        batch.getTransform(nestedTransforms, depth * 6);
+        try {
+            executeBuffer(gl, buffer);
+        } finally {
+            batch.setTransform(nestedTransforms, depth * 6);
+            nestedDepth = depth;
+        }
     }
 
-    /**
-     * Repaint the window - call this from your game loop
-     */
-    public void repaint() {
-        if (running.get() && canvas != null) {
-            canvas.display();
+    private void executeCommand(GL2GL3 gl, CommandBuffer buffer, int position) {
+        try {
+            execute(gl, buffer, CommandBuffer.opcode(buffer.data[position]), position + 1);
+        } catch (Exception e) {
+            System.err.println("Error executing rendering command: " + e.getMessage());
+        }
+    }
+
+    // Order every command of the frame by depth, and by material within material-sorted depths
+    private boolean buildDrawOrder(GL2GL3 gl, CommandFrame frame) {
+        int solid = textureSource.white(gl).texture;
+        for (CommandBuffer unit : frame.units) {
+            int[] d = unit.data;
+            int depth = 0;
+            int transform = -1;
+            boolean sorted = materialSortedDepths.contains(0);
+            for (int position = 0; position < unit.size; position += CommandBuffer.length(d[position])) {
+                int op = CommandBuffer.opcode(d[position]);
+                if (op == CommandBuffer.OP_DEPTH) {
+                    depth = d[position + 1];
+                    sorted = materialSortedDepths.contains(depth);
+                    continue;
+                }
+                if (op == CommandBuffer.OP_TRANSFORM) {
+                    transform = position;
+                    continue;
+                }
+
+                int segment = 0, material = 0;
+                if (sorted) {
+                    material = materialOf(gl, unit, op, position + 1, solid);
+                    if (material < 0) {
+                        segment = drawOrder.barrier(depth);
+                        material = 0;
+                    } else {
+                        segment = drawOrder.segment(depth);
+                    }
+                }
+                if (!drawOrder.add(depth, segment, material, unit, position, transform)) {
+                    System.err.println("Frame too large to reorder; drawing in submission order");
+                    return false;
+                }
+            }
         }
+        drawOrder.sort();
+        return true;
     }
 
     /**
-     * Thread-safe method to queue rendering commands
+     * Material id of a draw for regrouping, or -1 for commands that must keep their place
      */
-    public void queueCommand(RenderingCommand command) {
-        commandQueue.offer(command);
+    private int materialOf(GL2GL3 gl, CommandBuffer buffer, int op, int p, int solid) {
+        switch (op) {
+            case CommandBuffer.OP_IMAGE:
+            case CommandBuffer.OP_IMAGE_REGION: {
+                BufferedImage img = (BufferedImage) buffer.getRef(p + 1);
+                return img != null ? drawOrder.material(textureSource.getRegion(gl, img).texture, false) : -1;
+            }
+            // Glyphs usually share the first atlas page with the solid fill block
+            case CommandBuffer.OP_STRING:
+            case CommandBuffer.OP_FILL_RECT:
+            case CommandBuffer.OP_FILL_OVAL:
+            case CommandBuffer.OP_FILL_ARC:
+            case CommandBuffer.OP_FILL_POLYGON:
+            case CommandBuffer.OP_FILL_SHAPE:
+                return drawOrder.material(solid, false);
+            case CommandBuffer.OP_LINE:
+            case CommandBuffer.OP_RECT:
+            case CommandBuffer.OP_OVAL:
+            case CommandBuffer.OP_ARC:
+            case CommandBuffer.OP_POLYLINE:
+            case CommandBuffer.OP_POLYGON:
+            case CommandBuffer.OP_DRAW_SHAPE:
+                return drawOrder.material(solid, true);
+            default:
+                return -1;
+        }
     }
 
     /**
-     * Execute all queued rendering commands on the OpenGL thread
+     * Decode one command whose operands start at position p
      */
-    private void executeQueuedCommands() {
-        if (currentGL == null) return;
+    private void execute(GL2GL3 gl, CommandBuffer buffer, int op, int p) {
+        int[] d = buffer.data;
+        switch (op) {
+            case CommandBuffer.OP_CUSTOM:
+                if (batch.isCapturing()) {
+                    System.err.println("Custom commands cannot be recorded into a layer; skipped");
+                    break;
+                }
+                if (backend == null || !backend.isFixedFunction()) {
+                    System.err.println("Custom commands need the GL2 backend; skipped");
+                    break;
+                }
+                // Custom commands see plain GL state: the batch is flushed and suspended around them,
+                // and their transform is on the modelview matrix
+                batch.end();
+                batch.getTransform(commandTransform);
+                backend.setModelview(gl, commandTransform);
+                try {
+                    ((RenderingCommand) buffer.getRef(p)).execute(gl.getGL2());
+                } finally {
+                    backend.setModelview(gl, null);
+                    batch.begin(gl);
+                }
+                break;
+            case CommandBuffer.OP_LINE:
+                batch.line(d[p + 1], d[p + 2], d[p + 3], d[p + 4], d[p]);
+                break;
+            case CommandBuffer.OP_RECT:
+                strokeRect(d[p + 1], d[p + 2], d[p + 3], d[p + 4], d[p]);
+                break;
+            case CommandBuffer.OP_FILL_RECT:
+                batch.fillRect(d[p + 1], d[p + 2], d[p + 3], d[p + 4], d[p]);
+                break;
+            case CommandBuffer.OP_OVAL:
+            case CommandBuffer.OP_FILL_OVAL:
+                drawEllipse(d[p + 1], d[p + 2], d[p + 3], d[p + 4], op == CommandBuffer.OP_FILL_OVAL, d[p]);
+                break;
+            case CommandBuffer.OP_ARC:
+            case CommandBuffer.OP_FILL_ARC:
+                drawEllipticalArc(d[p + 1], d[p + 2], d[p + 3], d[p + 4], d[p + 5], d[p + 6],
+                        op == CommandBuffer.OP_FILL_ARC, d[p]);
+                break;
+            case CommandBuffer.OP_POLYLINE:
+            case CommandBuffer.OP_POLYGON: {
+                int nPoints = d[p + 1];
+                copyPoints(d, p + 2, nPoints);
+                batch.strokePolyline(points, nPoints, op == CommandBuffer.OP_POLYGON, d[p]);
+                break;
+            }
+            case CommandBuffer.OP_FILL_POLYGON: {
+                Tessellator.Mesh mesh = tessellator.fillPolygon(d, p + 2, d[p + 1]);
+                batch.fillQuads(mesh.quads, mesh.quadCount, d[p]);
+                break;
+            }
+            case CommandBuffer.OP_STRING:
+                glyphs.drawString(gl, batch, (Font) buffer.getRef(p + 1), (String) buffer.getRef(p + 2),
+                        d[p + 3], d[p + 4], d[p]);
+                break;
+            case CommandBuffer.OP_IMAGE: {
+                TextureAtlas.Region region = textureSource.getRegion(gl, (BufferedImage) buffer.getRef(p + 1));
+                batch.texturedRect(region.texture, d[p + 2], d[p + 3], d[p + 4], d[p + 5],
+                        region.u0, region.v0, region.u1, region.v1, d[p]);
+                break;
+            }
+            case CommandBuffer.OP_DRAW_SHAPE:
+                // Shapes are in user space; the batch applies the command's transform to the outline
+                strokePath(((Shape) buffer.getRef(p + 1)).getPathIterator(null, PATH_FLATNESS), d[p]);
+                break;
+            case CommandBuffer.OP_FILL_SHAPE: {
+                Tessellator.Mesh mesh = tessellator.fill((Shape) buffer.getRef(p + 1));
+                batch.fillQuads(mesh.quads, mesh.quadCount, d[p]);
+                break;
+            }
+            case CommandBuffer.OP_PARTICLES: {
+                ParticleEmitter emitter = (ParticleEmitter) buffer.getRef(p);
+                if (emitter.isDisposed()) break;
+                if (batch.isCapturing()) {
+                    System.err.println("Particles cannot be recorded into a layer; skipped");
+                    break;
+                }
+                if (software != null) {
+                    System.err.println("Particles need a GL backend; skipped");
+                    break;
+                }
 
-        RenderingCommand command;
-        while ((command = commandQueue.poll()) != null) {
-            try {
-                command.execute(currentGL);
-            } catch (Exception e) {
-                System.err.println("Error executing rendering command: " + e.getMessage());
+                // Particles use their own shader and buffer, so the batch steps aside like for custom commands
+                batch.end();
+                batch.getTransform(commandTransform);
+                backend.setModelview(gl, commandTransform);
+                try {
+                    emitter.render(gl, glState, backend);
+                } finally {
+                    backend.setModelview(gl, null);
+                    batch.begin(gl);
+                }
+                break;
+            }
+            case CommandBuffer.OP_LAYER:
+                drawLayer(gl, (RenderLayer) buffer.getRef(p), buffer, p + 1);
+                break;
+            case CommandBuffer.OP_TARGET:
+                drawTarget(gl, (RenderTarget) buffer.getRef(p + 1), d[p + 2], d[p + 3], d[p + 4], d[p + 5], d[p]);
+                break;
+            case CommandBuffer.OP_IMAGE_REGION: {
+                TextureAtlas.Region region = textureSource.getRegion(gl, (BufferedImage) buffer.getRef(p + 1));
+                float uScale = (region.u1 - region.u0) / region.width, vScale = (region.v1 - region.v0) / region.height;
+                batch.texturedRect(region.texture, d[p + 2], d[p + 3], d[p + 4] - d[p + 2], d[p + 5] - d[p + 3],
+                        region.u0 + d[p + 6] * uScale, region.v0 + d[p + 7] * vScale,
+                        region.u0 + d[p + 8] * uScale, region.v0 + d[p + 9] * vScale, d[p]);
+                break;
             }
+            case CommandBuffer.OP_COLUMNS:
+                drawColumns(gl, buffer, p);
+                break;
+            case CommandBuffer.OP_TILEMAP:
+                drawTileMap(gl, (TileMap) buffer.getRef(p), d[p + 1], d[p + 2]);
+                break;
+            case CommandBuffer.OP_COPY_AREA:
+                copyArea(gl, d[p], d[p + 1], d[p + 2], d[p + 3], d[p + 4], d[p + 5]);
+                break;
+            case CommandBuffer.OP_DEPTH:
+                // Only affects the order commands run in, see buildDrawOrder
+                break;
+            case CommandBuffer.OP_TRANSFORM:
+                setBatchTransform(buffer, p);
+                break;
         }
     }
 
-
-
     // Color and paint methods
     public void setColor(Color color) {
-        queueCommand(gl -> {
-            setGLColor(gl, color);
-            this.color = color != null ? color : Color.BLACK;
-        });
+        recorder().color = color != null ? color : Color.BLACK;
     }
 
     public Color getColor() {
-        return color;
+        return recorder().color;
     }
 
     public void setBackground(Color color) {
@@ -189,13 +1520,57 @@ public class SpiteWindow {
         return backgroundColor;
     }
 
+    // Draw depth and material sorting methods
+    /**
+     * Draw depth for the calling thread's subsequent draw calls (-32768 to 32767, 0 by default).
+     * Lower depths are drawn first across the whole frame; draws at the same depth keep the
+     * order they were recorded in unless material sorting is enabled for that depth.
+     */
+    public void setDrawDepth(int depth) {
+        if (depth < Short.MIN_VALUE || depth > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Draw depth out of range: " + depth);
+        }
+        CommandRecorder r = recorder();
+        synchronized (r) {
+            if (r.depth == depth) return;
+            r.depth = depth;
+            recordDepth(r);
+        }
+    }
+
+    public int getDrawDepth() {
+        return recorder().depth;
+    }
+
+    /**
+     * Let draws at this depth be regrouped by texture and primitive type so they batch into fewer
+     * draw calls. Only enable it for depths whose draws don't overlap (tiles, UI icons, ...), since
+     * painter's order between them is no longer kept. Custom commands, copyArea, particles,
+     * layers and render targets still stay in place relative to the draws around them.
+     */
+    public void setMaterialSorting(int depth, boolean enabled) {
+        if (enabled) {
+            materialSortedDepths.add(depth);
+        } else {
+            materialSortedDepths.remove(depth);
+        }
+    }
+
     // Font methods
     public void setFont(Font font) {
-        this.font = font != null ? font : new Font("Dialog", Font.PLAIN, 12);
+        recorder().font = font != null ? font : new Font("Dialog", Font.PLAIN, 12);
     }
 
     public Font getFont() {
-        return font;
+        return recorder().font;
+    }
+
+    public FontMetrics getFontMetrics() {
+        return getFontMetrics(getFont());
+    }
+
+    public FontMetrics getFontMetrics(Font font) {
+        return glyphs.getFontMetrics(font);
     }
 
     // Stroke methods
@@ -207,88 +1582,170 @@ public class SpiteWindow {
         return stroke;
     }
 
-    // Transform methods
+    // Transform methods; each draw call uses the calling thread's transform at the time it is made
     public void translate(double tx, double ty) {
-        transform.translate(tx, ty);
+        CommandRecorder r = recorder();
+        synchronized (r) {
+            r.concatenate(1, 0, 0, 1, tx, ty);
+        }
     }
 
     public void rotate(double theta) {
-        transform.rotate(theta);
+        double cos = Math.cos(theta), sin = Math.sin(theta);
+        CommandRecorder r = recorder();
+        synchronized (r) {
+            r.concatenate(cos, sin, -sin, cos, 0, 0);
+        }
     }
 
     public void rotate(double theta, double x, double y) {
-        transform.rotate(theta, x, y);
+        double cos = Math.cos(theta), sin = Math.sin(theta);
+        CommandRecorder r = recorder();
+        synchronized (r) {
+            r.concatenate(1, 0, 0, 1, x, y);
+            r.concatenate(cos, sin, -sin, cos, 0, 0);
+            r.concatenate(1, 0, 0, 1, -x, -y);
+        }
     }
 
     public void scale(double sx, double sy) {
-        transform.scale(sx, sy);
+        CommandRecorder r = recorder();
+        synchronized (r) {
+            r.concatenate(sx, 0, 0, sy, 0, 0);
+        }
     }
 
     public void shear(double shx, double shy) {
-        transform.shear(shx, shy);
+        CommandRecorder r = recorder();
+        synchronized (r) {
+            r.concatenate(1, shy, shx, 1, 0, 0);
+        }
     }
 
     public void setTransform(AffineTransform transform) {
-        this.transform = transform != null ? new AffineTransform(transform) : new AffineTransform();
+        CommandRecorder r = recorder();
+        synchronized (r) {
+            if (transform != null) {
+                r.setTransform(transform.getScaleX(), transform.getShearY(), transform.getShearX(),
+                        transform.getScaleY(), transform.getTranslateX(), transform.getTranslateY());
+            } else {
+                r.setTransform(1, 0, 0, 1, 0, 0);
+            }
+        }
     }
 
     public AffineTransform getTransform() {
-        return new AffineTransform(transform);
+        CommandRecorder r = recorder();
+        synchronized (r) {
+            double[] m = r.transform;
+            return new AffineTransform(m[0], m[1], m[2], m[3], m[4], m[5]);
+        }
     }
 
     public void transform(AffineTransform transform) {
-        if (transform != null) {
-            this.transform.concatenate(transform);
+        if (transform == null) return;
+
+        CommandRecorder r = recorder();
+        synchronized (r) {
+            r.concatenate(transform.getScaleX(), transform.getShearY(), transform.getShearX(),
+                    transform.getScaleY(), transform.getTranslateX(), transform.getTranslateY());
+        }
+    }
+
+    /**
+     * Save the calling thread's current transform, to be restored by popTransform().
+     * Cheaper than getTransform/setTransform: nothing is allocated.
+     */
+    public void pushTransform() {
+        CommandRecorder r = recorder();
+        synchronized (r) {
+            r.pushTransform();
+        }
+    }
+
+    public void popTransform() {
+        CommandRecorder r = recorder();
+        synchronized (r) {
+            r.popTransform();
         }
     }
 
+    // ===== Camera and culling =====
+
+    /**
+     * Concatenate the camera's view to the calling thread's transform, so world coordinates
+     * drawn from here on are centered on the camera and zoomed
+     */
+    public void applyCamera(Camera camera) {
+        if (camera == null) return;
+
+        CommandRecorder r = recorder();
+        Dimension size = surfaceSize(r);
+        double zoom = camera.getZoom();
+        synchronized (r) {
+            r.concatenate(zoom, 0, 0, zoom, size.width / 2.0 - zoom * camera.getX(), size.height / 2.0 - zoom * camera.getY());
+        }
+    }
+
+    /**
+     * Region of user space that lands on the surface under the calling thread's current transform,
+     * e.g. for querying a SpatialGrid so only visible objects are drawn at all
+     */
+    public Rectangle2D getVisibleBounds() {
+        CommandRecorder r = recorder();
+        Dimension size = surfaceSize(r);
+        AffineTransform transform = getTransform();
+        try {
+            return transform.createInverse().createTransformedShape(
+                    new Rectangle(0, 0, size.width, size.height)).getBounds2D();
+        } catch (NoninvertibleTransformException e) {
+            return new Rectangle2D.Double();
+        }
+    }
+
+    /**
+     * Drop draw calls that land entirely outside the window or render target when they are
+     * recorded (on by default). Layers are never culled, since they can be drawn anywhere.
+     */
+    public void setCulling(boolean enabled) {
+        this.culling = enabled;
+    }
+
+    public boolean isCulling() {
+        return culling;
+    }
+
+    /**
+     * Draw calls dropped by culling since start
+     */
+    public long getCulledDrawCount() {
+        return culledDraws.sum();
+    }
+
     // Drawing methods
     public void drawLine(int x1, int y1, int x2, int y2) {
-        queueCommand(gl -> {
-            setGLColor(gl, color);
-            gl.glDisable(GL2.GL_TEXTURE_2D);
-            gl.glBegin(GL2.GL_LINES);
-            gl.glVertex2f(x1, y1);
-            gl.glVertex2f(x2, y2);
-            gl.glEnd();
-            gl.glEnable(GL2.GL_TEXTURE_2D);
-        });
+        CommandRecorder r = recorder();
+        synchronized (r) {
+            if (!visible(r, Math.min(x1, x2), Math.min(y1, y2), Math.abs(x2 - x1), Math.abs(y2 - y1))) return;
+            r.begin(CommandBuffer.OP_LINE, 5).putInt(packColor(r.color))
+                    .putInt(x1).putInt(y1).putInt(x2).putInt(y2);
+        }
     }
 
     public void drawRect(int x, int y, int width, int height) {
-        queueCommand(gl -> {
-            setGLColor(gl, color);
-            gl.glDisable(GL2.GL_TEXTURE_2D);
-            gl.glBegin(GL2.GL_LINE_LOOP);
-            gl.glVertex2f(x, y);
-            gl.glVertex2f(x + width, y);
-            gl.glVertex2f(x + width, y + height);
-            gl.glVertex2f(x, y + height);
-            gl.glEnd();
-            gl.glEnable(GL2.GL_TEXTURE_2D);
-        });
+        recordRect(CommandBuffer.OP_RECT, x, y, width, height);
     }
 
     public void fillRect(int x, int y, int width, int height) {
-        queueCommand(gl -> {
-            setGLColor(gl, color);
-            gl.glDisable(GL2.GL_TEXTURE_2D);
-            gl.glBegin(GL2.GL_QUADS);
-            gl.glVertex2f(x, y);
-            gl.glVertex2f(x + width, y);
-            gl.glVertex2f(x + width, y + height);
-            gl.glVertex2f(x, y + height);
-            gl.glEnd();
-            gl.glEnable(GL2.GL_TEXTURE_2D);
-        });
+        recordRect(CommandBuffer.OP_FILL_RECT, x, y, width, height);
     }
 
     public void drawOval(int x, int y, int width, int height) {
-        queueCommand(gl -> drawEllipse(gl, x, y, width, height, false));
+        recordRect(CommandBuffer.OP_OVAL, x, y, width, height);
     }
 
     public void fillOval(int x, int y, int width, int height) {
-        queueCommand(gl -> drawEllipse(gl, x, y, width, height, true));
+        recordRect(CommandBuffer.OP_FILL_OVAL, x, y, width, height);
     }
 
     public void drawRoundRect(int x, int y, int width, int height, int arcWidth, int arcHeight) {
@@ -302,85 +1759,42 @@ public class SpiteWindow {
     }
 
     public void drawArc(int x, int y, int width, int height, int startAngle, int arcAngle) {
-        queueCommand(gl -> drawEllipticalArc(gl, x, y, width, height, startAngle, arcAngle, false));
+        recordArc(CommandBuffer.OP_ARC, x, y, width, height, startAngle, arcAngle);
     }
 
     public void fillArc(int x, int y, int width, int height, int startAngle, int arcAngle) {
-        queueCommand(gl -> drawEllipticalArc(gl, x, y, width, height, startAngle, arcAngle, true));
+        recordArc(CommandBuffer.OP_FILL_ARC, x, y, width, height, startAngle, arcAngle);
     }
 
     public void drawPolyline(int[] xPoints, int[] yPoints, int nPoints) {
         if (nPoints < 2) return;
 
-        queueCommand(gl -> {
-            setGLColor(gl, color);
-            gl.glDisable(GL2.GL_TEXTURE_2D);
-            gl.glBegin(GL2.GL_LINE_STRIP);
-            for (int i = 0; i < nPoints; i++) {
-                gl.glVertex2f(xPoints[i], yPoints[i]);
-            }
-            gl.glEnd();
-            gl.glEnable(GL2.GL_TEXTURE_2D);
-        });
+        recordPoints(CommandBuffer.OP_POLYLINE, xPoints, yPoints, nPoints);
     }
 
     public void drawPolygon(int[] xPoints, int[] yPoints, int nPoints) {
         if (nPoints < 3) return;
 
-        queueCommand(gl -> {
-            setGLColor(gl, color);
-            gl.glDisable(GL2.GL_TEXTURE_2D);
-            gl.glBegin(GL2.GL_LINE_LOOP);
-            for (int i = 0; i < nPoints; i++) {
-                gl.glVertex2f(xPoints[i], yPoints[i]);
-            }
-            gl.glEnd();
-            gl.glEnable(GL2.GL_TEXTURE_2D);
-        });
+        recordPoints(CommandBuffer.OP_POLYGON, xPoints, yPoints, nPoints);
     }
 
     public void fillPolygon(int[] xPoints, int[] yPoints, int nPoints) {
         if (nPoints < 3) return;
 
-        queueCommand(gl -> {
-            setGLColor(gl, color);
-            gl.glDisable(GL2.GL_TEXTURE_2D);
-            gl.glBegin(GL2.GL_POLYGON);
-            for (int i = 0; i < nPoints; i++) {
-                gl.glVertex2f(xPoints[i], yPoints[i]);
-            }
-            gl.glEnd();
-            gl.glEnable(GL2.GL_TEXTURE_2D);
-        });
+        recordPoints(CommandBuffer.OP_FILL_POLYGON, xPoints, yPoints, nPoints);
     }
 
     public void drawString(String str, int x, int y) {
         if (str == null || str.isEmpty()) return;
 
-        queueCommand(gl -> {
-            // Create a BufferedImage to render the text
-            FontMetrics fm = new Canvas().getFontMetrics(font);
-            int width = fm.stringWidth(str);
-            int height = fm.getHeight();
-
-            BufferedImage textImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-            Graphics2D g2d = textImage.createGraphics();
-            g2d.setFont(font);
-            g2d.setColor(color);
-            g2d.drawString(str, 0, fm.getAscent());
-            g2d.dispose();
-
-            // Draw the text image
-            int textureId = getOrCreateTexture(gl, textImage);
-            gl.glBindTexture(GL2.GL_TEXTURE_2D, textureId);
-            gl.glBegin(GL2.GL_QUADS);
-            gl.glTexCoord2f(0, 0); gl.glVertex2f(x, y - fm.getAscent());
-            gl.glTexCoord2f(1, 0); gl.glVertex2f(x + width, y - fm.getAscent());
-            gl.glTexCoord2f(1, 1); gl.glVertex2f(x + width, y - fm.getAscent() + height);
-            gl.glTexCoord2f(0, 1); gl.glVertex2f(x, y - fm.getAscent() + height);
-            gl.glEnd();
-            gl.glBindTexture(GL2.GL_TEXTURE_2D, 0);
-        });
+        CommandRecorder r = recorder();
+        synchronized (r) {
+            // Generous box from the font size; measuring the string would cost more than drawing it
+            double size = r.font.getSize2D();
+            if (!visible(r, x - size, y - size * 2, (str.length() + 2) * size, size * 3)) return;
+            r.begin(CommandBuffer.OP_STRING, 5).putInt(packColor(r.color))
+                    .putRef(r.font).putRef(str).putInt(x).putInt(y);
+        }
     }
 
     public void drawString(String str, float x, float y) {
@@ -394,18 +1808,7 @@ public class SpiteWindow {
     public void drawImage(BufferedImage img, int x, int y, Color bgcolor) {
         if (img == null) return;
 
-        queueCommand(gl -> {
-            int textureId = getOrCreateTexture(gl, img);
-
-            gl.glBindTexture(GL2.GL_TEXTURE_2D, textureId);
-            gl.glBegin(GL2.GL_QUADS);
-            gl.glTexCoord2f(0, 0); gl.glVertex2f(x, y);
-            gl.glTexCoord2f(1, 0); gl.glVertex2f(x + img.getWidth(), y);
-            gl.glTexCoord2f(1, 1); gl.glVertex2f(x + img.getWidth(), y + img.getHeight());
-            gl.glTexCoord2f(0, 1); gl.glVertex2f(x, y + img.getHeight());
-            gl.glEnd();
-            gl.glBindTexture(GL2.GL_TEXTURE_2D, 0);
-        });
+        drawImage(img, x, y, img.getWidth(), img.getHeight(), bgcolor);
     }
 
     public void drawImage(BufferedImage img, int x, int y, int width, int height) {
@@ -415,49 +1818,93 @@ public class SpiteWindow {
     public void drawImage(BufferedImage img, int x, int y, int width, int height, Color bgcolor) {
         if (img == null) return;
 
-        GL2 gl = canvas.getGL().getGL2();
-        int textureId = getOrCreateTexture(gl, img);
+        CommandRecorder r = recorder();
+        synchronized (r) {
+            if (!visible(r, x, y, width, height)) return;
+            r.begin(CommandBuffer.OP_IMAGE, 6).putInt(packColor(Color.WHITE))
+                    .putRef(img).putInt(x).putInt(y).putInt(width).putInt(height);
+        }
+    }
+
+    /**
+     * Draw the part of the image between (sx1, sy1) and (sx2, sy2) scaled into the rectangle
+     * between (dx1, dy1) and (dx2, dy2), like Graphics.drawImage; swapped corners flip it
+     */
+    public void drawImage(BufferedImage img, int dx1, int dy1, int dx2, int dy2, int sx1, int sy1, int sx2, int sy2) {
+        if (img == null) return;
+
+        CommandRecorder r = recorder();
+        synchronized (r) {
+            if (!visible(r, Math.min(dx1, dx2), Math.min(dy1, dy2), Math.abs(dx2 - dx1), Math.abs(dy2 - dy1))) return;
+            r.begin(CommandBuffer.OP_IMAGE_REGION, 10).putInt(packColor(Color.WHITE)).putRef(img)
+                    .putInt(dx1).putInt(dy1).putInt(dx2).putInt(dy2)
+                    .putInt(sx1).putInt(sy1).putInt(sx2).putInt(sy2);
+        }
+    }
 
-        gl.glBindTexture(GL2.GL_TEXTURE_2D, textureId);
-        gl.glBegin(GL2.GL_QUADS);
-        gl.glTexCoord2f(0, 0); gl.glVertex2f(x, y);
-        gl.glTexCoord2f(1, 0); gl.glVertex2f(x + width, y);
-        gl.glTexCoord2f(1, 1); gl.glVertex2f(x + width, y + height);
-        gl.glTexCoord2f(0, 1); gl.glVertex2f(x, y + height);
-        gl.glEnd();
-        gl.glBindTexture(GL2.GL_TEXTURE_2D, 0);
+    /**
+     * Draw every column of the strips (raycast walls) as one batch. The columns are copied,
+     * so the strips can be refilled for the next frame right away.
+     */
+    public void drawColumns(ColumnStrips strips) {
+        if (strips == null || strips.getCount() == 0) return;
+
+        int count = strips.getCount();
+        int alpha = (int) (255 * compositeAlpha());
+        CommandRecorder r = recorder();
+        synchronized (r) {
+            CommandBuffer buffer = r.begin(CommandBuffer.OP_COLUMNS, 4 + count * 6).putInt(alpha)
+                    .putRef(strips.getTextures()).putInt(count).putInt(strips.getColumnWidth());
+            for (int i = 0; i < count; i++) {
+                buffer.putInt(strips.x[i]).putFloat(strips.top[i]).putFloat(strips.bottom[i])
+                        .putInt(strips.texture[i]).putFloat(strips.u[i]).putFloat(strips.shade[i]);
+            }
+        }
     }
 
     // Shape drawing methods
     public void draw(Shape s) {
         if (s == null) return;
 
-        queueCommand(gl -> {
-            PathIterator pi = s.getPathIterator(transform);
-            drawPathIterator(gl, pi, false);
-        });
+        Rectangle2D bounds = s.getBounds2D();
+        CommandRecorder r = recorder();
+        synchronized (r) {
+            if (!visible(r, bounds.getX(), bounds.getY(), bounds.getWidth(), bounds.getHeight())) return;
+            r.begin(CommandBuffer.OP_DRAW_SHAPE, 2).putInt(packColor(r.color)).putRef(s);
+        }
     }
 
     public void fill(Shape s) {
         if (s == null) return;
 
-        queueCommand(gl -> {
-            PathIterator pi = s.getPathIterator(transform);
-            drawPathIterator(gl, pi, true);
-        });
+        Rectangle2D bounds = s.getBounds2D();
+        CommandRecorder r = recorder();
+        synchronized (r) {
+            if (!visible(r, bounds.getX(), bounds.getY(), bounds.getWidth(), bounds.getHeight())) return;
+            r.begin(CommandBuffer.OP_FILL_SHAPE, 2).putInt(packColor(r.color)).putRef(s);
+        }
     }
 
     // Utility methods
     public void clearRect(int x, int y, int width, int height) {
-        Color oldColor = color;
+        Color oldColor = getColor();
         setColor(backgroundColor);
         fillRect(x, y, width, height);
         setColor(oldColor);
     }
 
+    /**
+     * Copy a rectangle of what has been drawn so far this frame by (dx, dy). Coordinates are
+     * in pixels of the surface being drawn to; the current transform does not apply.
+     */
     public void copyArea(int x, int y, int width, int height, int dx, int dy) {
-        // This would require reading pixels from the framebuffer
-        // For now, we'll skip this implementation
+        if (width <= 0 || height <= 0) return;
+
+        CommandRecorder r = recorder();
+        synchronized (r) {
+            r.buffer.begin(CommandBuffer.OP_COPY_AREA, 6)
+                    .putInt(x).putInt(y).putInt(width).putInt(height).putInt(dx).putInt(dy);
+        }
     }
 
     public void dispose() {
@@ -466,233 +1913,480 @@ public class SpiteWindow {
 
     // ===== Private helper methods =====
 
-    private void setGLColor(GL2 gl, Color color) {
+    private int packColor(Color color) {
         if (color == null) color = Color.BLACK;
-        float alpha = composite instanceof AlphaComposite ?
-                ((AlphaComposite) composite).getAlpha() : 1.0f;
-        gl.glColor4f(color.getRed() / 255.0f, color.getGreen() / 255.0f,
-                color.getBlue() / 255.0f, (color.getAlpha() / 255.0f) * alpha);
+        return SpriteBatch.packColor(color.getRed(), color.getGreen(), color.getBlue(),
+                (int) (color.getAlpha() * compositeAlpha()));
+    }
+
+    private float compositeAlpha() {
+        return composite instanceof AlphaComposite ? ((AlphaComposite) composite).getAlpha() : 1.0f;
     }
 
-    private void applyTransform(GL2 gl) {
-        double[] matrix = new double[6];
-        transform.getMatrix(matrix);
-        gl.glLoadMatrixd(new double[]{
-                matrix[0], matrix[2], 0, 0,
-                matrix[1], matrix[3], 0, 0,
-                0, 0, 1, 0,
-                matrix[4], matrix[5], 0, 1
-        }, 0);
+    private void setBatchTransform(CommandBuffer buffer, int p) {
+        batch.setTransform(buffer.getFloat(p), buffer.getFloat(p + 1), buffer.getFloat(p + 2),
+                buffer.getFloat(p + 3), buffer.getFloat(p + 4), buffer.getFloat(p + 5));
     }
 
-    private void drawEllipse(GL2 gl, int x, int y, int width, int height, boolean fill) {
-        setGLColor(gl, color);
-        gl.glDisable(GL2.GL_TEXTURE_2D);
+    // ===== Command recording helpers =====
 
-        int segments = Math.max(16, Math.min(width, height) / 4);
-        float centerX = x + width / 2.0f;
-        float centerY = y + height / 2.0f;
-        float radiusX = width / 2.0f;
-        float radiusY = height / 2.0f;
+    // Depth applies from here on in the recorder's current buffer; new buffers start at depth 0
+    private void recordDepth(CommandRecorder r) {
+        if (r.depth == 0 && !r.buffer.hasDepth) return;
+        r.buffer.begin(CommandBuffer.OP_DEPTH, 1).putInt(r.depth);
+        r.buffer.hasDepth = true;
+    }
 
-        if (fill) {
-            gl.glBegin(GL2.GL_TRIANGLE_FAN);
-            gl.glVertex2f(centerX, centerY);
+    private void recordRect(int op, int x, int y, int width, int height) {
+        CommandRecorder r = recorder();
+        synchronized (r) {
+            if (!visible(r, x, y, width, height)) return;
+            r.begin(op, 5).putInt(packColor(r.color))
+                    .putInt(x).putInt(y).putInt(width).putInt(height);
+        }
+    }
+
+    private void recordArc(int op, int x, int y, int width, int height, int startAngle, int arcAngle) {
+        CommandRecorder r = recorder();
+        synchronized (r) {
+            if (!visible(r, x, y, width, height)) return;
+            r.begin(op, 7).putInt(packColor(r.color))
+                    .putInt(x).putInt(y).putInt(width).putInt(height).putInt(startAngle).putInt(arcAngle);
+        }
+    }
+
+    // Point arrays are copied into the stream so callers may reuse them immediately
+    private void recordPoints(int op, int[] xPoints, int[] yPoints, int nPoints) {
+        int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+        for (int i = 0; i < nPoints; i++) {
+            minX = Math.min(minX, xPoints[i]);
+            maxX = Math.max(maxX, xPoints[i]);
+            minY = Math.min(minY, yPoints[i]);
+            maxY = Math.max(maxY, yPoints[i]);
+        }
+
+        CommandRecorder r = recorder();
+        synchronized (r) {
+            if (!visible(r, minX, minY, (double) maxX - minX, (double) maxY - minY)) return;
+            r.begin(op, 2 + nPoints * 2).putInt(packColor(r.color)).putInt(nPoints)
+                    .putInts(xPoints, nPoints).putInts(yPoints, nPoints);
+        }
+    }
+
+    // False when a draw with these user-space bounds lands entirely outside the surface; call holding r
+    private boolean visible(CommandRecorder r, double x, double y, double width, double height) {
+        RecordingSink sink = r.sink;
+        if (!culling || sink instanceof RenderLayer) return true;
+
+        int visibleWidth, visibleHeight;
+        if (sink instanceof RenderTarget) {
+            visibleWidth = ((RenderTarget) sink).getWidth();
+            visibleHeight = ((RenderTarget) sink).getHeight();
         } else {
-            gl.glBegin(GL2.GL_LINE_LOOP);
+            visibleWidth = getWidth();
+            visibleHeight = getHeight();
+        }
+        if (visibleWidth <= 0 || visibleHeight <= 0) return true;
+        if (r.overlaps(x, y, width, height, -CULL_MARGIN, -CULL_MARGIN,
+                visibleWidth + CULL_MARGIN, visibleHeight + CULL_MARGIN)) {
+            return true;
+        }
+        culledDraws.increment();
+        return false;
+    }
+
+    // Size of the render target the recorder draws into, otherwise of the window
+    private Dimension surfaceSize(CommandRecorder r) {
+        RecordingSink sink = r.sink;
+        if (sink instanceof RenderTarget) {
+            RenderTarget target = (RenderTarget) sink;
+            return new Dimension(target.getWidth(), target.getHeight());
+        }
+        return new Dimension(getWidth(), getHeight());
+    }
+
+    // ===== GL-thread drawing helpers =====
+
+    // Grab the pixels with glCopyTexSubImage2D into a scratch texture, then draw it at the destination
+    private void copyArea(GL2GL3 gl, int x, int y, int width, int height, int dx, int dy) {
+        if (batch.isCapturing()) {
+            System.err.println("copyArea cannot be recorded into a layer; skipped");
+            return;
+        }
+        // Everything drawn so far must reach the framebuffer first
+        batch.flush();
+        if (software != null) {
+            software.copyArea(x, y, width, height, dx, dy);
+            return;
+        }
+
+        if (copyTexture == 0 || copyTextureWidth < width || copyTextureHeight < height) {
+            if (copyTexture == 0) {
+                int[] ids = new int[1];
+                gl.glGenTextures(1, ids, 0);
+                copyTexture = ids[0];
+            }
+            copyTextureWidth = Math.max(width, copyTextureWidth);
+            copyTextureHeight = Math.max(height, copyTextureHeight);
+            glState.bindTexture(gl, copyTexture);
+            gl.glTexParameteri(GL2GL3.GL_TEXTURE_2D, GL2GL3.GL_TEXTURE_MIN_FILTER, GL2GL3.GL_NEAREST);
+            gl.glTexParameteri(GL2GL3.GL_TEXTURE_2D, GL2GL3.GL_TEXTURE_MAG_FILTER, GL2GL3.GL_NEAREST);
+            gl.glTexImage2D(GL2GL3.GL_TEXTURE_2D, 0, GL2GL3.GL_RGBA8, copyTextureWidth, copyTextureHeight, 0,
+                    GL2GL3.GL_RGBA, GL2GL3.GL_UNSIGNED_BYTE, null);
+        }
+
+        // Framebuffer rows run bottom-up
+        glState.bindTexture(gl, copyTexture);
+        gl.glCopyTexSubImage2D(GL2GL3.GL_TEXTURE_2D, 0, 0, 0, x, surfaceHeight - y - height, width, height);
+
+        float u1 = width / (float) copyTextureWidth;
+        float v1 = height / (float) copyTextureHeight;
+        float[] saved = commandTransform;
+        batch.getTransform(saved);
+        batch.setIdentity();
+        batch.texturedRect(copyTexture, x + dx, y + dy, width, height, 0, v1, u1, 0,
+                SpriteBatch.packColor(255, 255, 255, 255));
+        batch.flush();
+        batch.setTransform(saved);
+    }
+
+    // Each strip is one texel column of its texture stretched from top to bottom
+    private void drawColumns(GL2GL3 gl, CommandBuffer buffer, int p) {
+        int[] d = buffer.data;
+        int alpha = d[p];
+        BufferedImage[] images = (BufferedImage[]) buffer.getRef(p + 1);
+        int count = d[p + 2], width = d[p + 3];
+        if (columnRegions.length < images.length) {
+            columnRegions = new TextureAtlas.Region[images.length];
+        }
+        TextureAtlas.Region[] regions = columnRegions;
+        Arrays.fill(regions, 0, images.length, null);
+
+        for (int i = 0, q = p + 4; i < count; i++, q += 6) {
+            int texture = d[q + 3];
+            if (texture < 0 || texture >= images.length || images[texture] == null) continue;
+
+            TextureAtlas.Region region = regions[texture];
+            if (region == null) {
+                region = textureSource.getRegion(gl, images[texture]);
+                regions[texture] = region;
+            }
+            float top = buffer.getFloat(q + 1), bottom = buffer.getFloat(q + 2);
+            // Sample the center of the texel so the strip doesn't blend with its neighbour
+            float texel = ((int) (buffer.getFloat(q + 4) * region.width) + 0.5f) / region.width;
+            float u = region.u0 + texel * (region.u1 - region.u0);
+            int level = Math.max(0, Math.min(255, Math.round(buffer.getFloat(q + 5) * 255)));
+            batch.texturedRect(region.texture, d[q], top, width, bottom - top, u, region.v0, u, region.v1,
+                    SpriteBatch.packColor(level, level, level, alpha));
         }
+        Arrays.fill(regions, 0, images.length, null);
+    }
 
-        for (int i = 0; i <= segments; i++) {
-            double angle = 2.0 * Math.PI * i / segments;
-            float px = centerX + (float)(radiusX * Math.cos(angle));
-            float py = centerY + (float)(radiusY * Math.sin(angle));
-            gl.glVertex2f(px, py);
+    // Scratch point storage for building outlines and fans on the GL thread
+    private void ensurePoints(int nPoints) {
+        if (points.length < nPoints * 2) {
+            points = new float[Math.max(nPoints * 2, points.length * 2)];
         }
+    }
 
-        gl.glEnd();
-        gl.glEnable(GL2.GL_TEXTURE_2D);
+    // Interleave nPoints x values followed by nPoints y values from the command stream
+    private void copyPoints(int[] data, int offset, int nPoints) {
+        ensurePoints(nPoints);
+        for (int i = 0; i < nPoints; i++) {
+            points[i * 2] = data[offset + i];
+            points[i * 2 + 1] = data[offset + nPoints + i];
+        }
     }
 
-    private void drawEllipticalArc(GL2 gl, int x, int y, int width, int height, int startAngle, int arcAngle, boolean fill) {
-        setGLColor(gl, color);
-        gl.glDisable(GL2.GL_TEXTURE_2D);
+    private void strokeRect(int x, int y, int width, int height, int packedColor) {
+        ensurePoints(4);
+        points[0] = x;         points[1] = y;
+        points[2] = x + width; points[3] = y;
+        points[4] = x + width; points[5] = y + height;
+        points[6] = x;         points[7] = y + height;
+        batch.strokePolyline(points, 4, true, packedColor);
+    }
 
-        int segments = Math.max(16, Math.min(width, height) / 4);
+    private void drawEllipse(int x, int y, int width, int height, boolean fill, int packedColor) {
+        int segments = CircleTables.segments(width, height);
+        float[] table = circles.table(segments);
         float centerX = x + width / 2.0f;
         float centerY = y + height / 2.0f;
         float radiusX = width / 2.0f;
         float radiusY = height / 2.0f;
 
-        double startRad = Math.toRadians(-startAngle);
-        double endRad = Math.toRadians(-startAngle - arcAngle);
-
+        // Filled ovals are fans around the center, outlines a closed ring
+        ensurePoints(segments + 2);
+        int n = 0;
         if (fill) {
-            gl.glBegin(GL2.GL_TRIANGLE_FAN);
-            gl.glVertex2f(centerX, centerY);
-        } else {
-            gl.glBegin(GL2.GL_LINE_STRIP);
+            points[n++] = centerX;
+            points[n++] = centerY;
         }
-
-        for (int i = 0; i <= segments; i++) {
-            double angle = startRad + (endRad - startRad) * i / segments;
-            float px = centerX + (float)(radiusX * Math.cos(angle));
-            float py = centerY + (float)(radiusY * Math.sin(angle));
-            gl.glVertex2f(px, py);
+        int ringPoints = fill ? segments + 1 : segments;
+        for (int i = 0; i < ringPoints; i++) {
+            points[n++] = centerX + radiusX * table[i];
+            points[n++] = centerY + radiusY * table[segments + 1 + i];
         }
 
-        gl.glEnd();
-        gl.glEnable(GL2.GL_TEXTURE_2D);
+        if (fill) {
+            batch.fillFan(points, n / 2, packedColor);
+        } else {
+            batch.strokePolyline(points, n / 2, true, packedColor);
+        }
     }
 
-    private void drawPathIterator(GL2 gl, PathIterator pi, boolean fill) {
-        setGLColor(gl, color);
-        gl.glDisable(GL2.GL_TEXTURE_2D);
+    private void drawEllipticalArc(int x, int y, int width, int height, int startAngle, int arcAngle,
+                                   boolean fill, int packedColor) {
+        int segments = CircleTables.segments(width, height);
+        float[] table = circles.table(segments);
+        float centerX = x + width / 2.0f;
+        float centerY = y + height / 2.0f;
+        float radiusX = width / 2.0f;
+        float radiusY = height / 2.0f;
+
+        // Walk the full-circle table from the start angle, rotated by it, then land exactly on
+        // the end angle. Angles run counter-clockwise on screen, so y is negated.
+        int sweep = Math.min(360, Math.abs(arcAngle));
+        float direction = arcAngle < 0 ? -1 : 1;
+        int arcSegments = Math.max(1, (sweep * segments + 359) / 360);
+        float startCos = CircleTables.degreeCos(startAngle);
+        float startSin = CircleTables.degreeSin(startAngle);
 
-        float[] coords = new float[6];
-        boolean first = true;
-        float firstX = 0, firstY = 0;
-        float lastX = 0, lastY = 0;
+        ensurePoints(arcSegments + 2);
+        int n = 0;
+        if (fill) {
+            points[n++] = centerX;
+            points[n++] = centerY;
+        }
+        for (int i = 0; i < arcSegments; i++) {
+            float cos = table[i];
+            float sin = direction * table[segments + 1 + i];
+            points[n++] = centerX + radiusX * (startCos * cos - startSin * sin);
+            points[n++] = centerY - radiusY * (startSin * cos + startCos * sin);
+        }
+        int endAngle = startAngle + (int) direction * sweep;
+        points[n++] = centerX + radiusX * CircleTables.degreeCos(endAngle);
+        points[n++] = centerY - radiusY * CircleTables.degreeSin(endAngle);
 
         if (fill) {
-            gl.glBegin(GL2.GL_POLYGON);
+            batch.fillFan(points, n / 2, packedColor);
         } else {
-            gl.glBegin(GL2.GL_LINE_STRIP);
+            batch.strokePolyline(points, n / 2, false, packedColor);
         }
+    }
+
+    // Outline each subpath of a flattened path
+    private void strokePath(PathIterator pi, int packedColor) {
+        float[] coords = pathCoords;
+        int n = 0;
+        boolean closed = false;
 
         while (!pi.isDone()) {
-            int type = pi.currentSegment(coords);
-            switch (type) {
+            switch (pi.currentSegment(coords)) {
                 case PathIterator.SEG_MOVETO:
-                    if (!first && fill) {
-                        gl.glEnd();
-                        gl.glBegin(GL2.GL_POLYGON);
-                    }
-                    firstX = lastX = coords[0];
-                    firstY = lastY = coords[1];
-                    gl.glVertex2f(coords[0], coords[1]);
-                    first = false;
+                    batch.strokePolyline(points, n, closed, packedColor);
+                    n = addPoint(0, coords[0], coords[1]);
+                    closed = false;
                     break;
                 case PathIterator.SEG_LINETO:
-                    lastX = coords[0];
-                    lastY = coords[1];
-                    gl.glVertex2f(coords[0], coords[1]);
-                    break;
-                case PathIterator.SEG_QUADTO:
-                    // Approximate quadratic curve with line segments
-                    for (int i = 1; i <= 8; i++) {
-                        float t = i / 8.0f;
-                        float x = (1-t)*(1-t)*lastX + 2*(1-t)*t*coords[0] + t*t*coords[2];
-                        float y = (1-t)*(1-t)*lastY + 2*(1-t)*t*coords[1] + t*t*coords[3];
-                        gl.glVertex2f(x, y);
-                    }
-                    lastX = coords[2];
-                    lastY = coords[3];
-                    break;
-                case PathIterator.SEG_CUBICTO:
-                    // Approximate cubic curve with line segments
-                    for (int i = 1; i <= 8; i++) {
-                        float t = i / 8.0f;
-                        float x = (1-t)*(1-t)*(1-t)*lastX + 3*(1-t)*(1-t)*t*coords[0] +
-                                3*(1-t)*t*t*coords[2] + t*t*t*coords[4];
-                        float y = (1-t)*(1-t)*(1-t)*lastY + 3*(1-t)*(1-t)*t*coords[1] +
-                                3*(1-t)*t*t*coords[3] + t*t*t*coords[5];
-                        gl.glVertex2f(x, y);
-                    }
-                    lastX = coords[4];
-                    lastY = coords[5];
+                    n = addPoint(n, coords[0], coords[1]);
                     break;
                 case PathIterator.SEG_CLOSE:
-                    if (fill && !first) {
-                        gl.glVertex2f(firstX, firstY);
-                    }
+                    closed = true;
                     break;
             }
             pi.next();
         }
 
-        gl.glEnd();
-        gl.glEnable(GL2.GL_TEXTURE_2D);
+        batch.strokePolyline(points, n, closed, packedColor);
+    }
+
+    private int addPoint(int n, float x, float y) {
+        ensurePoints(n + 1);
+        points[n * 2] = x;
+        points[n * 2 + 1] = y;
+        return n + 1;
+    }
+
+    // ===== Frame capture =====
+
+    /**
+     * Stream every frame to the sink until stopCapture. Frames are read back asynchronously and
+     * reach the sink two frames late on a background thread; if the sink cannot keep up, frames
+     * are dropped rather than stalling rendering (see getDroppedCaptureFrameCount).
+     */
+    public void startCapture(FrameSink sink) {
+        FrameCapture capture = new FrameCapture(sink, 0);
+        synchronized (captures) {
+            FrameCapture current = recordingCapture;
+            if (current != null && captures.contains(current)) {
+                capture.abort();
+                throw new IllegalStateException("A capture is already running");
+            }
+            recordingCapture = capture;
+            captures.add(capture);
+        }
     }
 
-    private int getOrCreateTexture(GL2 gl, BufferedImage img) {
-        Integer textureId = textureCache.get(img);
-        if (textureId != null) {
-            return textureId;
+    /**
+     * Stop the running capture; the sink receives the frames still in flight and is then closed
+     */
+    public void stopCapture() {
+        FrameCapture capture = recordingCapture;
+        if (capture != null) {
+            capture.stop();
         }
+    }
 
-        // Convert BufferedImage to RGBA
-        BufferedImage rgbaImage = convertToRGBA(img);
+    /**
+     * Frames written to the sink by the current or last capture
+     */
+    public long getCapturedFrameCount() {
+        FrameCapture capture = recordingCapture;
+        return capture != null ? capture.getWritten() : 0;
+    }
 
-        // Get pixel data as bytes
-        byte[] pixels = getImageBytes(rgbaImage);
+    /**
+     * Frames the current or last capture skipped because the sink fell behind
+     */
+    public long getDroppedCaptureFrameCount() {
+        FrameCapture capture = recordingCapture;
+        return capture != null ? capture.getDropped() : 0;
+    }
 
-        // Generate texture
-        int[] textureIds = new int[1];
-        gl.glGenTextures(1, textureIds, 0);
-        textureId = textureIds[0];
+    /**
+     * Grab the next frame without stalling the renderer. The image arrives once a later frame
+     * has been drawn, so keep rendering (or calling repaint) until the future completes.
+     */
+    public CompletableFuture<BufferedImage> captureScreenshot() {
+        CompletableFuture<BufferedImage> result = new CompletableFuture<>();
+        FrameSink sink = new FrameSink() {
+            @Override
+            public void write(int[] argb, int width, int height, long frameNumber) {
+                BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+                image.getRaster().setDataElements(0, 0, width, height, argb);
+                result.complete(image);
+            }
 
-        gl.glBindTexture(GL2.GL_TEXTURE_2D, textureId);
-        gl.glTexParameteri(GL2.GL_TEXTURE_2D, GL2.GL_TEXTURE_MIN_FILTER, GL2.GL_LINEAR);
-        gl.glTexParameteri(GL2.GL_TEXTURE_2D, GL2.GL_TEXTURE_MAG_FILTER, GL2.GL_LINEAR);
-        gl.glTexImage2D(GL2.GL_TEXTURE_2D, 0, GL2.GL_RGBA, rgbaImage.getWidth(),
-                rgbaImage.getHeight(), 0, GL2.GL_RGBA, GL2.GL_UNSIGNED_BYTE,
-                ByteBuffer.wrap(pixels));
-        gl.glBindTexture(GL2.GL_TEXTURE_2D, 0);
+            @Override
+            public void close() {
+                result.completeExceptionally(new IllegalStateException("Window closed before the frame was captured"));
+            }
+        };
+        synchronized (captures) {
+            captures.add(new FrameCapture(sink, 1));
+        }
+        return result;
+    }
 
-        textureCache.put(img, textureId);
-        return textureId;
+    private void runCaptures(GL2GL3 gl) {
+        synchronized (captures) {
+            if (captures.isEmpty()) return;
+            int width = getWidth(), height = getHeight();
+            if (software != null) {
+                captures.removeIf(capture -> !capture.capture(software.getFrame(), width, height));
+            } else {
+                captures.removeIf(capture -> !capture.capture(gl, glState, width, height));
+            }
+        }
     }
 
-    private BufferedImage convertToRGBA(BufferedImage img) {
-        if (img.getType() == BufferedImage.TYPE_INT_ARGB) {
-            return img;
+    // Software backend shutdown: there is no GL dispose to close the sinks
+    private void abortCaptures() {
+        synchronized (captures) {
+            for (FrameCapture capture : captures) {
+                capture.abort();
+            }
+            captures.clear();
         }
+    }
+
+    // ===== Headless rendering =====
 
-        BufferedImage rgbaImage = new BufferedImage(img.getWidth(), img.getHeight(),
-                BufferedImage.TYPE_INT_ARGB);
-        Graphics2D g = rgbaImage.createGraphics();
-        g.drawImage(img, 0, 0, null);
-        g.dispose();
-        return rgbaImage;
+    public boolean isHeadless() {
+        return canvas == null;
     }
 
-    private byte[] getImageBytes(BufferedImage img) {
-        int width = img.getWidth();
-        int height = img.getHeight();
-        byte[] pixels = new byte[width * height * 4]; // 4 bytes per pixel (RGBA)
+    /**
+     * Render one frame as fast as possible and return it as a new TYPE_INT_ARGB image
+     */
+    public BufferedImage renderFrame() {
+        BufferedImage image = new BufferedImage(getWidth(), getHeight(), BufferedImage.TYPE_INT_ARGB);
+        renderFrame(((DataBufferInt) image.getRaster().getDataBuffer()).getData());
+        return image;
+    }
 
-        // Get all pixels at once
-        int[] rgbPixels = new int[width * height];
-        img.getRGB(0, 0, width, height, rgbPixels, 0, width);
+    /**
+     * Render one frame on the calling thread and copy it into argb (width * height pixels,
+     * top row first, non-premultiplied ARGB); reuse the array to avoid allocating per frame
+     */
+    public void renderFrame(int[] argb) {
+        if (!isHeadless()) {
+            throw new IllegalStateException("renderFrame is only available in headless mode");
+        }
+        if (argb.length < getWidth() * getHeight()) {
+            throw new IllegalArgumentException("Pixel array too small: " + argb.length);
+        }
+        if (!running.get()) {
+            start();
+        }
 
-        // Convert int pixels to byte array (RGBA format)
-        for (int i = 0; i < rgbPixels.length; i++) {
-            int pixel = rgbPixels[i];
-            int offset = i * 4;
+        readbackTarget = argb;
+        try {
+            display();
+        } finally {
+            readbackTarget = null;
+        }
+    }
 
-            // Extract RGBA components (note: BufferedImage stores as ARGB)
-            pixels[offset] = (byte) ((pixel >> 16) & 0xFF); // Red
-            pixels[offset + 1] = (byte) ((pixel >> 8) & 0xFF);  // Green
-            pixels[offset + 2] = (byte) (pixel & 0xFF);         // Blue
-            pixels[offset + 3] = (byte) ((pixel >> 24) & 0xFF); // Alpha
+    // BGRA bytes read as 8_8_8_8_REV ints are ARGB on every platform; rows come back bottom-up
+    private void readPixels(GL2GL3 gl, int[] argb) {
+        int width = getWidth(), height = getHeight();
+        if (readbackBuffer == null || readbackBuffer.capacity() < width * height) {
+            readbackBuffer = Buffers.newDirectIntBuffer(width * height);
         }
+        readbackBuffer.clear();
+        gl.glPixelStorei(GL2GL3.GL_PACK_ALIGNMENT, 4);
+        gl.glReadPixels(0, 0, width, height, GL2GL3.GL_BGRA, GL2GL3.GL_UNSIGNED_INT_8_8_8_8_REV, readbackBuffer);
 
-        return pixels;
+        for (int row = 0; row < height; row++) {
+            readbackBuffer.position((height - 1 - row) * width);
+            readbackBuffer.get(argb, row * width, width);
+        }
     }
 
     // ===== Window management =====
 
     public void start() {
-        if (running.compareAndSet(false, true)) {
-            System.out.println("DEBUG: SpiteWindow.start() called - making frame visible");
+        if (running.compareAndSet(false, true) && frame != null) {
             frame.setVisible(true);
-            System.out.println("DEBUG: SpiteWindow frame visible: " + frame.isVisible());
         }
     }
 
     public void stop() {
         if (running.compareAndSet(true, false)) {
+            Thread thread;
+            synchronized (renderLock) {
+                thread = renderThread;
+                renderThread = null;
+                // A running loop may be mid-frame, or waiting for this very thread to draw one
+                releaseOnExit = thread != null;
+            }
+            if (thread == null) {
+                releaseWindow();
+            } else if (canJoin(thread)) {
+                join(thread);
+            }
+        }
+    }
+
+    private void releaseWindow() {
+        if (frame != null) {
             frame.dispose();
+        } else if (drawable != null) {
+            drawable.destroy();
+        } else {
+            abortCaptures();
         }
     }
 
@@ -700,30 +2394,46 @@ public class SpiteWindow {
         return running.get();
     }
 
+    public GraphicsBackend getBackend() {
+        return backendType;
+    }
+
     public int getWidth() {
-        return canvas.getWidth();
+        if (software != null) return software.getFrameWidth();
+        return canvas != null ? canvas.getWidth() : drawable.getSurfaceWidth();
     }
 
     public int getHeight() {
-        return canvas.getHeight();
+        if (software != null) return software.getFrameHeight();
+        return canvas != null ? canvas.getHeight() : drawable.getSurfaceHeight();
     }
 
-    // === Mouse listener API for compatibility ===
+    // === Mouse listener API for compatibility (headless instances have no input) ===
     public void addMouseListener(java.awt.event.MouseListener l) {
-        canvas.addMouseListener(l);
+        if (canvas != null) {
+            canvas.addMouseListener(l);
+        }
     }
     public void addMouseMotionListener(java.awt.event.MouseMotionListener l) {
-        canvas.addMouseMotionListener(l);
+        if (canvas != null) {
+            canvas.addMouseMotionListener(l);
+        }
     }
     public void addMouseWheelListener(java.awt.event.MouseWheelListener l) {
-        canvas.addMouseWheelListener(l);
+        if (canvas != null) {
+            canvas.addMouseWheelListener(l);
+        }
     }
 
     // === Keyboard and focus listener API for compatibility ===
     public void addKeyListener(java.awt.event.KeyListener l) {
-        canvas.addKeyListener(l);
+        if (canvas != null) {
+            canvas.addKeyListener(l);
+        }
     }
     public void addFocusListener(java.awt.event.FocusListener l) {
-        canvas.addFocusListener(l);
+        if (canvas != null) {
+            canvas.addFocusListener(l);
+        }
     }
 } 
\ No newline at end of file
@@ -0,0 +1,445 @@
+package spite2d;
+
+import com.jogamp.common.nio.Buffers;
+import com.jogamp.opengl.GL2GL3;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+// Accumulates vertices (position, UV, packed color) into direct buffers and submits them
+// with a single glDrawElements per texture/primitive change instead of a glBegin/glEnd per call
+class SpriteBatch {
+    static final int BYTES_PER_VERTEX = 4 * Buffers.SIZEOF_FLOAT + 4;
+    private static final int MAX_VERTICES = 32768;
+    private static final int MAX_INDICES = MAX_VERTICES * 3;
+    private static final boolean LITTLE_ENDIAN = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+
+    private final ByteBuffer vertices;
+    private final IntBuffer indices;
+    private final int[] buffers = new int[2];
+    private final GLStateCache state;
+    private RenderBackend backend;
+    private SoftwareRasterizer rasterizer;
+    private TextureAtlas.Region solid;
+    private Capture capture;
+
+    private GL2GL3 gl;
+    private int mode = GL2GL3.GL_TRIANGLES;
+    private int texture;
+    private int vertexCount;
+    private int indexCount;
+    private int drawCalls;
+
+    // Transform of the command being executed, applied to every vertex on the CPU so that
+    // transformed draws still share one draw call; {m00, m10, m01, m11, m02, m12}
+    private final float[] transform = {1, 0, 0, 1, 0, 0};
+    private boolean identity = true;
+
+    SpriteBatch(GLStateCache state) {
+        this.state = state;
+        this.vertices = Buffers.newDirectByteBuffer(MAX_VERTICES * BYTES_PER_VERTEX);
+        this.indices = Buffers.newDirectIntBuffer(MAX_INDICES);
+    }
+
+    /**
+     * Backend that binds the vertex layout; set once, before the first begin
+     */
+    void setBackend(RenderBackend backend) {
+        this.backend = backend;
+    }
+
+    /**
+     * Hand every draw to the software rasterizer instead of GL; set instead of a backend
+     */
+    void setRasterizer(SoftwareRasterizer rasterizer) {
+        this.rasterizer = rasterizer;
+    }
+
+    /**
+     * Pack a color into the byte order of the vertex color, four normalized unsigned bytes
+     */
+    static int packColor(int r, int g, int b, int a) {
+        if (LITTLE_ENDIAN) {
+            return (a << 24) | (b << 16) | (g << 8) | r;
+        }
+        return (r << 24) | (g << 16) | (b << 8) | a;
+    }
+
+    /**
+     * The ARGB int of a color made by packColor
+     */
+    static int unpackColor(int packed) {
+        if (LITTLE_ENDIAN) {
+            return (packed & 0xFF00FF00) | ((packed & 0xFF) << 16) | ((packed >> 16) & 0xFF);
+        }
+        return (packed >>> 8) | (packed << 24);
+    }
+
+    // ===== Frame lifecycle =====
+
+    void begin(GL2GL3 gl) {
+        this.gl = gl;
+        if (rasterizer != null) return;
+        if (buffers[0] == 0) {
+            gl.glGenBuffers(2, buffers, 0);
+        }
+        bindBuffers(buffers[0], buffers[1]);
+    }
+
+    void end() {
+        flush();
+        gl = null;
+    }
+
+    void dispose(GL2GL3 gl) {
+        if (buffers[0] != 0) {
+            state.deleteBuffers(gl, 2, buffers);
+            buffers[0] = buffers[1] = 0;
+        }
+    }
+
+    /**
+     * Submit everything accumulated so far as one draw call
+     */
+    void flush() {
+        if (indexCount == 0) return;
+
+        vertices.flip();
+        indices.flip();
+        if (capture != null) {
+            capture.append(mode, texture, vertices, indices, indexCount);
+            vertices.clear();
+            indices.clear();
+            vertexCount = 0;
+            indexCount = 0;
+            return;
+        }
+        if (rasterizer != null) {
+            rasterizer.submit(mode, texture, vertices, indices, 0, indexCount, null);
+            drawCalls++;
+            vertices.clear();
+            indices.clear();
+            vertexCount = 0;
+            indexCount = 0;
+            return;
+        }
+        // Uploads and particles may have bound other buffers since the pointers were set
+        state.bindBuffer(gl, GL2GL3.GL_ARRAY_BUFFER, buffers[0]);
+        state.bindBuffer(gl, GL2GL3.GL_ELEMENT_ARRAY_BUFFER, buffers[1]);
+        gl.glBufferData(GL2GL3.GL_ARRAY_BUFFER, vertices.limit(), vertices, GL2GL3.GL_STREAM_DRAW);
+        gl.glBufferData(GL2GL3.GL_ELEMENT_ARRAY_BUFFER, (long) indexCount * Buffers.SIZEOF_INT, indices, GL2GL3.GL_STREAM_DRAW);
+        state.bindTexture(gl, texture);
+        gl.glDrawElements(mode, indexCount, GL2GL3.GL_UNSIGNED_INT, 0);
+        drawCalls++;
+
+        vertices.clear();
+        indices.clear();
+        vertexCount = 0;
+        indexCount = 0;
+    }
+
+    /**
+     * Returns and resets the number of draw calls issued since the last call
+     */
+    int takeDrawCalls() {
+        int calls = drawCalls;
+        drawCalls = 0;
+        return calls;
+    }
+
+    /**
+     * Untextured primitives sample this white region, so they batch with sprites on the same page
+     */
+    void setSolidRegion(TextureAtlas.Region solid) {
+        this.solid = solid;
+    }
+
+    // ===== Static geometry =====
+
+    /**
+     * Keep everything emitted until endCapture() in the capture instead of drawing it
+     */
+    void beginCapture(Capture capture) {
+        flush();
+        capture.reset();
+        this.capture = capture;
+    }
+
+    void endCapture() {
+        flush();
+        capture.vertices.flip();
+        capture.indices.flip();
+        capture = null;
+    }
+
+    boolean isCapturing() {
+        return capture != null;
+    }
+
+    /**
+     * Temporarily draw normally again, e.g. to render into a framebuffer mid-capture;
+     * pass the result to resumeCapture
+     */
+    Capture pauseCapture() {
+        flush();
+        Capture paused = capture;
+        capture = null;
+        return paused;
+    }
+
+    void resumeCapture(Capture paused) {
+        flush();
+        capture = paused;
+    }
+
+    /**
+     * Draw previously captured geometry from its own vertex and index buffers
+     */
+    void drawStatic(int vertexBuffer, int indexBuffer, int[] ranges, int rangeCount) {
+        flush();
+        bindBuffers(vertexBuffer, indexBuffer);
+        for (int i = 0; i < rangeCount * 4; i += 4) {
+            state.bindTexture(gl, ranges[i + 1]);
+            gl.glDrawElements(ranges[i], ranges[i + 3], GL2GL3.GL_UNSIGNED_INT, (long) ranges[i + 2] * Buffers.SIZEOF_INT);
+            drawCalls++;
+        }
+        bindBuffers(buffers[0], buffers[1]);
+    }
+
+    private void bindBuffers(int vertexBuffer, int indexBuffer) {
+        backend.bindVertices(gl, vertexBuffer, indexBuffer);
+    }
+
+    /**
+     * Batched geometry collected for upload as a static buffer, plus one draw range per
+     * primitive mode and texture run
+     */
+    static final class Capture {
+        ByteBuffer vertices = Buffers.newDirectByteBuffer(256 * BYTES_PER_VERTEX);
+        IntBuffer indices = Buffers.newDirectIntBuffer(768);
+        int vertexCount;
+        // {mode, texture, first index, index count} per draw
+        int[] ranges = new int[16];
+        int rangeCount;
+
+        void reset() {
+            vertices.clear();
+            indices.clear();
+            vertexCount = 0;
+            rangeCount = 0;
+        }
+
+        private void append(int mode, int texture, ByteBuffer batchVertices, IntBuffer batchIndices, int count) {
+            if (vertices.remaining() < batchVertices.remaining()) {
+                vertices = grow(vertices, batchVertices.remaining());
+            }
+            if (indices.remaining() < count) {
+                IntBuffer larger = Buffers.newDirectIntBuffer(Math.max(indices.capacity() * 2, indices.position() + count));
+                indices.flip();
+                larger.put(indices);
+                indices = larger;
+            }
+
+            // Indices are relative to the batch; rebase them onto the captured vertices
+            int first = indices.position();
+            for (int i = 0; i < count; i++) {
+                indices.put(batchIndices.get(i) + vertexCount);
+            }
+            vertexCount += batchVertices.remaining() / BYTES_PER_VERTEX;
+            vertices.put(batchVertices);
+
+            int last = (rangeCount - 1) * 4;
+            if (rangeCount > 0 && ranges[last] == mode && ranges[last + 1] == texture) {
+                ranges[last + 3] += count;
+                return;
+            }
+            if ((rangeCount + 1) * 4 > ranges.length) {
+                ranges = Arrays.copyOf(ranges, ranges.length * 2);
+            }
+            int r = rangeCount++ * 4;
+            ranges[r] = mode;
+            ranges[r + 1] = texture;
+            ranges[r + 2] = first;
+            ranges[r + 3] = count;
+        }
+
+        private static ByteBuffer grow(ByteBuffer buffer, int extra) {
+            ByteBuffer larger = Buffers.newDirectByteBuffer(Math.max(buffer.capacity() * 2, buffer.position() + extra));
+            buffer.flip();
+            larger.put(buffer);
+            return larger;
+        }
+    }
+
+    // ===== Transform =====
+
+    void setTransform(float m00, float m10, float m01, float m11, float m02, float m12) {
+        float[] m = transform;
+        m[0] = m00; m[1] = m10; m[2] = m01; m[3] = m11; m[4] = m02; m[5] = m12;
+        identity = m00 == 1 && m10 == 0 && m01 == 0 && m11 == 1 && m02 == 0 && m12 == 0;
+    }
+
+    void setTransform(float[] m) {
+        setTransform(m, 0);
+    }
+
+    void setTransform(float[] m, int offset) {
+        setTransform(m[offset], m[offset + 1], m[offset + 2], m[offset + 3], m[offset + 4], m[offset + 5]);
+    }
+
+    void setIdentity() {
+        setTransform(1, 0, 0, 1, 0, 0);
+    }
+
+    void getTransform(float[] out) {
+        getTransform(out, 0);
+    }
+
+    void getTransform(float[] out, int offset) {
+        System.arraycopy(transform, 0, out, offset, 6);
+    }
+
+    boolean isIdentity() {
+        return identity;
+    }
+
+    // ===== Raw vertex emission =====
+
+    /**
+     * Make room for the given number of vertices and indices under the given primitive mode
+     * and texture, flushing first if the state changes or the buffers are full.
+     * Returns the base index for the vertices that follow.
+     */
+    int reserve(int mode, int texture, int vertexCount, int indexCount) {
+        if (mode != this.mode || texture != this.texture
+                || this.vertexCount + vertexCount > MAX_VERTICES
+                || this.indexCount + indexCount > MAX_INDICES) {
+            flush();
+            this.mode = mode;
+            this.texture = texture;
+        }
+        return this.vertexCount;
+    }
+
+    void vertex(float x, float y, float u, float v, int color) {
+        if (!identity) {
+            float[] m = transform;
+            float tx = m[0] * x + m[2] * y + m[4];
+            y = m[1] * x + m[3] * y + m[5];
+            x = tx;
+        }
+        vertices.putFloat(x).putFloat(y).putFloat(u).putFloat(v).putInt(color);
+        vertexCount++;
+    }
+
+    void index(int i) {
+        indices.put(i);
+        indexCount++;
+    }
+
+    // ===== Primitives =====
+
+    void line(float x1, float y1, float x2, float y2, int color) {
+        int base = reserve(GL2GL3.GL_LINES, solid.texture, 2, 2);
+        vertex(x1, y1, solid.u0, solid.v0, color);
+        vertex(x2, y2, solid.u0, solid.v0, color);
+        index(base);
+        index(base + 1);
+    }
+
+    void fillQuad(float x0, float y0, float x1, float y1, float x2, float y2, float x3, float y3, int color) {
+        int base = reserve(GL2GL3.GL_TRIANGLES, solid.texture, 4, 6);
+        float u = solid.u0, v = solid.v0;
+        vertex(x0, y0, u, v, color);
+        vertex(x1, y1, u, v, color);
+        vertex(x2, y2, u, v, color);
+        vertex(x3, y3, u, v, color);
+        quadIndices(base);
+    }
+
+    void fillRect(float x, float y, float width, float height, int color) {
+        fillQuad(x, y, x + width, y, x + width, y + height, x, y + height, color);
+    }
+
+    void texturedRect(int texture, float x, float y, float width, float height,
+                      float u0, float v0, float u1, float v1, int color) {
+        int base = reserve(GL2GL3.GL_TRIANGLES, texture, 4, 6);
+        vertex(x, y, u0, v0, color);
+        vertex(x + width, y, u1, v0, color);
+        vertex(x + width, y + height, u1, v1, color);
+        vertex(x, y + height, u0, v1, color);
+        quadIndices(base);
+    }
+
+    /**
+     * Fill quads given as 4 interleaved xy vertices each, such as a cached tessellation
+     */
+    void fillQuads(float[] quads, int nQuads, int color) {
+        for (int i = 0, o = 0; i < nQuads; i++, o += 8) {
+            fillQuad(quads[o], quads[o + 1], quads[o + 2], quads[o + 3],
+                    quads[o + 4], quads[o + 5], quads[o + 6], quads[o + 7], color);
+        }
+    }
+
+    /**
+     * Fill a triangle fan around point 0 of the interleaved xy array
+     */
+    void fillFan(float[] xy, int nPoints, int color) {
+        if (nPoints < 3) return;
+
+        // Split fans that don't fit in one batch into fans sharing the first point
+        float u = solid.u0, v = solid.v0;
+        int next = 1;
+        while (next < nPoints - 1) {
+            int count = Math.min(nPoints - next, MAX_VERTICES - 1);
+            int base = reserve(GL2GL3.GL_TRIANGLES, solid.texture, count + 1, (count - 1) * 3);
+            vertex(xy[0], xy[1], u, v, color);
+            for (int i = 0; i < count; i++) {
+                vertex(xy[(next + i) * 2], xy[(next + i) * 2 + 1], u, v, color);
+            }
+            for (int i = 1; i < count; i++) {
+                index(base);
+                index(base + i);
+                index(base + i + 1);
+            }
+            next += count - 1;
+        }
+    }
+
+    /**
+     * Stroke connected line segments through the interleaved xy array
+     */
+    void strokePolyline(float[] xy, int nPoints, boolean closed, int color) {
+        if (nPoints < 2) return;
+
+        float u = solid.u0, v = solid.v0;
+        int start = 0;
+        while (start < nPoints - 1) {
+            int count = Math.min(nPoints - start, MAX_VERTICES);
+            int base = reserve(GL2GL3.GL_LINES, solid.texture, count, (count - 1) * 2);
+            for (int i = 0; i < count; i++) {
+                vertex(xy[(start + i) * 2], xy[(start + i) * 2 + 1], u, v, color);
+            }
+            for (int i = 0; i < count - 1; i++) {
+                index(base + i);
+                index(base + i + 1);
+            }
+            start += count - 1;
+        }
+        if (closed && nPoints > 2) {
+            int last = (nPoints - 1) * 2;
+            line(xy[last], xy[last + 1], xy[0], xy[1], color);
+        }
+    }
+
+    private void quadIndices(int base) {
+        index(base);
+        index(base + 1);
+        index(base + 2);
+        index(base);
+        index(base + 2);
+        index(base + 3);
+    }
+}
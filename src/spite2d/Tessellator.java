@@ -0,0 +1,398 @@
+package spite2d;
+
+import java.awt.Shape;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Turns filled paths into trapezoids by sweeping horizontal slabs between vertex and edge-crossing
+// y values. Every slab is free of crossings, so holes, self-intersections and both winding rules
+// come out exact. Results are cached by path geometry: a shape that repeats across frames (even if
+// re-created each frame) is flattened and tessellated once and then only copied into the batch.
+final class Tessellator {
+    private static final double FLATNESS = 0.25;
+    private static final double EPSILON = 1e-6;
+    private static final int MAX_CACHED = 1024;
+
+    /**
+     * Tessellated fill: 4 vertices (8 floats) per trapezoid, clockwise from top-left
+     */
+    static final class Mesh {
+        final float[] quads;
+        final int quadCount;
+
+        Mesh(float[] quads, int quadCount) {
+            this.quads = quads;
+            this.quadCount = quadCount;
+        }
+    }
+
+    private final Map<PathKey, Mesh> cache = new LinkedHashMap<PathKey, Mesh>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<PathKey, Mesh> eldest) {
+            return size() > MAX_CACHED;
+        }
+    };
+    private final PathKey probe = new PathKey();
+    private final float[] segment = new float[6];
+
+    // Sweep scratch: edges run top to bottom, dir is +1 for downward and -1 for upward source edges
+    private double[] ex0 = new double[64], ey0 = new double[64], ex1 = new double[64], ey1 = new double[64];
+    private int[] edir = new int[64];
+    private int edgeCount;
+    private int[] active = new int[64];
+    private int activeCount;
+    private double[] order = new double[64];
+    private double[] splits = new double[64];
+    private float[] out = new float[256];
+    private int quadCount;
+
+    // ===== Lookup =====
+
+    Mesh fill(Shape shape) {
+        probe.reset(0);
+        PathIterator pi = shape.getPathIterator(null);
+        probe.windingRule = pi.getWindingRule();
+        while (!pi.isDone()) {
+            int type = pi.currentSegment(segment);
+            probe.add(type, segment, coordCount(type));
+            pi.next();
+        }
+        return lookup();
+    }
+
+    /**
+     * Polygon stored as nPoints x values followed by nPoints y values, filled with the even-odd rule
+     */
+    Mesh fillPolygon(int[] data, int offset, int nPoints) {
+        probe.reset(PathIterator.WIND_EVEN_ODD);
+        for (int i = 0; i < nPoints; i++) {
+            segment[0] = data[offset + i];
+            segment[1] = data[offset + nPoints + i];
+            probe.add(i == 0 ? PathIterator.SEG_MOVETO : PathIterator.SEG_LINETO, segment, 2);
+        }
+        probe.add(PathIterator.SEG_CLOSE, segment, 0);
+        return lookup();
+    }
+
+    void clear() {
+        cache.clear();
+    }
+
+    private Mesh lookup() {
+        probe.hash = probe.computeHash();
+        Mesh mesh = cache.get(probe);
+        if (mesh == null) {
+            PathKey key = probe.copy();
+            mesh = tessellate(key);
+            cache.put(key, mesh);
+        }
+        return mesh;
+    }
+
+    private static int coordCount(int type) {
+        switch (type) {
+            case PathIterator.SEG_MOVETO:
+            case PathIterator.SEG_LINETO:
+                return 2;
+            case PathIterator.SEG_QUADTO:
+                return 4;
+            case PathIterator.SEG_CUBICTO:
+                return 6;
+            default:
+                return 0;
+        }
+    }
+
+    // ===== Tessellation =====
+
+    private Mesh tessellate(PathKey key) {
+        edgeCount = 0;
+        quadCount = 0;
+        collectEdges(key.toPath().getPathIterator(null, FLATNESS));
+        if (edgeCount > 0) {
+            sweep(key.windingRule == PathIterator.WIND_NON_ZERO);
+        }
+        return new Mesh(Arrays.copyOf(out, quadCount * 8), quadCount);
+    }
+
+    // Flattened outline to edges; fills close every subpath implicitly
+    private void collectEdges(PathIterator pi) {
+        double startX = 0, startY = 0, lastX = 0, lastY = 0;
+        while (!pi.isDone()) {
+            switch (pi.currentSegment(segment)) {
+                case PathIterator.SEG_MOVETO:
+                    addEdge(lastX, lastY, startX, startY);
+                    startX = lastX = segment[0];
+                    startY = lastY = segment[1];
+                    break;
+                case PathIterator.SEG_LINETO:
+                    addEdge(lastX, lastY, segment[0], segment[1]);
+                    lastX = segment[0];
+                    lastY = segment[1];
+                    break;
+                case PathIterator.SEG_CLOSE:
+                    addEdge(lastX, lastY, startX, startY);
+                    lastX = startX;
+                    lastY = startY;
+                    break;
+            }
+            pi.next();
+        }
+        addEdge(lastX, lastY, startX, startY);
+    }
+
+    private void addEdge(double x0, double y0, double x1, double y1) {
+        // Horizontal edges never bound a slab
+        if (y0 == y1) return;
+
+        if (edgeCount == edir.length) {
+            int size = edgeCount * 2;
+            ex0 = Arrays.copyOf(ex0, size);
+            ey0 = Arrays.copyOf(ey0, size);
+            ex1 = Arrays.copyOf(ex1, size);
+            ey1 = Arrays.copyOf(ey1, size);
+            edir = Arrays.copyOf(edir, size);
+        }
+        int e = edgeCount++;
+        if (y0 < y1) {
+            ex0[e] = x0; ey0[e] = y0; ex1[e] = x1; ey1[e] = y1; edir[e] = 1;
+        } else {
+            ex0[e] = x1; ey0[e] = y1; ex1[e] = x0; ey1[e] = y0; edir[e] = -1;
+        }
+    }
+
+    private void sweep(boolean nonZero) {
+        // Slab boundaries at every edge endpoint
+        double[] ys = new double[edgeCount * 2];
+        for (int e = 0; e < edgeCount; e++) {
+            ys[e * 2] = ey0[e];
+            ys[e * 2 + 1] = ey1[e];
+        }
+        Arrays.sort(ys);
+
+        // Edges in order of their top y, entering the active list as the sweep reaches them
+        Integer[] byTop = new Integer[edgeCount];
+        for (int e = 0; e < edgeCount; e++) byTop[e] = e;
+        Arrays.sort(byTop, (a, b) -> Double.compare(ey0[a], ey0[b]));
+
+        if (active.length < edgeCount) {
+            active = new int[edgeCount];
+            order = new double[edgeCount];
+        }
+        activeCount = 0;
+        int next = 0;
+        for (int k = 0; k < ys.length - 1; k++) {
+            double top = ys[k];
+            double bottom = ys[k + 1];
+            if (bottom - top < EPSILON) continue;
+
+            int kept = 0;
+            for (int i = 0; i < activeCount; i++) {
+                if (ey1[active[i]] > top) active[kept++] = active[i];
+            }
+            activeCount = kept;
+            while (next < edgeCount && ey0[byTop[next]] <= top) {
+                int e = byTop[next++];
+                if (ey1[e] > top) active[activeCount++] = e;
+            }
+
+            sweepSlab(top, bottom, nonZero);
+        }
+    }
+
+    // Split the slab at every crossing of two of its edges, between neighbours or not, so each
+    // piece has a fixed left-to-right edge order; crossings closer than EPSILON are merged
+    private void sweepSlab(double top, double bottom, boolean nonZero) {
+        int splitCount = 0;
+        for (int i = 0; i < activeCount; i++) {
+            int a = active[i];
+            double aTop = xAt(a, top), aBottom = xAt(a, bottom);
+            for (int j = i + 1; j < activeCount; j++) {
+                int b = active[j];
+                double dTop = aTop - xAt(b, top), dBottom = aBottom - xAt(b, bottom);
+                if ((dTop < 0 && dBottom > 0) || (dTop > 0 && dBottom < 0)) {
+                    double y = top + (bottom - top) * (dTop / (dTop - dBottom));
+                    if (y - top > EPSILON && bottom - y > EPSILON) {
+                        if (splitCount == splits.length) {
+                            splits = Arrays.copyOf(splits, splitCount * 2);
+                        }
+                        splits[splitCount++] = y;
+                    }
+                }
+            }
+        }
+        Arrays.sort(splits, 0, splitCount);
+
+        for (int i = 0; i < splitCount; i++) {
+            double y = splits[i];
+            if (y - top <= EPSILON) continue;
+            emitPiece(top, y, nonZero);
+            top = y;
+        }
+        emitPiece(top, bottom, nonZero);
+    }
+
+    private void emitPiece(double top, double bottom, boolean nonZero) {
+        // Nothing crosses inside the piece, so the order at its middle holds from top to bottom
+        sortActive((top + bottom) / 2);
+        emitSpans(top, bottom, nonZero);
+    }
+
+    // Insertion sort by x at y; the order barely changes between slabs
+    private void sortActive(double y) {
+        for (int i = 0; i < activeCount; i++) {
+            order[i] = xAt(active[i], y);
+        }
+        for (int i = 1; i < activeCount; i++) {
+            int e = active[i];
+            double x = order[i];
+            int j = i - 1;
+            while (j >= 0 && order[j] > x) {
+                active[j + 1] = active[j];
+                order[j + 1] = order[j];
+                j--;
+            }
+            active[j + 1] = e;
+            order[j + 1] = x;
+        }
+    }
+
+    // Walk the slab left to right accumulating winding, one trapezoid per filled run
+    private void emitSpans(double top, double bottom, boolean nonZero) {
+        int winding = 0;
+        int runStart = -1;
+        for (int i = 0; i < activeCount; i++) {
+            int e = active[i];
+            winding += edir[e];
+            boolean inside = nonZero ? winding != 0 : (winding & 1) != 0;
+            if (inside && runStart < 0) {
+                runStart = e;
+            } else if (!inside && runStart >= 0) {
+                emitQuad(runStart, e, top, bottom);
+                runStart = -1;
+            }
+        }
+    }
+
+    private void emitQuad(int left, int right, double top, double bottom) {
+        float leftTop = (float) xAt(left, top), rightTop = (float) xAt(right, top);
+        float leftBottom = (float) xAt(left, bottom), rightBottom = (float) xAt(right, bottom);
+        if (rightTop - leftTop <= 0 && rightBottom - leftBottom <= 0) return;
+
+        if ((quadCount + 1) * 8 > out.length) {
+            out = Arrays.copyOf(out, out.length * 2);
+        }
+        int o = quadCount++ * 8;
+        out[o] = leftTop;         out[o + 1] = (float) top;
+        out[o + 2] = rightTop;    out[o + 3] = (float) top;
+        out[o + 4] = rightBottom; out[o + 5] = (float) bottom;
+        out[o + 6] = leftBottom;  out[o + 7] = (float) bottom;
+    }
+
+    private double slope(int e) {
+        return (ex1[e] - ex0[e]) / (ey1[e] - ey0[e]);
+    }
+
+    private double xAt(int e, double y) {
+        return ex0[e] + (y - ey0[e]) * slope(e);
+    }
+
+    // ===== Cache key =====
+
+    // Raw (unflattened) path segments plus winding rule; the probe is refilled for every lookup
+    private static final class PathKey {
+        int windingRule;
+        byte[] types = new byte[16];
+        int typeCount;
+        float[] coords = new float[32];
+        int coordCount;
+        int hash;
+
+        void reset(int windingRule) {
+            this.windingRule = windingRule;
+            typeCount = 0;
+            coordCount = 0;
+        }
+
+        void add(int type, float[] segment, int count) {
+            if (typeCount == types.length) {
+                types = Arrays.copyOf(types, types.length * 2);
+            }
+            if (coordCount + count > coords.length) {
+                coords = Arrays.copyOf(coords, Math.max(coords.length * 2, coordCount + count));
+            }
+            types[typeCount++] = (byte) type;
+            System.arraycopy(segment, 0, coords, coordCount, count);
+            coordCount += count;
+        }
+
+        int computeHash() {
+            int h = windingRule;
+            for (int i = 0; i < typeCount; i++) {
+                h = h * 31 + types[i];
+            }
+            for (int i = 0; i < coordCount; i++) {
+                h = h * 31 + Float.floatToIntBits(coords[i]);
+            }
+            return h;
+        }
+
+        PathKey copy() {
+            PathKey key = new PathKey();
+            key.windingRule = windingRule;
+            key.types = Arrays.copyOf(types, typeCount);
+            key.typeCount = typeCount;
+            key.coords = Arrays.copyOf(coords, coordCount);
+            key.coordCount = coordCount;
+            key.hash = hash;
+            return key;
+        }
+
+        Path2D toPath() {
+            Path2D.Float path = new Path2D.Float(windingRule, typeCount);
+            int c = 0;
+            for (int i = 0; i < typeCount; i++) {
+                switch (types[i]) {
+                    case PathIterator.SEG_MOVETO:
+                        path.moveTo(coords[c], coords[c + 1]);
+                        c += 2;
+                        break;
+                    case PathIterator.SEG_LINETO:
+                        path.lineTo(coords[c], coords[c + 1]);
+                        c += 2;
+                        break;
+                    case PathIterator.SEG_QUADTO:
+                        path.quadTo(coords[c], coords[c + 1], coords[c + 2], coords[c + 3]);
+                        c += 4;
+                        break;
+                    case PathIterator.SEG_CUBICTO:
+                        path.curveTo(coords[c], coords[c + 1], coords[c + 2], coords[c + 3],
+                                coords[c + 4], coords[c + 5]);
+                        c += 6;
+                        break;
+                    case PathIterator.SEG_CLOSE:
+                        path.closePath();
+                        break;
+                }
+            }
+            return path;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof PathKey)) return false;
+            PathKey other = (PathKey) o;
+            return hash == other.hash && windingRule == other.windingRule
+                    && Arrays.equals(types, 0, typeCount, other.types, 0, other.typeCount)
+                    && Arrays.equals(coords, 0, coordCount, other.coords, 0, other.coordCount);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package spite2d;
+
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Tessellator check: compares the filled width of the trapezoids on sample scanlines with the
+ * width found by intersecting the outline directly, for a known self-intersecting polygon and
+ * for random polygons under both winding rules. Needs no display or GL. Pass a polygon count as
+ * the first argument; exits with status 1 on any mismatch.
+ */
+public class TessellatorTest {
+    private static final double TOLERANCE = 1e-3;
+
+    public static void main(String[] args) {
+        int polygons = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int failures = 0;
+
+        // Crossings between edges that are not neighbours at the top of their slab
+        int[] xs = {46, 9, 99, 38, 23, 40, 30};
+        int[] ys = {24, 80, 47, 50, 73, 76, 94};
+        failures += checkPolygon("regression", xs, ys, new double[]{74.5}) ? 0 : 1;
+
+        Random random = new Random(1);
+        for (int p = 0; p < polygons; p++) {
+            int n = 3 + random.nextInt(10);
+            xs = new int[n];
+            ys = new int[n];
+            for (int i = 0; i < n; i++) {
+                xs[i] = random.nextInt(100);
+                ys[i] = random.nextInt(100);
+            }
+            double[] scanlines = new double[20];
+            for (int i = 0; i < scanlines.length; i++) {
+                // Integer vertices never sit on a scanline ending in .37
+                scanlines[i] = random.nextInt(100) + 0.37;
+            }
+            if (!checkPolygon("polygon " + p, xs, ys, scanlines)) failures++;
+            if (!checkNonZero("non-zero " + p, xs, ys, scanlines)) failures++;
+        }
+
+        System.out.printf("%d polygons checked, %d failures%n", polygons, failures);
+        if (failures > 0) {
+            System.exit(1);
+        }
+    }
+
+    private static boolean checkPolygon(String name, int[] xs, int[] ys, double[] scanlines) {
+        int[] data = new int[xs.length * 2];
+        System.arraycopy(xs, 0, data, 0, xs.length);
+        System.arraycopy(ys, 0, data, xs.length, ys.length);
+        Tessellator.Mesh mesh = new Tessellator().fillPolygon(data, 0, xs.length);
+        return compare(name, mesh, xs, ys, false, scanlines);
+    }
+
+    private static boolean checkNonZero(String name, int[] xs, int[] ys, double[] scanlines) {
+        Path2D.Double path = new Path2D.Double(PathIterator.WIND_NON_ZERO);
+        path.moveTo(xs[0], ys[0]);
+        for (int i = 1; i < xs.length; i++) {
+            path.lineTo(xs[i], ys[i]);
+        }
+        path.closePath();
+        return compare(name, new Tessellator().fill(path), xs, ys, true, scanlines);
+    }
+
+    private static boolean compare(String name, Tessellator.Mesh mesh, int[] xs, int[] ys, boolean nonZero,
+                                   double[] scanlines) {
+        for (double y : scanlines) {
+            double expected = outlineWidth(xs, ys, nonZero, y), actual = meshWidth(mesh, y);
+            if (Math.abs(expected - actual) > TOLERANCE) {
+                System.out.printf("%s: filled width %.3f at y=%.2f, expected %.3f%n", name, actual, y, expected);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Sum of the trapezoids' widths where they cross y
+    private static double meshWidth(Tessellator.Mesh mesh, double y) {
+        double width = 0;
+        for (int q = 0; q < mesh.quadCount; q++) {
+            int o = q * 8;
+            float top = mesh.quads[o + 1], bottom = mesh.quads[o + 5];
+            if (y < top || y >= bottom) continue;
+
+            double t = (y - top) / (bottom - top);
+            double left = mesh.quads[o] + (mesh.quads[o + 6] - mesh.quads[o]) * t;
+            double right = mesh.quads[o + 2] + (mesh.quads[o + 4] - mesh.quads[o + 2]) * t;
+            width += right - left;
+        }
+        return width;
+    }
+
+    // Filled width on y straight from the outline: edge crossings sorted by x, winding counted between them
+    private static double outlineWidth(int[] xs, int[] ys, boolean nonZero, double y) {
+        int n = xs.length;
+        double[][] crossings = new double[n][];
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            int j = (i + 1) % n;
+            if ((ys[i] < y) != (ys[j] < y)) {
+                double x = xs[i] + (y - ys[i]) * (xs[j] - xs[i]) / (double) (ys[j] - ys[i]);
+                crossings[count++] = new double[]{x, ys[j] > ys[i] ? 1 : -1};
+            }
+        }
+        Arrays.sort(crossings, 0, count, (a, b) -> Double.compare(a[0], b[0]));
+
+        double width = 0;
+        int winding = 0;
+        for (int i = 0; i < count; i++) {
+            boolean inside = nonZero ? winding != 0 : (winding & 1) != 0;
+            if (inside) {
+                width += crossings[i][0] - crossings[i - 1][0];
+            }
+            winding += (int) crossings[i][1];
+        }
+        return width;
+    }
+}
@@ -0,0 +1,433 @@
+package spite2d;
+
+import com.jogamp.common.nio.Buffers;
+import com.jogamp.opengl.GL2GL3;
+
+import java.awt.image.BufferedImage;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+// Packs small images into shared atlas pages so sprites from different images can be drawn
+// in one batch. Pages start small, grow up to the maximum page size, then new pages are added.
+// Space freed by released regions is recovered by compacting a page when packing runs out of room.
+class TextureAtlas {
+    private static final int INITIAL_PAGE_SIZE = 512;
+    private static final int MAX_PAGE_SIZE = 2048;
+    private static final int PADDING = 1;
+    private static final int WHITE_SIZE = 4;
+    static final int DEFAULT_MAX_IMAGE_SIZE = 256;
+
+    private final SpriteBatch batch;
+    private final TextureUploader uploader;
+    private final GLStateCache state;
+    private final List<Page> pages = new ArrayList<>();
+    private int maxPageSize = MAX_PAGE_SIZE;
+    private int maxImageSize = DEFAULT_MAX_IMAGE_SIZE;
+    private Region white;
+    // Bumped whenever regions move or lose their texture, so cached geometry can tell it is stale
+    private int version;
+
+    TextureAtlas(SpriteBatch batch, TextureUploader uploader, GLStateCache state) {
+        this.batch = batch;
+        this.uploader = uploader;
+        this.state = state;
+    }
+
+    // A sub-rectangle of an atlas page, or a whole standalone texture when page is null.
+    // The white fill block is the only region without a source image.
+    static final class Region {
+        final Page page;
+        final WeakReference<BufferedImage> source;
+        final int width, height;
+        int x, y;
+        int texture;
+        float u0, v0, u1, v1;
+        // Cleared when the region is released or its page is evicted
+        boolean resident = true;
+
+        Region(Page page, BufferedImage source, int x, int y, int width, int height) {
+            this.page = page;
+            this.source = source != null ? new WeakReference<>(source) : null;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.u1 = 1;
+            this.v1 = 1;
+        }
+
+        private void updateUVs(int texture, int pageWidth, int pageHeight) {
+            this.texture = texture;
+            u0 = x / (float) pageWidth;
+            v0 = y / (float) pageHeight;
+            u1 = (x + width) / (float) pageWidth;
+            v1 = (y + height) / (float) pageHeight;
+        }
+    }
+
+    // ===== Configuration =====
+
+    /**
+     * Images larger than this in either dimension get their own texture instead of an atlas slot
+     */
+    void setMaxImageSize(int maxImageSize) {
+        this.maxImageSize = Math.max(0, maxImageSize);
+    }
+
+    boolean accepts(BufferedImage img) {
+        return img.getWidth() <= maxImageSize && img.getHeight() <= maxImageSize
+                && img.getWidth() + 2 * PADDING <= maxPageSize && img.getHeight() + 2 * PADDING <= maxPageSize;
+    }
+
+    // ===== Packing =====
+
+    /**
+     * Region of opaque white texels used for untextured fills, so they share a page with sprites
+     */
+    Region white(GL2GL3 gl) {
+        if (white == null) {
+            int[] maxSize = new int[1];
+            gl.glGetIntegerv(GL2GL3.GL_MAX_TEXTURE_SIZE, maxSize, 0);
+            if (maxSize[0] > 0) {
+                maxPageSize = Math.min(MAX_PAGE_SIZE, maxSize[0]);
+            }
+
+            Page page = addPage(gl);
+            white = new Region(page, null, 0, 0, WHITE_SIZE, WHITE_SIZE);
+            placeWhite(page);
+            upload(gl, page, white);
+        }
+        return white;
+    }
+
+    private void placeWhite(Page page) {
+        int[] slot = page.pack(WHITE_SIZE, WHITE_SIZE);
+        white.x = slot[0];
+        white.y = slot[1];
+        page.regions.add(white);
+        updateWhiteUVs(page);
+    }
+
+    // Sample the middle of the white block so filtering never reaches its neighbours
+    private void updateWhiteUVs(Page page) {
+        white.texture = page.texture;
+        white.u0 = white.u1 = (white.x + WHITE_SIZE / 2.0f) / page.width;
+        white.v0 = white.v1 = (white.y + WHITE_SIZE / 2.0f) / page.height;
+    }
+
+    /**
+     * Pack an image into the first page with room, growing, compacting or adding pages as needed
+     */
+    Region add(GL2GL3 gl, BufferedImage img) {
+        white(gl);
+        int width = img.getWidth() + 2 * PADDING;
+        int height = img.getHeight() + 2 * PADDING;
+
+        for (Page page : pages) {
+            int[] slot = packGrowing(gl, page, width, height);
+            if (slot != null) {
+                return place(gl, page, img, slot);
+            }
+        }
+
+        // Reclaim released space before spending VRAM on another page
+        for (Page page : pages) {
+            if (page.freeArea * 2 >= page.width * page.height && compact(gl, page)) {
+                int[] slot = page.pack(width, height);
+                if (slot != null) {
+                    return place(gl, page, img, slot);
+                }
+            }
+        }
+
+        Page page = addPage(gl);
+        int[] slot = packGrowing(gl, page, width, height);
+        return slot != null ? place(gl, page, img, slot) : null;
+    }
+
+    /**
+     * Give a collected image's space back to its page; the space is reused once the page is
+     * compacted. Nothing else moves and no geometry can still use the region, so the version stays.
+     */
+    void release(Region region) {
+        region.resident = false;
+        Page page = region.page;
+        if (page != null && page.regions.remove(region)) {
+            page.freeArea += (region.width + 2 * PADDING) * (region.height + 2 * PADDING);
+            // An empty page can start over right away; the white page waits for compaction
+            if (page.regions.isEmpty()) {
+                page.reset();
+            }
+        }
+    }
+
+    /**
+     * Delete a page's texture; its regions become non-resident and are re-uploaded elsewhere on demand
+     */
+    void evict(GL2GL3 gl, Page page) {
+        if (white != null && white.page == page) return;
+
+        for (Region region : page.regions) {
+            region.resident = false;
+        }
+        page.regions.clear();
+        pages.remove(page);
+        state.deleteTexture(gl, page.texture);
+        version++;
+    }
+
+    boolean isEvictable(Page page) {
+        return white == null || white.page != page;
+    }
+
+    int getVersion() {
+        return version;
+    }
+
+    List<Page> getPages() {
+        return pages;
+    }
+
+    long getResidentBytes() {
+        long bytes = 0;
+        for (Page page : pages) {
+            bytes += page.bytes();
+        }
+        return bytes;
+    }
+
+    int getPageCount() {
+        return pages.size();
+    }
+
+    void dispose(GL2GL3 gl) {
+        for (Page page : pages) {
+            for (Region region : page.regions) {
+                region.resident = false;
+            }
+            state.deleteTexture(gl, page.texture);
+        }
+        pages.clear();
+        white = null;
+        version++;
+    }
+
+    private int[] packGrowing(GL2GL3 gl, Page page, int width, int height) {
+        int[] slot = page.pack(width, height);
+        while (slot == null && page.width < maxPageSize) {
+            grow(gl, page);
+            slot = page.pack(width, height);
+        }
+        return slot;
+    }
+
+    private Region place(GL2GL3 gl, Page page, BufferedImage img, int[] slot) {
+        Region region = new Region(page, img, slot[0] + PADDING, slot[1] + PADDING, img.getWidth(), img.getHeight());
+        page.regions.add(region);
+        upload(gl, page, region);
+        region.updateUVs(page.texture, page.width, page.height);
+        return region;
+    }
+
+    private Page addPage(GL2GL3 gl) {
+        int[] ids = new int[1];
+        gl.glGenTextures(1, ids, 0);
+        Page page = new Page(ids[0], Math.min(INITIAL_PAGE_SIZE, maxPageSize));
+        page.allocate(gl, state);
+        pages.add(page);
+        return page;
+    }
+
+    private void grow(GL2GL3 gl, Page page) {
+        // Vertices already batched against this page use the old UVs
+        batch.flush();
+
+        page.skyline.add(new int[]{page.width, 0, page.width});
+        page.width *= 2;
+        page.height *= 2;
+        page.allocate(gl, state);
+
+        reuploadAll(gl, page);
+        version++;
+    }
+
+    // Re-pack the live regions tallest first into an empty skyline. That order is not guaranteed
+    // to fit what the original order did; if it doesn't, the page is left as it was.
+    private boolean compact(GL2GL3 gl, Page page) {
+        List<Region> live = new ArrayList<>(page.regions);
+        live.removeIf(region -> region != white && region.source.get() == null);
+        live.sort(Comparator.comparingInt((Region region) -> region.height).reversed());
+
+        List<int[]> skyline = new ArrayList<>();
+        for (int[] segment : page.skyline) {
+            skyline.add(segment.clone());
+        }
+        List<Region> regions = new ArrayList<>(page.regions);
+        int freeArea = page.freeArea;
+
+        page.reset();
+        int[] slots = new int[live.size() * 2];
+        for (int i = 0; i < live.size(); i++) {
+            Region region = live.get(i);
+            int[] slot = page.pack(region.width + 2 * PADDING, region.height + 2 * PADDING);
+            if (slot == null) {
+                page.skyline.clear();
+                page.skyline.addAll(skyline);
+                page.regions.addAll(regions);
+                page.freeArea = freeArea;
+                return false;
+            }
+            slots[i * 2] = slot[0];
+            slots[i * 2 + 1] = slot[1];
+        }
+
+        // Vertices already batched against this page use the old positions
+        batch.flush();
+        for (int i = 0; i < live.size(); i++) {
+            Region region = live.get(i);
+            region.x = slots[i * 2] + PADDING;
+            region.y = slots[i * 2 + 1] + PADDING;
+            page.regions.add(region);
+        }
+
+        page.allocate(gl, state);
+        reuploadAll(gl, page);
+        version++;
+        return true;
+    }
+
+    // Re-upload every region whose image is still alive and rescale its UVs
+    private void reuploadAll(GL2GL3 gl, Page page) {
+        for (Region region : page.regions) {
+            upload(gl, page, region);
+            region.updateUVs(page.texture, page.width, page.height);
+        }
+        if (white != null && white.page == page) {
+            updateWhiteUVs(page);
+        }
+    }
+
+    private void upload(GL2GL3 gl, Page page, Region region) {
+        if (region.source == null) {
+            uploader.fill(gl, page.texture, region.x, region.y, region.width, region.height, 0xFFFFFFFF);
+            return;
+        }
+        BufferedImage img = region.source.get();
+        if (img != null) {
+            uploader.upload(gl, page.texture, region.x, region.y, img);
+        }
+    }
+
+    // One atlas texture plus a skyline packer over its area
+    static final class Page {
+        final int texture;
+        final List<Region> regions = new ArrayList<>();
+        // Skyline segments as {x, y, width}, left to right
+        final List<int[]> skyline = new ArrayList<>();
+        int width, height;
+        // Packed area whose regions have since been released
+        int freeArea;
+        int lastUsedFrame;
+
+        Page(int texture, int size) {
+            this.texture = texture;
+            this.width = size;
+            this.height = size;
+            reset();
+        }
+
+        long bytes() {
+            return (long) width * height * 4;
+        }
+
+        private void reset() {
+            regions.clear();
+            skyline.clear();
+            skyline.add(new int[]{0, 0, width});
+            freeArea = 0;
+        }
+
+        private void allocate(GL2GL3 gl, GLStateCache state) {
+            state.bindTexture(gl, texture);
+            gl.glTexParameteri(GL2GL3.GL_TEXTURE_2D, GL2GL3.GL_TEXTURE_MIN_FILTER, GL2GL3.GL_LINEAR);
+            gl.glTexParameteri(GL2GL3.GL_TEXTURE_2D, GL2GL3.GL_TEXTURE_MAG_FILTER, GL2GL3.GL_LINEAR);
+            gl.glTexParameteri(GL2GL3.GL_TEXTURE_2D, GL2GL3.GL_TEXTURE_WRAP_S, GL2GL3.GL_CLAMP_TO_EDGE);
+            gl.glTexParameteri(GL2GL3.GL_TEXTURE_2D, GL2GL3.GL_TEXTURE_WRAP_T, GL2GL3.GL_CLAMP_TO_EDGE);
+            // Start fully transparent so padding between regions never bleeds garbage
+            gl.glTexImage2D(GL2GL3.GL_TEXTURE_2D, 0, GL2GL3.GL_RGBA, width, height, 0, GL2GL3.GL_RGBA,
+                    GL2GL3.GL_UNSIGNED_BYTE, Buffers.newDirectByteBuffer(width * height * 4));
+        }
+
+        /**
+         * Skyline bottom-left placement: returns {x, y} of the lowest fit, or null if the page is full
+         */
+        int[] pack(int w, int h) {
+            int bestIndex = -1, bestX = 0, bestY = 0;
+            int bestTop = Integer.MAX_VALUE, bestWidth = Integer.MAX_VALUE;
+
+            for (int i = 0; i < skyline.size(); i++) {
+                int y = fit(i, w, h);
+                if (y < 0) continue;
+
+                int[] segment = skyline.get(i);
+                if (y + h < bestTop || (y + h == bestTop && segment[2] < bestWidth)) {
+                    bestIndex = i;
+                    bestX = segment[0];
+                    bestY = y;
+                    bestTop = y + h;
+                    bestWidth = segment[2];
+                }
+            }
+
+            if (bestIndex < 0) return null;
+            insert(bestIndex, bestX, bestY, w, h);
+            return new int[]{bestX, bestY};
+        }
+
+        // Lowest y at which a w x h rectangle fits starting at segment index, or -1
+        private int fit(int index, int w, int h) {
+            int x = skyline.get(index)[0];
+            if (x + w > width) return -1;
+
+            int remaining = w;
+            int y = 0;
+            for (int i = index; remaining > 0; i++) {
+                int[] segment = skyline.get(i);
+                y = Math.max(y, segment[1]);
+                if (y + h > height) return -1;
+                remaining -= segment[2];
+            }
+            return y;
+        }
+
+        private void insert(int index, int x, int y, int w, int h) {
+            skyline.add(index, new int[]{x, y + h, w});
+
+            // Trim or remove the segments now covered by the new one
+            for (int i = index + 1; i < skyline.size(); i++) {
+                int[] previous = skyline.get(i - 1);
+                int[] segment = skyline.get(i);
+                int previousEnd = previous[0] + previous[2];
+                if (segment[0] >= previousEnd) break;
+
+                int shrink = previousEnd - segment[0];
+                segment[0] += shrink;
+                segment[2] -= shrink;
+                if (segment[2] > 0) break;
+                skyline.remove(i--);
+            }
+
+            // Merge neighbours at the same height
+            for (int i = 0; i < skyline.size() - 1; i++) {
+                int[] segment = skyline.get(i);
+                int[] next = skyline.get(i + 1);
+                if (segment[1] == next[1]) {
+                    segment[2] += next[2];
+                    skyline.remove(i-- + 1);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,340 @@
+package spite2d;
+
+import com.jogamp.opengl.GL2GL3;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+// Owns every GL texture created for a BufferedImage. Textures of collected images are deleted
+// on the GL thread via a ReferenceQueue, and a VRAM budget is enforced at frame end by evicting
+// the least recently used standalone textures and atlas pages. Evicted images re-upload on demand.
+class TextureManager implements TextureSource {
+    private final TextureAtlas atlas;
+    private final TextureUploader uploader;
+    private final GLStateCache state;
+    private final WeakHashMap<BufferedImage, Entry> entries = new WeakHashMap<>();
+    private final ReferenceQueue<BufferedImage> collected = new ReferenceQueue<>();
+    private final List<Entry> standalone = new ArrayList<>();
+    private final Set<BufferedImage> excluded = Collections.synchronizedSet(
+            Collections.newSetFromMap(new WeakHashMap<>()));
+    // Changed areas of resident images, merged per image until the next frame; guarded by itself
+    private final WeakHashMap<BufferedImage, Rectangle> dirty = new WeakHashMap<>();
+
+    private volatile long budget = Long.MAX_VALUE;
+    // Handed to the atlas at the start of each frame, so it never depends on which frames are drawn
+    private volatile int atlasMaxImageSize = TextureAtlas.DEFAULT_MAX_IMAGE_SIZE;
+    private int frame;
+    private long standaloneBytes;
+    private int version;
+
+    // Counters, written on the GL thread and read from anywhere
+    private volatile long residentBytes;
+    private volatile long uploads;
+    private volatile long updatedBytes;
+    private volatile long evictions;
+    private volatile long reclaimed;
+
+    TextureManager(TextureAtlas atlas, TextureUploader uploader, GLStateCache state) {
+        this.atlas = atlas;
+        this.uploader = uploader;
+        this.state = state;
+    }
+
+    // Tracks one image; enqueued on the ReferenceQueue once the image is collected
+    private static final class Entry extends WeakReference<BufferedImage> {
+        TextureAtlas.Region region;
+        long bytes;
+        int lastUsedFrame;
+
+        Entry(BufferedImage img, ReferenceQueue<BufferedImage> queue) {
+            super(img, queue);
+        }
+
+        boolean isResident() {
+            return region != null && region.resident;
+        }
+    }
+
+    // ===== Configuration =====
+
+    void setBudget(long bytes) {
+        this.budget = bytes > 0 ? bytes : Long.MAX_VALUE;
+    }
+
+    void setAtlasMaxImageSize(int maxImageSize) {
+        this.atlasMaxImageSize = maxImageSize;
+    }
+
+    void exclude(BufferedImage img) {
+        excluded.add(img);
+    }
+
+    /**
+     * Convert the image off the GL thread and upload it over the next frames, within the upload budget
+     */
+    void preload(BufferedImage img) {
+        uploader.preload(img);
+    }
+
+    void setUploadBudget(long bytesPerFrame) {
+        uploader.setBudget(bytesPerFrame);
+    }
+
+    /**
+     * Re-upload this part of the image at the start of the next frame
+     */
+    void markDirty(BufferedImage img, int x, int y, int width, int height) {
+        Rectangle area = new Rectangle(x, y, width, height)
+                .intersection(new Rectangle(img.getWidth(), img.getHeight()));
+        if (area.isEmpty()) return;
+
+        synchronized (dirty) {
+            Rectangle existing = dirty.get(img);
+            dirty.put(img, existing != null ? existing.union(area) : area);
+        }
+    }
+
+    // ===== Frame lifecycle (GL thread) =====
+
+    /**
+     * Delete the textures of images that were garbage collected since the last frame, refresh
+     * dirty areas, then upload preloaded images that are ready until the upload budget is spent
+     */
+    void beginFrame(GL2GL3 gl) {
+        frame++;
+        atlas.setMaxImageSize(atlasMaxImageSize);
+
+        Entry entry;
+        while ((entry = (Entry) collected.poll()) != null) {
+            if (entry.isResident()) {
+                release(gl, entry);
+                reclaimed++;
+            }
+            if (entry.region != null && entry.region.page == null) {
+                standalone.remove(entry);
+            }
+        }
+
+        updateDirty(gl);
+
+        long spent = 0;
+        long budget = uploader.getBudget();
+        BufferedImage img;
+        while (spent < budget && (img = uploader.pollReady()) != null) {
+            Entry existing = entries.get(img);
+            if (existing != null && existing.isResident()) {
+                uploader.discard(img);
+            } else {
+                getRegion(gl, img);
+                spent += (long) img.getWidth() * img.getHeight() * 4;
+            }
+        }
+        updateResidentBytes();
+    }
+
+    /**
+     * Evict least recently used textures until the budget is met. Only textures not used this
+     * frame are candidates, so the batch never references a deleted texture.
+     */
+    void endFrame(GL2GL3 gl) {
+        updateResidentBytes();
+        if (residentBytes <= budget) return;
+
+        List<Object> candidates = new ArrayList<>();
+        for (Entry entry : standalone) {
+            if (entry.isResident() && entry.lastUsedFrame < frame) {
+                candidates.add(entry);
+            }
+        }
+        for (TextureAtlas.Page page : atlas.getPages()) {
+            if (atlas.isEvictable(page) && page.lastUsedFrame < frame) {
+                candidates.add(page);
+            }
+        }
+        candidates.sort((a, b) -> Integer.compare(lastUsed(a), lastUsed(b)));
+
+        for (Object candidate : candidates) {
+            if (residentBytes <= budget) break;
+
+            if (candidate instanceof Entry) {
+                release(gl, (Entry) candidate);
+            } else {
+                atlas.evict(gl, (TextureAtlas.Page) candidate);
+            }
+            evictions++;
+            updateResidentBytes();
+        }
+    }
+
+    // ===== Lookup =====
+
+    /**
+     * Region holding the image's pixels, uploading (or re-uploading after eviction) as needed
+     */
+    @Override
+    public TextureAtlas.Region getRegion(GL2GL3 gl, BufferedImage img) {
+        Entry entry = entries.get(img);
+        if (entry == null) {
+            entry = new Entry(img, collected);
+            entries.put(img, entry);
+        }
+
+        if (!entry.isResident()) {
+            upload(gl, img, entry);
+        }
+
+        entry.lastUsedFrame = frame;
+        if (entry.region.page != null) {
+            entry.region.page.lastUsedFrame = frame;
+        }
+        return entry.region;
+    }
+
+    @Override
+    public TextureAtlas.Region white(GL2GL3 gl) {
+        return atlas.white(gl);
+    }
+
+    void dispose(GL2GL3 gl) {
+        for (Entry entry : standalone) {
+            if (entry.isResident()) {
+                state.deleteTexture(gl, entry.region.texture);
+                entry.region.resident = false;
+            }
+        }
+        standalone.clear();
+        entries.clear();
+        standaloneBytes = 0;
+        version++;
+        atlas.dispose(gl);
+        uploader.release(gl);
+        updateResidentBytes();
+    }
+
+    /**
+     * Changes whenever a texture is deleted or an atlas region moves; geometry captured with
+     * the old texture coordinates must be rebuilt
+     */
+    @Override
+    public int getLayoutVersion() {
+        return version + atlas.getVersion();
+    }
+
+    long getResidentBytes() {
+        return residentBytes;
+    }
+
+    long getUploads() {
+        return uploads;
+    }
+
+    long getUpdatedBytes() {
+        return updatedBytes;
+    }
+
+    long getEvictions() {
+        return evictions;
+    }
+
+    long getReclaimed() {
+        return reclaimed;
+    }
+
+    // ===== Internals =====
+
+    private void upload(GL2GL3 gl, BufferedImage img, Entry entry) {
+        boolean wasStandalone = entry.region != null && entry.region.page == null;
+        entry.region = null;
+
+        // Small images share atlas pages; large or excluded ones get their own texture
+        if (atlas.accepts(img) && !excluded.contains(img)) {
+            entry.region = atlas.add(gl, img);
+        }
+        if (entry.region == null) {
+            entry.region = createStandaloneTexture(gl, img);
+            entry.bytes = (long) img.getWidth() * img.getHeight() * 4;
+            standaloneBytes += entry.bytes;
+            if (!wasStandalone) {
+                standalone.add(entry);
+            }
+        } else if (wasStandalone) {
+            standalone.remove(entry);
+        }
+        uploads++;
+    }
+
+    // Only images with a texture need updating; the rest pick up their pixels when next uploaded
+    private void updateDirty(GL2GL3 gl) {
+        List<BufferedImage> images;
+        List<Rectangle> areas;
+        synchronized (dirty) {
+            if (dirty.isEmpty()) return;
+            images = new ArrayList<>(dirty.keySet());
+            areas = new ArrayList<>(dirty.values());
+            dirty.clear();
+        }
+
+        for (int i = 0; i < images.size(); i++) {
+            BufferedImage img = images.get(i);
+            if (img == null) continue;
+
+            // A preload converted before the change would upload stale pixels
+            uploader.discard(img);
+            Entry entry = entries.get(img);
+            if (entry == null || !entry.isResident()) continue;
+
+            Rectangle area = areas.get(i);
+            TextureAtlas.Region region = entry.region;
+            uploader.upload(gl, region.texture, region.x + area.x, region.y + area.y,
+                    img, area.x, area.y, area.width, area.height);
+            updatedBytes += (long) area.width * area.height * 4;
+        }
+    }
+
+    private void release(GL2GL3 gl, Entry entry) {
+        TextureAtlas.Region region = entry.region;
+        if (region.page == null) {
+            state.deleteTexture(gl, region.texture);
+            region.resident = false;
+            standaloneBytes -= entry.bytes;
+            version++;
+        } else {
+            atlas.release(region);
+        }
+    }
+
+    private static int lastUsed(Object candidate) {
+        return candidate instanceof Entry
+                ? ((Entry) candidate).lastUsedFrame
+                : ((TextureAtlas.Page) candidate).lastUsedFrame;
+    }
+
+    private void updateResidentBytes() {
+        residentBytes = standaloneBytes + atlas.getResidentBytes();
+    }
+
+    private TextureAtlas.Region createStandaloneTexture(GL2GL3 gl, BufferedImage img) {
+        // Generate texture
+        int[] textureIds = new int[1];
+        gl.glGenTextures(1, textureIds, 0);
+        int textureId = textureIds[0];
+
+        state.bindTexture(gl, textureId);
+        gl.glTexParameteri(GL2GL3.GL_TEXTURE_2D, GL2GL3.GL_TEXTURE_MIN_FILTER, GL2GL3.GL_LINEAR);
+        gl.glTexParameteri(GL2GL3.GL_TEXTURE_2D, GL2GL3.GL_TEXTURE_MAG_FILTER, GL2GL3.GL_LINEAR);
+        gl.glTexImage2D(GL2GL3.GL_TEXTURE_2D, 0, GL2GL3.GL_RGBA8, img.getWidth(), img.getHeight(), 0,
+                GL2GL3.GL_BGRA, GL2GL3.GL_UNSIGNED_INT_8_8_8_8_REV, null);
+        uploader.upload(gl, textureId, 0, 0, img);
+
+        TextureAtlas.Region region = new TextureAtlas.Region(null, img, 0, 0, img.getWidth(), img.getHeight());
+        region.texture = textureId;
+        return region;
+    }
+}
@@ -0,0 +1,24 @@
+package spite2d;
+
+import com.jogamp.opengl.GL2GL3;
+
+import java.awt.image.BufferedImage;
+
+// Where draws find the texture region of an image: GL textures and atlas pages (TextureManager),
+// or the image pixels themselves on the software backend (SoftwareTextures)
+interface TextureSource {
+    /**
+     * Region holding the image's pixels, making it available first if needed
+     */
+    TextureAtlas.Region getRegion(GL2GL3 gl, BufferedImage img);
+
+    /**
+     * Region of opaque white for untextured fills
+     */
+    TextureAtlas.Region white(GL2GL3 gl);
+
+    /**
+     * Changes whenever regions move; geometry captured with old texture coordinates must be rebuilt
+     */
+    int getLayoutVersion();
+}
@@ -0,0 +1,308 @@
+package spite2d;
+
+import com.jogamp.common.nio.Buffers;
+import com.jogamp.opengl.GL2GL3;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+// Moves image pixels into textures. TYPE_INT_ARGB images are read straight from their DataBufferInt
+// and uploaded as BGRA / UNSIGNED_INT_8_8_8_8_REV, which is the ARGB int layout on every platform,
+// so they need no per-pixel work at all. Other types are converted to ARGB ints, on worker threads
+// for preloaded images, into pooled direct buffers. Every transfer goes through a pixel unpack
+// buffer so the driver copies to VRAM asynchronously instead of inside glTexSubImage2D.
+final class TextureUploader {
+    private static final int POOL_SIZE = 8;
+    // Larger conversion buffers are not kept around after use
+    private static final int MAX_POOLED_PIXELS = 1 << 22;
+    private static final long DEFAULT_BUDGET = 8L << 20;
+
+    // Preloaded images by identity; removed when the GL thread claims the result
+    private final Map<BufferedImage, Conversion> conversions = new HashMap<>();
+    private final ConcurrentLinkedQueue<Conversion> ready = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<IntBuffer> pool = new ConcurrentLinkedQueue<>();
+    private final GLStateCache state;
+    private ThreadPoolExecutor workers;
+    private volatile long budget = DEFAULT_BUDGET;
+
+    // GL thread
+    private int unpackBuffer;
+
+    // ARGB pixels of one image: either the image's own int[] or a converted direct buffer
+    static final class Pixels {
+        final IntBuffer data;
+        final int offset, stride;
+        final int width, height;
+        final boolean pooled;
+
+        Pixels(IntBuffer data, int offset, int stride, int width, int height, boolean pooled) {
+            this.data = data;
+            this.offset = offset;
+            this.stride = stride;
+            this.width = width;
+            this.height = height;
+            this.pooled = pooled;
+        }
+    }
+
+    private static final class Conversion {
+        final BufferedImage image;
+        final CompletableFuture<Pixels> pixels;
+
+        Conversion(BufferedImage image, CompletableFuture<Pixels> pixels) {
+            this.image = image;
+            this.pixels = pixels;
+        }
+    }
+
+    TextureUploader(GLStateCache state) {
+        this.state = state;
+    }
+
+    // ===== Any thread =====
+
+    /**
+     * Bytes of preloaded images streamed into textures per frame
+     */
+    void setBudget(long bytesPerFrame) {
+        this.budget = bytesPerFrame > 0 ? bytesPerFrame : Long.MAX_VALUE;
+    }
+
+    long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Start converting an image on a worker thread; the GL thread uploads it once it is ready
+     */
+    void preload(BufferedImage img) {
+        synchronized (conversions) {
+            if (conversions.containsKey(img)) return;
+
+            CompletableFuture<Pixels> pixels = CompletableFuture.supplyAsync(
+                    () -> prepare(img, 0, 0, img.getWidth(), img.getHeight()), workers());
+            Conversion conversion = new Conversion(img, pixels);
+            conversions.put(img, conversion);
+            pixels.whenComplete((result, error) -> ready.add(conversion));
+        }
+    }
+
+    private ThreadPoolExecutor workers() {
+        if (workers == null) {
+            int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+            workers = new ThreadPoolExecutor(threads, threads, 5, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), task -> {
+                Thread thread = new Thread(task, "Spite2D-Upload");
+                thread.setDaemon(true);
+                return thread;
+            });
+            workers.allowCoreThreadTimeOut(true);
+        }
+        return workers;
+    }
+
+    // ===== GL thread =====
+
+    /**
+     * Next preloaded image whose conversion has finished, or null
+     */
+    BufferedImage pollReady() {
+        Conversion conversion;
+        while ((conversion = ready.poll()) != null) {
+            synchronized (conversions) {
+                // Already claimed by a draw that needed the image sooner
+                if (conversions.get(conversion.image) == conversion) {
+                    return conversion.image;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Forget a preloaded image that no longer needs uploading
+     */
+    void discard(BufferedImage img) {
+        Pixels pixels = claim(img);
+        if (pixels != null) {
+            recycle(pixels);
+        }
+    }
+
+    /**
+     * Copy an image into the texture at (x, y), using its preloaded pixels if there are any
+     */
+    void upload(GL2GL3 gl, int texture, int x, int y, BufferedImage img) {
+        Pixels pixels = claim(img);
+        if (pixels == null) {
+            pixels = prepare(img, 0, 0, img.getWidth(), img.getHeight());
+        }
+        transfer(gl, texture, x, y, pixels);
+        recycle(pixels);
+    }
+
+    /**
+     * Copy the w x h block of the image at (srcX, srcY) into the texture at (x, y)
+     */
+    void upload(GL2GL3 gl, int texture, int x, int y, BufferedImage img, int srcX, int srcY, int width, int height) {
+        Pixels pixels = prepare(img, srcX, srcY, width, height);
+        transfer(gl, texture, x, y, pixels);
+        recycle(pixels);
+    }
+
+    /**
+     * Fill a w x h block of the texture with one ARGB color
+     */
+    void fill(GL2GL3 gl, int texture, int x, int y, int width, int height, int argb) {
+        IntBuffer data = obtain(width * height);
+        for (int i = 0; i < width * height; i++) {
+            data.put(i, argb);
+        }
+        Pixels pixels = new Pixels(data, 0, width, width, height, true);
+        transfer(gl, texture, x, y, pixels);
+        recycle(pixels);
+    }
+
+    void release(GL2GL3 gl) {
+        if (unpackBuffer != 0) {
+            state.deleteBuffers(gl, 1, new int[]{unpackBuffer});
+            unpackBuffer = 0;
+        }
+    }
+
+    // Take the preloaded pixels, waiting for the worker if the conversion is still running
+    private Pixels claim(BufferedImage img) {
+        Conversion conversion;
+        synchronized (conversions) {
+            conversion = conversions.remove(img);
+        }
+        if (conversion == null) return null;
+
+        try {
+            return conversion.pixels.join();
+        } catch (CompletionException e) {
+            System.err.println("Error converting image for upload: " + e.getCause());
+            return null;
+        }
+    }
+
+    private void transfer(GL2GL3 gl, int texture, int x, int y, Pixels pixels) {
+        int width = pixels.width, height = pixels.height;
+        if (width == 0 || height == 0) return;
+
+        if (unpackBuffer == 0) {
+            int[] ids = new int[1];
+            gl.glGenBuffers(1, ids, 0);
+            unpackBuffer = ids[0];
+        }
+
+        // Orphan the previous storage so this never waits for the last transfer to finish
+        state.bindBuffer(gl, GL2GL3.GL_PIXEL_UNPACK_BUFFER, unpackBuffer);
+        gl.glBufferData(GL2GL3.GL_PIXEL_UNPACK_BUFFER, (long) width * height * 4, null, GL2GL3.GL_STREAM_DRAW);
+        ByteBuffer mapped = gl.glMapBuffer(GL2GL3.GL_PIXEL_UNPACK_BUFFER, GL2GL3.GL_WRITE_ONLY);
+
+        gl.glPixelStorei(GL2GL3.GL_UNPACK_ALIGNMENT, 4);
+        state.bindTexture(gl, texture);
+        if (mapped != null) {
+            IntBuffer target = mapped.order(ByteOrder.nativeOrder()).asIntBuffer();
+            IntBuffer source = pixels.data.duplicate();
+            for (int row = 0; row < height; row++) {
+                int start = pixels.offset + row * pixels.stride;
+                source.limit(start + width).position(start);
+                target.put(source);
+            }
+            gl.glUnmapBuffer(GL2GL3.GL_PIXEL_UNPACK_BUFFER);
+            gl.glTexSubImage2D(GL2GL3.GL_TEXTURE_2D, 0, x, y, width, height,
+                    GL2GL3.GL_BGRA, GL2GL3.GL_UNSIGNED_INT_8_8_8_8_REV, 0L);
+            // Client-memory uploads elsewhere must not read from the unpack buffer
+            state.bindBuffer(gl, GL2GL3.GL_PIXEL_UNPACK_BUFFER, 0);
+        } else {
+            // Mapping failed: let the driver read the pixels in place
+            state.bindBuffer(gl, GL2GL3.GL_PIXEL_UNPACK_BUFFER, 0);
+            IntBuffer source = pixels.data.duplicate();
+            source.position(pixels.offset);
+            gl.glPixelStorei(GL2GL3.GL_UNPACK_ROW_LENGTH, pixels.stride);
+            gl.glTexSubImage2D(GL2GL3.GL_TEXTURE_2D, 0, x, y, width, height,
+                    GL2GL3.GL_BGRA, GL2GL3.GL_UNSIGNED_INT_8_8_8_8_REV, source);
+            gl.glPixelStorei(GL2GL3.GL_UNPACK_ROW_LENGTH, 0);
+        }
+    }
+
+    // ===== Conversion (any thread) =====
+
+    /**
+     * ARGB pixels of a block of the image. TYPE_INT_ARGB rasters are used as they are; everything
+     * else is converted a row at a time into a pooled direct buffer.
+     */
+    private Pixels prepare(BufferedImage img, int srcX, int srcY, int width, int height) {
+        WritableRaster raster = img.getRaster();
+        int type = img.getType();
+
+        boolean packed = raster.getDataBuffer() instanceof DataBufferInt
+                && raster.getSampleModel() instanceof SinglePixelPackedSampleModel;
+        if (packed && type == BufferedImage.TYPE_INT_ARGB) {
+            return packedPixels(raster, srcX, srcY, width, height);
+        }
+
+        IntBuffer data = obtain(width * height);
+        int[] row = new int[width];
+        if (packed && type == BufferedImage.TYPE_INT_RGB) {
+            // Same layout minus alpha: only the top byte needs setting
+            Pixels source = packedPixels(raster, srcX, srcY, width, height);
+            for (int y = 0; y < height; y++) {
+                source.data.position(source.offset + y * source.stride);
+                source.data.get(row);
+                for (int x = 0; x < width; x++) {
+                    row[x] |= 0xFF000000;
+                }
+                data.put(row);
+            }
+        } else {
+            for (int y = 0; y < height; y++) {
+                img.getRGB(srcX, srcY + y, width, 1, row, 0, width);
+                data.put(row);
+            }
+        }
+        data.clear();
+        return new Pixels(data, 0, width, width, height, true);
+    }
+
+    // Direct view of a block of a packed int raster, which may itself be a sub-image of a larger one
+    private static Pixels packedPixels(WritableRaster raster, int srcX, int srcY, int width, int height) {
+        DataBufferInt buffer = (DataBufferInt) raster.getDataBuffer();
+        SinglePixelPackedSampleModel model = (SinglePixelPackedSampleModel) raster.getSampleModel();
+        int offset = buffer.getOffset() + model.getOffset(srcX - raster.getSampleModelTranslateX(),
+                srcY - raster.getSampleModelTranslateY());
+        return new Pixels(IntBuffer.wrap(buffer.getData()), offset, model.getScanlineStride(), width, height, false);
+    }
+
+    private IntBuffer obtain(int size) {
+        for (Iterator<IntBuffer> it = pool.iterator(); it.hasNext(); ) {
+            IntBuffer buffer = it.next();
+            if (buffer.capacity() >= size && pool.remove(buffer)) {
+                buffer.clear();
+                return buffer;
+            }
+        }
+        return Buffers.newDirectIntBuffer(size);
+    }
+
+    private void recycle(Pixels pixels) {
+        if (pixels.pooled && pixels.data.capacity() <= MAX_POOLED_PIXELS && pool.size() < POOL_SIZE) {
+            pool.add(pixels.data);
+        }
+    }
+}
@@ -0,0 +1,352 @@
+package spite2d;
+
+import com.jogamp.common.nio.Buffers;
+import com.jogamp.opengl.GL2GL3;
+
+import java.awt.image.BufferedImage;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Grid of tiles drawn from one tileset image, for large top-down maps. Tile ids index the tileset
+ * left to right, top to bottom, in tiles of tileWidth x tileHeight; -1 leaves a cell empty.
+ * The map is split into chunks of 32 x 32 tiles, each kept in its own GPU vertex buffer and
+ * rebuilt only when one of its tiles changes, and drawTileMap draws only the chunks on screen,
+ * so a frame costs a few draw calls however large the map is.
+ */
+public class TileMap {
+    static final int CHUNK_SIZE = 32;
+    public static final int EMPTY = -1;
+    // Chunks not drawn for this many draws give their buffers back
+    private static final int IDLE_DRAWS = 600;
+    private static final int CHUNK_TILES = CHUNK_SIZE * CHUNK_SIZE;
+
+    private final BufferedImage tileset;
+    private final int tileWidth, tileHeight;
+    private final int tilesetColumns, tileCount;
+    private final int columns, rows;
+    private final int chunkColumns, chunkRows;
+    private volatile boolean disposed;
+
+    // Tile ids and a change counter per chunk; guarded by this
+    private final int[] tiles;
+    private final int[] chunkVersions;
+
+    // GL thread state
+    private final Chunk[] chunks;
+    private final ArrayList<Chunk> resident = new ArrayList<>();
+    private final int[] chunkTiles = new int[CHUNK_TILES];
+    private final int[] range = {GL2GL3.GL_TRIANGLES, 0, 0, 0};
+    private ByteBuffer vertices;
+    private int indexBuffer;
+    private long draws;
+
+    private static final class Chunk {
+        final int index;
+        int vertexBuffer;
+        int quads;
+        int version = -1;
+        int layoutVersion = -1;
+        long lastDrawn;
+
+        Chunk(int index) {
+            this.index = index;
+        }
+    }
+
+    TileMap(BufferedImage tileset, int tileWidth, int tileHeight, int columns, int rows) {
+        if (tileset == null) {
+            throw new IllegalArgumentException("Tileset must not be null");
+        }
+        if (tileWidth <= 0 || tileHeight <= 0 || tileWidth > tileset.getWidth() || tileHeight > tileset.getHeight()) {
+            throw new IllegalArgumentException("Invalid tile size " + tileWidth + "x" + tileHeight
+                    + " for a " + tileset.getWidth() + "x" + tileset.getHeight() + " tileset");
+        }
+        if (columns <= 0 || rows <= 0) {
+            throw new IllegalArgumentException("Tile map size must be positive: " + columns + "x" + rows);
+        }
+        this.tileset = tileset;
+        this.tileWidth = tileWidth;
+        this.tileHeight = tileHeight;
+        this.tilesetColumns = tileset.getWidth() / tileWidth;
+        this.tileCount = tilesetColumns * (tileset.getHeight() / tileHeight);
+        this.columns = columns;
+        this.rows = rows;
+        this.chunkColumns = (columns + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        this.chunkRows = (rows + CHUNK_SIZE - 1) / CHUNK_SIZE;
+
+        this.tiles = new int[columns * rows];
+        Arrays.fill(tiles, EMPTY);
+        this.chunkVersions = new int[chunkColumns * chunkRows];
+        this.chunks = new Chunk[chunkColumns * chunkRows];
+    }
+
+    public BufferedImage getTileset() {
+        return tileset;
+    }
+
+    public int getTileWidth() {
+        return tileWidth;
+    }
+
+    public int getTileHeight() {
+        return tileHeight;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * Size of the whole map in pixels
+     */
+    public int getWidth() {
+        return columns * tileWidth;
+    }
+
+    public int getHeight() {
+        return rows * tileHeight;
+    }
+
+    public synchronized int getTile(int column, int row) {
+        checkCell(column, row);
+        return tiles[row * columns + column];
+    }
+
+    public synchronized void setTile(int column, int row, int tile) {
+        checkCell(column, row);
+        checkTile(tile);
+        int index = row * columns + column;
+        if (tiles[index] == tile) return;
+
+        tiles[index] = tile;
+        chunkVersions[(row / CHUNK_SIZE) * chunkColumns + column / CHUNK_SIZE]++;
+    }
+
+    /**
+     * Replace every tile at once from a row-major array of columns * rows ids
+     */
+    public synchronized void setTiles(int[] tiles) {
+        if (tiles == null || tiles.length != this.tiles.length) {
+            throw new IllegalArgumentException("Expected " + this.tiles.length + " tiles");
+        }
+        for (int tile : tiles) {
+            checkTile(tile);
+        }
+        System.arraycopy(tiles, 0, this.tiles, 0, tiles.length);
+        for (int i = 0; i < chunkVersions.length; i++) {
+            chunkVersions[i]++;
+        }
+    }
+
+    /**
+     * Release the GPU buffers on the next frame; the map cannot be drawn afterwards
+     */
+    public void dispose() {
+        disposed = true;
+    }
+
+    public boolean isDisposed() {
+        return disposed;
+    }
+
+    private void checkCell(int column, int row) {
+        if (column < 0 || row < 0 || column >= columns || row >= rows) {
+            throw new IllegalArgumentException("Tile (" + column + ", " + row + ") outside " + columns + "x" + rows + " map");
+        }
+    }
+
+    private void checkTile(int tile) {
+        if (tile < EMPTY || tile >= tileCount) {
+            throw new IllegalArgumentException("Tile id " + tile + " not in tileset of " + tileCount + " tiles");
+        }
+    }
+
+    // ===== GL thread =====
+
+    /**
+     * Draw the chunks overlapping the given rectangle in map pixels, rebuilding the ones whose
+     * tiles or tileset coordinates changed. The modelview must already place the map.
+     */
+    void draw(GL2GL3 gl, GLStateCache state, SpriteBatch batch, TextureAtlas.Region region, int layoutVersion,
+              float minX, float minY, float maxX, float maxY) {
+        draws++;
+        int chunkWidth = CHUNK_SIZE * tileWidth, chunkHeight = CHUNK_SIZE * tileHeight;
+        int chunkX0 = Math.max(0, (int) Math.floor(minX / chunkWidth));
+        int chunkY0 = Math.max(0, (int) Math.floor(minY / chunkHeight));
+        int chunkX1 = Math.min(chunkColumns - 1, (int) Math.floor(maxX / chunkWidth));
+        int chunkY1 = Math.min(chunkRows - 1, (int) Math.floor(maxY / chunkHeight));
+
+        if (chunkX0 <= chunkX1 && chunkY0 <= chunkY1) {
+            ensureIndices(gl, state);
+            range[1] = region.texture;
+        }
+        for (int chunkY = chunkY0; chunkY <= chunkY1; chunkY++) {
+            for (int chunkX = chunkX0; chunkX <= chunkX1; chunkX++) {
+                int index = chunkY * chunkColumns + chunkX;
+                Chunk chunk = chunks[index];
+                if (chunk == null) {
+                    chunk = new Chunk(index);
+                    chunks[index] = chunk;
+                    resident.add(chunk);
+                }
+                chunk.lastDrawn = draws;
+
+                if (takeChanges(chunk, chunkX, chunkY, layoutVersion)) {
+                    build(gl, state, chunk, chunkX, chunkY, region);
+                }
+                if (chunk.quads > 0) {
+                    range[3] = chunk.quads * 6;
+                    batch.drawStatic(chunk.vertexBuffer, indexBuffer, range, 1);
+                }
+            }
+        }
+        releaseIdle(gl, state);
+    }
+
+    /**
+     * Emit the tiles overlapping the given rectangle in map pixels as batch quads, offset by
+     * (x, y), for the software backend, which has no vertex buffers to keep chunks in
+     */
+    void drawTiles(SpriteBatch batch, TextureAtlas.Region region, int x, int y,
+                   float minX, float minY, float maxX, float maxY) {
+        int column0 = Math.max(0, (int) Math.floor(minX / tileWidth));
+        int row0 = Math.max(0, (int) Math.floor(minY / tileHeight));
+        int column1 = Math.min(columns - 1, (int) Math.floor(maxX / tileWidth));
+        int row1 = Math.min(rows - 1, (int) Math.floor(maxY / tileHeight));
+
+        float uScale = (region.u1 - region.u0) / tileset.getWidth();
+        float vScale = (region.v1 - region.v0) / tileset.getHeight();
+        int color = SpriteBatch.packColor(255, 255, 255, 255);
+        synchronized (this) {
+            for (int row = row0; row <= row1; row++) {
+                for (int column = column0; column <= column1; column++) {
+                    int tile = tiles[row * columns + column];
+                    if (tile == EMPTY) continue;
+
+                    int sourceX = (tile % tilesetColumns) * tileWidth, sourceY = (tile / tilesetColumns) * tileHeight;
+                    batch.texturedRect(region.texture, x + column * tileWidth, y + row * tileHeight, tileWidth, tileHeight,
+                            region.u0 + sourceX * uScale, region.v0 + sourceY * vScale,
+                            region.u0 + (sourceX + tileWidth) * uScale, region.v0 + (sourceY + tileHeight) * vScale, color);
+                }
+            }
+        }
+    }
+
+    // Copy the chunk's tiles out if they or the tileset coordinates changed since it was built
+    private boolean takeChanges(Chunk chunk, int chunkX, int chunkY, int layoutVersion) {
+        synchronized (this) {
+            int version = chunkVersions[chunk.index];
+            if (version == chunk.version && layoutVersion == chunk.layoutVersion) {
+                return false;
+            }
+            int column0 = chunkX * CHUNK_SIZE, row0 = chunkY * CHUNK_SIZE;
+            int width = Math.min(CHUNK_SIZE, columns - column0), height = Math.min(CHUNK_SIZE, rows - row0);
+            for (int row = 0; row < height; row++) {
+                System.arraycopy(tiles, (row0 + row) * columns + column0, chunkTiles, row * CHUNK_SIZE, width);
+                if (width < CHUNK_SIZE) {
+                    Arrays.fill(chunkTiles, row * CHUNK_SIZE + width, (row + 1) * CHUNK_SIZE, EMPTY);
+                }
+            }
+            Arrays.fill(chunkTiles, height * CHUNK_SIZE, CHUNK_TILES, EMPTY);
+            chunk.version = version;
+            chunk.layoutVersion = layoutVersion;
+            return true;
+        }
+    }
+
+    private void build(GL2GL3 gl, GLStateCache state, Chunk chunk, int chunkX, int chunkY, TextureAtlas.Region region) {
+        if (vertices == null) {
+            vertices = Buffers.newDirectByteBuffer(CHUNK_TILES * 4 * SpriteBatch.BYTES_PER_VERTEX);
+        }
+        vertices.clear();
+
+        // Tileset coordinates inside the atlas region
+        float uScale = (region.u1 - region.u0) / tileset.getWidth();
+        float vScale = (region.v1 - region.v0) / tileset.getHeight();
+        int color = SpriteBatch.packColor(255, 255, 255, 255);
+        int quads = 0;
+        for (int i = 0; i < CHUNK_TILES; i++) {
+            int tile = chunkTiles[i];
+            if (tile == EMPTY) continue;
+
+            float x0 = (chunkX * CHUNK_SIZE + i % CHUNK_SIZE) * tileWidth;
+            float y0 = (chunkY * CHUNK_SIZE + i / CHUNK_SIZE) * tileHeight;
+            float x1 = x0 + tileWidth, y1 = y0 + tileHeight;
+            int sourceX = (tile % tilesetColumns) * tileWidth, sourceY = (tile / tilesetColumns) * tileHeight;
+            float u0 = region.u0 + sourceX * uScale, u1 = region.u0 + (sourceX + tileWidth) * uScale;
+            float v0 = region.v0 + sourceY * vScale, v1 = region.v0 + (sourceY + tileHeight) * vScale;
+
+            vertices.putFloat(x0).putFloat(y0).putFloat(u0).putFloat(v0).putInt(color);
+            vertices.putFloat(x1).putFloat(y0).putFloat(u1).putFloat(v0).putInt(color);
+            vertices.putFloat(x1).putFloat(y1).putFloat(u1).putFloat(v1).putInt(color);
+            vertices.putFloat(x0).putFloat(y1).putFloat(u0).putFloat(v1).putInt(color);
+            quads++;
+        }
+        vertices.flip();
+
+        if (chunk.vertexBuffer == 0 && quads > 0) {
+            int[] ids = new int[1];
+            gl.glGenBuffers(1, ids, 0);
+            chunk.vertexBuffer = ids[0];
+        }
+        if (chunk.vertexBuffer != 0) {
+            state.bindBuffer(gl, GL2GL3.GL_ARRAY_BUFFER, chunk.vertexBuffer);
+            gl.glBufferData(GL2GL3.GL_ARRAY_BUFFER, vertices.limit(), vertices, GL2GL3.GL_STATIC_DRAW);
+        }
+        chunk.quads = quads;
+    }
+
+    // Every chunk uses the same quad pattern, so one index buffer serves them all
+    private void ensureIndices(GL2GL3 gl, GLStateCache state) {
+        if (indexBuffer != 0) return;
+
+        IntBuffer indices = Buffers.newDirectIntBuffer(CHUNK_TILES * 6);
+        for (int quad = 0; quad < CHUNK_TILES; quad++) {
+            int base = quad * 4;
+            indices.put(base).put(base + 1).put(base + 2).put(base).put(base + 2).put(base + 3);
+        }
+        indices.flip();
+
+        int[] ids = new int[1];
+        gl.glGenBuffers(1, ids, 0);
+        indexBuffer = ids[0];
+        state.bindBuffer(gl, GL2GL3.GL_ELEMENT_ARRAY_BUFFER, indexBuffer);
+        gl.glBufferData(GL2GL3.GL_ELEMENT_ARRAY_BUFFER, (long) indices.limit() * Integer.BYTES, indices, GL2GL3.GL_STATIC_DRAW);
+    }
+
+    // Scrolling away from a region eventually frees its chunks; they are rebuilt if it comes back
+    private void releaseIdle(GL2GL3 gl, GLStateCache state) {
+        for (int i = resident.size() - 1; i >= 0; i--) {
+            Chunk chunk = resident.get(i);
+            if (draws - chunk.lastDrawn < IDLE_DRAWS) continue;
+
+            if (chunk.vertexBuffer != 0) {
+                state.deleteBuffers(gl, 1, new int[]{chunk.vertexBuffer});
+            }
+            chunks[chunk.index] = null;
+            resident.set(i, resident.get(resident.size() - 1));
+            resident.remove(resident.size() - 1);
+        }
+    }
+
+    void release(GL2GL3 gl, GLStateCache state) {
+        for (Chunk chunk : resident) {
+            if (chunk.vertexBuffer != 0) {
+                state.deleteBuffers(gl, 1, new int[]{chunk.vertexBuffer});
+            }
+            chunks[chunk.index] = null;
+        }
+        resident.clear();
+        if (indexBuffer != 0) {
+            state.deleteBuffers(gl, 1, new int[]{indexBuffer});
+            indexBuffer = 0;
+        }
+    }
+}